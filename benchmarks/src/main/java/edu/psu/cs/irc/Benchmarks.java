@@ -0,0 +1,21 @@
+package edu.psu.cs.irc;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.*;
+
+/**
+ * Runs the benchmarks with the GC profiler attached, so every result shows the allocation rate next
+ * to the throughput. Takes the usual JMH command line options, e.g. {@code FanOut} to run only the
+ * fan-out benchmarks.
+ */
+public class Benchmarks {
+  public static void main(String[] args) throws Exception {
+    Options options =
+        new OptionsBuilder()
+            .parent(new CommandLineOptions(args))
+            .addProfiler(GCProfiler.class)
+            .build();
+    new Runner(options).run();
+  }
+}
@@ -0,0 +1,83 @@
+package edu.psu.cs.irc;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * The binary packet codec against Java serialization, which the client and server used to speak,
+ * along with the server's relay path: decoding a chat message from a user and turning it into the
+ * frame sent on to everyone else.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CodecBenchmark {
+  @Param({"16", "256"})
+  int messageLength;
+
+  private Packet display; // what the server sends
+  private ByteBuffer displayFrame;
+  private ByteBuffer chatFrame; // what a user sends
+  private byte[] serialized;
+  private byte[] prefix;
+  private PacketDecoder serverDecoder;
+  private PacketDecoder clientDecoder;
+
+  @Setup
+  public void setup() throws IOException {
+    StringBuilder message = new StringBuilder();
+    while (message.length() < messageLength) message.append("lorem ipsum ");
+    message.setLength(messageLength);
+    display = new Packet();
+    display.displayToUser(message.toString());
+    displayFrame = PacketEncoder.encode(display).view();
+    Packet chat = new Packet();
+    chat.sendMessageAll(message.toString());
+    chatFrame = PacketEncoder.encode(chat).view();
+    serialized = serialize();
+    prefix = "someone (# 42): ".getBytes("UTF-8");
+    serverDecoder = new PacketDecoder(PacketDecoder.SERVER_MAX_FRAME_LENGTH);
+    clientDecoder = new PacketDecoder(PacketDecoder.CLIENT_MAX_FRAME_LENGTH);
+  }
+
+  @Benchmark
+  public Frame encode() {
+    return PacketEncoder.encode(display);
+  }
+
+  @Benchmark
+  public Packet decode() throws IOException {
+    return clientDecoder.decode(displayFrame.duplicate());
+  }
+
+  /** Decodes a chat message the way the server does and relays it, as one broadcast would. */
+  @Benchmark
+  public int relay() throws IOException {
+    Packet packet = serverDecoder.decode(chatFrame.duplicate());
+    Frame frame = PacketEncoder.encodeRelay(prefix, packet.body);
+    int length = frame.length();
+    frame.release();
+    return length;
+  }
+
+  @Benchmark
+  public byte[] serialize() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+      out.writeObject(display);
+    }
+    return bytes.toByteArray();
+  }
+
+  @Benchmark
+  public Object deserialize() throws IOException, ClassNotFoundException {
+    try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(serialized))) {
+      return in.readObject();
+    }
+  }
+}
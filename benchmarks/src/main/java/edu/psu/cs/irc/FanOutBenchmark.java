@@ -0,0 +1,80 @@
+package edu.psu.cs.irc;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Sending one packet to every connected user, as the server's sendPacketAll and sendMessageAll do:
+ * encode once, queue the frame for every session, then drain every queue as the writers would.
+ * Sockets are left out, so this is the cost the server pays per broadcast before any I/O.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FanOutBenchmark {
+  @Param({"10", "1000", "10000"})
+  int recipients;
+
+  private SessionRegistry registry;
+  private final Frame[] batch = new Frame[OutboundQueue.MAX_BATCH_FRAMES];
+  private byte[] prefix;
+  private byte[] message;
+
+  @Setup
+  public void setup() throws Exception {
+    registry = new SessionRegistry();
+    for (int i = 0; i < recipients; ++i) registry.register(new NullSession());
+    prefix = "someone (# 42): ".getBytes("UTF-8");
+    message = "hello everyone, how is it going?".getBytes("UTF-8");
+  }
+
+  /** A packet built by the server, such as a system message. */
+  @Benchmark
+  public int broadcast() {
+    Packet packet = new Packet();
+    packet.displayToUser("System: User # 42 has joined the chat as someone.");
+    return sendToAll(PacketEncoder.encode(packet));
+  }
+
+  /** A chat message from a user, relayed in its pooled frame. */
+  @Benchmark
+  public int relayToAll() {
+    Frame body = FramePool.CHAT.acquire();
+    body.setBody(message, 0, message.length);
+    return sendToAll(PacketEncoder.encodeRelay(prefix, body));
+  }
+
+  private int sendToAll(Frame frame) {
+    for (Session session : registry.sessions()) session.sendFrame(frame);
+    frame.release();
+    int written = 0;
+    for (Session session : registry.sessions()) {
+      int count = session.outbound.drainTo(batch, OutboundQueue.MAX_BATCH_BYTES);
+      for (int i = 0; i < count; ++i) {
+        written += batch[i].length();
+        batch[i].release();
+        batch[i] = null;
+      }
+    }
+    return written;
+  }
+
+  /** A session whose writer is the benchmark itself. */
+  private static final class NullSession extends Session {
+    NullSession() {
+      super(new OutboundQueue(1024, OutboundQueue.Policy.DROP_OLDEST));
+    }
+
+    @Override
+    void framesQueued() {}
+
+    @Override
+    void close() {}
+
+    @Override
+    void abort() {}
+  }
+}
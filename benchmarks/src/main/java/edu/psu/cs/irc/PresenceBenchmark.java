@@ -0,0 +1,69 @@
+package edu.psu.cs.irc;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Building the user and room lists, which replaced the userUpdate and roomUpdate listings: the
+ * snapshot sent to a joining user, the listings shown in the windows, and applying a delta.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PresenceBenchmark {
+  private static final int USERS_PER_ROOM = 10;
+
+  @Param({"100", "10000"})
+  int users;
+
+  private PresenceModel model;
+  private String joinAndLeave;
+
+  @Setup
+  public void setup() {
+    model = new PresenceModel();
+    StringBuilder events = new StringBuilder();
+    for (int user = 1; user <= users; ++user) {
+      events.append(PresenceModel.userJoined(user, "user" + user)).append('\n');
+      int room = (user - 1) / USERS_PER_ROOM + 1;
+      if ((user - 1) % USERS_PER_ROOM == 0)
+        events.append(PresenceModel.roomCreated(room, "room" + room)).append('\n');
+      events.append(PresenceModel.memberAdded(room, user)).append('\n');
+    }
+    model.apply(events.toString().trim());
+    int user = users + 1;
+    joinAndLeave =
+        PresenceModel.userJoined(user, "newcomer")
+            + "\n"
+            + PresenceModel.memberAdded(1, user)
+            + "\n"
+            + PresenceModel.memberRemoved(1, user)
+            + "\n"
+            + PresenceModel.userLeft(user);
+  }
+
+  @Benchmark
+  public String snapshot() {
+    return model.snapshot();
+  }
+
+  @Benchmark
+  public String userListing() {
+    return model.userListing();
+  }
+
+  @Benchmark
+  public String roomListing() {
+    return model.roomListing();
+  }
+
+  /** A delta as the client applies it: a user joining a room and leaving again. */
+  @Benchmark
+  public PresenceModel applyDelta() {
+    model.apply(joinAndLeave);
+    return model;
+  }
+}
@@ -0,0 +1,47 @@
+package edu.psu.cs.irc;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/** Room membership changes and lookups, at room sizes from a handful of users to ten thousand. */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RoomBenchmark {
+  @Param({"10", "1000", "10000"})
+  int members;
+
+  private ServerRoom room;
+  private int next; // member looked up next
+
+  @Setup
+  public void setup() {
+    room = new ServerRoom(1, "lobby", 1);
+    for (int i = 2; i <= members; ++i) room.addMember(i);
+  }
+
+  /** A user joining the room and leaving again. */
+  @Benchmark
+  public boolean joinLeave() {
+    room.addMember(members + 1);
+    return room.removeMember(members + 1);
+  }
+
+  /** Checking the sender of a room message is a member, hitting and missing in turn. */
+  @Benchmark
+  public boolean contains() {
+    next = next == 2 * members ? 1 : next + 1;
+    return room.contains(next);
+  }
+
+  /** Walking the members, as a room message does to reach every one of them. */
+  @Benchmark
+  public long members() {
+    long[] sum = new long[1];
+    room.members().forEach(id -> sum[0] += id);
+    return sum[0];
+  }
+}
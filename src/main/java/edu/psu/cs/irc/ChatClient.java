@@ -0,0 +1,500 @@
+package edu.psu.cs.irc;
+
+import java.io.*;
+import java.net.Socket;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * The client side of the chat protocol, without any user interface, so that it can be embedded in
+ * bots, bridges and load tests as well as the {@link Client} window. A chat client holds a single
+ * connection. Nothing it offers ever blocks the calling thread: connecting, sending and
+ * disconnecting return futures that complete once the work is done on the client's own threads, and
+ * whatever the server sends is handed to a {@link Listener} on an executor of the caller's
+ * choosing, e.g. {@code SwingUtilities::invokeLater}.
+ *
+ * <p>The connection is served by a reader and a writer task. They run on an I/O executor passed in
+ * by the caller, which any number of clients can share, or else on one the client starts for
+ * itself, of the kind set by {@code irc.executor} and a cached pool by default. Given a shared
+ * virtual thread executor, or with {@code -Dirc.executor=virtual}, both are virtual threads, so a
+ * single JVM can run thousands of chat clients.
+ *
+ * <p>If the connection drops once the user has joined, the client reconnects on its own and resumes
+ * the session with the token the server handed out, backing off between attempts. The user keeps
+ * their id and rooms, only the packets the client had not read are sent again, and other users
+ * never see the user leave. Packets sent while reconnecting fail straight away.
+ */
+public final class ChatClient {
+  /**
+   * Receives what the server sends. Callbacks are handed to the client's executor in the order the
+   * packets arrived; a single threaded executor runs them in that order too. Every method does
+   * nothing by default.
+   */
+  public interface Listener {
+    /**
+     * Called once the server has accepted the user.
+     *
+     * @param userid id number the server assigned to the user
+     * @param welcome welcome message from the server
+     */
+    default void joined(int userid, String welcome) {}
+
+    /**
+     * Called for every message the server displays to the user, whether chat or a system message.
+     */
+    default void message(String message) {}
+
+    /**
+     * Called whenever the user and room lists have changed.
+     *
+     * @param userListing the user list, one user per line after a count
+     * @param roomListing the room list, one room and its members per line after a count
+     */
+    default void presenceChanged(String userListing, String roomListing) {}
+
+    /**
+     * Called when the connection has dropped and the client is trying to resume the session. Once
+     * it has, the server's welcome back message is passed to {@link #message(String)}; if it can
+     * not, {@link #joined(int, String)} or {@link #disconnected(Throwable)} follows.
+     *
+     * @param cause why the connection dropped, or null if the server closed it
+     */
+    default void reconnecting(Throwable cause) {}
+
+    /**
+     * Called once the connection has closed.
+     *
+     * @param cause why the connection failed, or null if it was closed by either side
+     */
+    default void disconnected(Throwable cause) {}
+  }
+
+  private static final int OUTBOUND_CAPACITY = 1024; // frames waiting to be written
+  private static final int RECONNECT_ATTEMPTS = 6; // before giving up on a dropped session
+  private static final int RECONNECT_DELAY_MILLIS = 250; // doubled after every failed attempt
+
+  private final Listener listener;
+  private final Executor callbacks;
+  private final Executor io; // runs the reader and writer
+  private final ExecutorService ownIo; // io if the client started it, shut down on close, else null
+  private final ArrayDeque<CompletableFuture<Void>> sent = new ArrayDeque<>(); // guarded by this
+  private final CompletableFuture<Integer> joined = new CompletableFuture<>();
+  private final CompletableFuture<Void> closed = new CompletableFuture<>();
+  private final CountDownLatch left = new CountDownLatch(1); // cuts a reconnect delay short
+  private OutboundQueue outbound = newOutboundQueue(); // guarded by this, one per connection
+  private boolean reconnecting; // guarded by this, packets sent meanwhile fail
+  private volatile Socket socket;
+  private volatile boolean leaving; // disconnect has been asked for, by the user or the server
+  private volatile boolean disconnected; // set before the futures still pending are failed
+  private volatile String token; // resume token last handed out by the server
+  private boolean connecting; // guarded by this
+
+  /* Reader thread only */
+  private final PresenceModel presence = new PresenceModel(); // user and room lists
+  private int presenceVersion; // version of the last presence delta applied
+  private boolean presenceSynced; // false until a snapshot arrives, and again after a gap
+  private String username;
+  private int base; // packets read on the connections before this one, as the server counts them
+  private int received; // packets read on this connection
+  private int attempts; // reconnects tried since the connection last dropped
+
+  /**
+   * Constructor
+   *
+   * @param listener receives what the server sends
+   * @param callbacks executor the listener is called on
+   */
+  public ChatClient(Listener listener, Executor callbacks) {
+    this(listener, callbacks, null);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param listener receives what the server sends
+   * @param callbacks executor the listener is called on
+   * @param io executor the reader and writer run on, which block on the socket for as long as the
+   *     connection lasts; may be shared by many clients and is never shut down by them. Null to
+   *     start one for this client alone
+   */
+  public ChatClient(Listener listener, Executor callbacks, Executor io) {
+    this.listener = listener;
+    this.callbacks = callbacks;
+    ownIo =
+        io != null
+            ? null
+            : ExecutorStrategy.fromSystemProperty("irc.executor", ExecutorStrategy.CACHED)
+                .newExecutor(2);
+    this.io = io != null ? io : ownIo;
+  }
+
+  /**
+   * Connects to a server and joins it under the given username. A chat client connects only once.
+   *
+   * @param host name or address of the server
+   * @param port port the server is hosted on
+   * @param username name shown to the other users
+   * @return completes with the user's id once the server has accepted the user, or exceptionally if
+   *     the connection fails first
+   */
+  public CompletableFuture<Integer> connect(String host, int port, String username) {
+    synchronized (this) {
+      if (connecting) throw new IllegalStateException("Already connected.");
+      connecting = true;
+    }
+    this.username = username;
+    Packet packet = new Packet();
+    packet.joinServer(username);
+    send(packet); // waits in the queue until the writer starts
+    io.execute(() -> run(host, port));
+    return joined;
+  }
+
+  /** Sends a message to every user on the server. */
+  public CompletableFuture<Void> sendMessageAll(String message) {
+    Packet packet = new Packet();
+    packet.sendMessageAll(message);
+    return send(packet);
+  }
+
+  /** Sends a message to a single user. */
+  public CompletableFuture<Void> sendMessageUser(int userid, String message) {
+    Packet packet = new Packet();
+    packet.sendMessageUser(userid, message);
+    return send(packet);
+  }
+
+  /** Sends a message to every member of a room the user is in. */
+  public CompletableFuture<Void> sendMessageRoom(int roomid, String message) {
+    Packet packet = new Packet();
+    packet.sendMessageRoom(roomid, message);
+    return send(packet);
+  }
+
+  /** Creates a room, with the user as its only member. */
+  public CompletableFuture<Void> createRoom(String roomName) {
+    Packet packet = new Packet();
+    packet.createRoom(roomName);
+    return send(packet);
+  }
+
+  /** Joins an existing room. */
+  public CompletableFuture<Void> joinRoom(int roomid) {
+    Packet packet = new Packet();
+    packet.joinRoom(roomid);
+    return send(packet);
+  }
+
+  /** Leaves a room. */
+  public CompletableFuture<Void> leaveRoom(int roomid) {
+    Packet packet = new Packet();
+    packet.leaveRoom(roomid);
+    return send(packet);
+  }
+
+  /**
+   * Leaves the server. The server closes the connection once it has handled everything sent before.
+   *
+   * @return completes once the connection has closed
+   */
+  public CompletableFuture<Void> disconnect() {
+    leaving = true;
+    left.countDown();
+    Packet packet = new Packet();
+    packet.leaveServer();
+    send(packet)
+        .whenComplete(
+            (ignored, e) -> {
+              if (e != null) close(); // the server can not be told, so just hang up
+            });
+    return closed;
+  }
+
+  /** Returns a future that completes once the connection has closed. */
+  public CompletableFuture<Void> closed() {
+    return closed;
+  }
+
+  /**
+   * Queues a packet for the writer. Packets are written in the order they were sent, and the
+   * returned future completes once the packet has been handed to the socket.
+   */
+  CompletableFuture<Void> send(Packet packet) {
+    return send(packet, false);
+  }
+
+  /**
+   * Queues a packet for the writer.
+   *
+   * @param packet packet to send
+   * @param resuming true to send the packet even though the session is being resumed
+   */
+  private CompletableFuture<Void> send(Packet packet, boolean resuming) {
+    Frame frame = PacketEncoder.encode(packet);
+    CompletableFuture<Void> future = new CompletableFuture<>();
+    boolean queued;
+    boolean held;
+    synchronized (this) {
+      held = reconnecting && !resuming;
+      // never waits, a full queue is refused straight away
+      queued = !held && outbound.offer(frame);
+      if (queued) sent.add(future);
+    }
+    if (held) future.completeExceptionally(new IOException("Reconnecting to the server."));
+    else if (!queued)
+      future.completeExceptionally(new IOException("Too many packets waiting to be sent."));
+    else if (disconnected) failPending(new IOException("Connection closed."));
+    return future;
+  }
+
+  /**
+   * Connects, starts the writer, then reads packets until the connection closes. If it drops once
+   * the user has joined, the session is resumed on a new connection, and so on until the user
+   * leaves or every reconnect has failed.
+   */
+  private void run(String host, int port) {
+    Throwable cause = null;
+    while (true) {
+      try {
+        serve(host, port);
+      } catch (IOException e) {
+        cause = e;
+        if (leaving && joined.isDone()) cause = null; // closed by either side on purpose
+        else if (e instanceof EOFException && joined.isDone()) cause = null;
+      }
+      if (leaving || token == null) break; // the server has never seen the user, or they left
+      if (attempts == 0) startReconnect(cause);
+      if (attempts == RECONNECT_ATTEMPTS) break;
+      try {
+        if (left.await(RECONNECT_DELAY_MILLIS << attempts++, TimeUnit.MILLISECONDS)) break;
+      } catch (InterruptedException e) {
+        break;
+      }
+      Log.info("Reconnecting, attempt " + attempts + " of " + RECONNECT_ATTEMPTS + "...");
+      Packet packet = new Packet();
+      packet.resumeSession(token, base + received);
+      base += received;
+      received = 0;
+      synchronized (this) {
+        outbound.discard(); // left unsent by a failed attempt
+        outbound = newOutboundQueue();
+      }
+      failPending(new IOException("Connection lost."));
+      send(packet, true); // the first packet on the new connection
+    }
+    close();
+    disconnected = true;
+    IOException failure = new IOException("Connection closed.", cause);
+    joined.completeExceptionally(failure);
+    failPending(failure);
+    Throwable reason = cause;
+    callbacks.execute(() -> listener.disconnected(reason));
+    closed.complete(null);
+  }
+
+  /** Connects, starts the connection's writer, then reads packets until the connection closes. */
+  private void serve(String host, int port) throws IOException {
+    OutboundQueue outbound;
+    synchronized (this) {
+      outbound = this.outbound;
+    }
+    Socket socket = new Socket(host, port);
+    this.socket = socket;
+    if (leaving) socket.close(); // the user left while connecting
+    OutputStream out =
+        new BufferedOutputStream(socket.getOutputStream(), OutboundQueue.MAX_BATCH_BYTES);
+    try {
+      io.execute(() -> writePackets(socket, out, outbound));
+    } catch (RejectedExecutionException e) {
+      socket.close(); // the client has been closed meanwhile
+      throw new IOException("Connection closed.", e);
+    }
+    DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+    PacketDecoder decoder = new PacketDecoder(PacketDecoder.CLIENT_MAX_FRAME_LENGTH);
+    Log.info("Listening for packets...");
+    while (true) {
+      Packet packet = decoder.read(in);
+      ++received;
+      Log.packetReceived(packet.command, -1);
+      packetReceived(packet);
+    }
+  }
+
+  /**
+   * Gets ready to resume the session once its connection has dropped. Packets that were waiting to
+   * be written are failed, as are any sent until the session has been resumed.
+   */
+  private void startReconnect(Throwable cause) {
+    Log.warn("Connection lost, reconnecting...");
+    synchronized (this) {
+      reconnecting = true;
+      outbound.discard(); // stops the writer if it is still waiting
+    }
+    failPending(new IOException("Connection lost.", cause));
+    callbacks.execute(() -> listener.reconnecting(cause));
+  }
+
+  /** Lets packets be sent again once the session has been resumed, or the user has joined again. */
+  private void reconnected() {
+    synchronized (this) {
+      reconnecting = false;
+    }
+    attempts = 0;
+    if (!presenceSynced) requestPresenceResync(); // asked for while reconnecting
+  }
+
+  private static OutboundQueue newOutboundQueue() {
+    return new OutboundQueue(OUTBOUND_CAPACITY, OutboundQueue.Policy.DISCONNECT);
+  }
+
+  /**
+   * Writes queued packets to the server, every packet waiting when the writer wakes up with a
+   * single flush. Exits once the queue has been closed or the server can no longer be written to,
+   * in which case the socket is closed so that the reader finds out too.
+   */
+  private void writePackets(Socket socket, OutputStream out, OutboundQueue outbound) {
+    Frame[] batch = new Frame[OutboundQueue.MAX_BATCH_FRAMES];
+    try {
+      int count;
+      while ((count = outbound.takeBatch(batch, OutboundQueue.MAX_BATCH_BYTES)) > 0) {
+        for (int i = 0; i < count; ++i) {
+          batch[i].writeTo(out);
+          Log.packetSent(batch[i].command, -1);
+          batch[i] = null;
+        }
+        out.flush();
+        completeSent(count);
+      }
+    } catch (Exception e) {
+      if (!leaving && token == null) e.printStackTrace(); // otherwise the session is resumed
+      try {
+        socket.close();
+      } catch (IOException ignored) {
+        // already closed
+      }
+    }
+  }
+
+  private void packetReceived(Packet packet) {
+    switch (packet.command) {
+      case "joinServer": // username logged by server, ready to start chatting
+        Log.info("Ready to start chatting!");
+        int userid = packet.targetid;
+        String welcome = packet.message;
+        callbacks.execute(() -> listener.joined(userid, welcome));
+        joined.complete(userid);
+        if (attempts > 0) reconnected(); // joined again, as the session could not be resumed
+        break;
+      case "sessionToken":
+        token = packet.message;
+        break;
+      case "resumeSession":
+        if (packet.targetid < 0) {
+          Log.warn("Session could not be resumed, joining again...");
+          presenceSynced = false; // a snapshot follows the join
+          Packet join = new Packet();
+          join.joinServer(username);
+          send(join, true);
+          break;
+        }
+        Log.info("Session resumed.");
+        String welcomeBack = packet.message;
+        callbacks.execute(() -> listener.message(welcomeBack));
+        reconnected();
+        break;
+      case "presenceSnapshot":
+        presence.clear();
+        presenceVersion = packet.targetid;
+        presenceSynced = true;
+        applyPresence(packet.message);
+        break;
+      case "presenceDelta":
+        if (!presenceSynced) break; // a snapshot is on its way
+        if (packet.targetid <= presenceVersion) break; // already included
+        if (packet.targetid != presenceVersion + 1) {
+          requestPresenceResync();
+          break;
+        }
+        presenceVersion = packet.targetid;
+        applyPresence(packet.message);
+        break;
+      case "displayToUser":
+        String message = packet.message;
+        callbacks.execute(() -> listener.message(message));
+        break;
+      case "ping":
+        Packet pong = new Packet();
+        pong.pong(packet.message);
+        send(pong);
+        break;
+      case "shutdown":
+        leaving = true; // the server is about to close the connection
+        break;
+      default:
+        // TODO - error handling
+    }
+  }
+
+  /**
+   * Applies presence events from the server to the user and room lists and hands the new lists to
+   * the listener. If the events can not be understood, a new snapshot is requested.
+   *
+   * @param events events in the format of {@link PresenceModel}
+   */
+  private void applyPresence(String events) {
+    try {
+      presence.apply(events);
+    } catch (IllegalArgumentException e) {
+      e.printStackTrace();
+      requestPresenceResync();
+      return;
+    }
+    String userListing = presence.userListing();
+    String roomListing = presence.roomListing();
+    callbacks.execute(() -> listener.presenceChanged(userListing, roomListing));
+  }
+
+  /**
+   * Asks the server for a complete snapshot of the user and room lists, ignoring deltas until it
+   * arrives. Used when a delta has been missed, since the ones after it can not be applied.
+   */
+  private void requestPresenceResync() {
+    presenceSynced = false;
+    Packet packet = new Packet();
+    packet.presenceResync(presenceVersion);
+    send(packet); // fails while reconnecting, and is asked for again once reconnected
+  }
+
+  /** Completes the futures of packets that have been written, oldest first. */
+  private void completeSent(int count) {
+    CompletableFuture<?>[] done = new CompletableFuture<?>[count];
+    synchronized (this) {
+      for (int i = 0; i < count; ++i) done[i] = sent.poll();
+    }
+    for (CompletableFuture<?> future : done)
+      if (future != null) future.complete(null); // failed meanwhile by a reconnect
+  }
+
+  private void failPending(Throwable failure) {
+    List<CompletableFuture<Void>> failed;
+    synchronized (this) {
+      failed = new ArrayList<>(sent);
+      sent.clear();
+    }
+    for (CompletableFuture<Void> future : failed) future.completeExceptionally(failure);
+  }
+
+  /** Closes the connection, which also ends the reader and writer. */
+  private void close() {
+    synchronized (this) {
+      outbound.discard();
+    }
+    try {
+      Socket socket = this.socket;
+      if (socket != null) socket.close();
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+    if (ownIo != null) ownIo.shutdown();
+  }
+}
@@ -0,0 +1,65 @@
+package edu.psu.cs.irc;
+
+import javax.swing.*;
+
+/**
+ * A text area showing the lines of a {@link ChatLog}. The area is only updated when {@link
+ * #refresh()} is called, normally from a Swing timer, which appends whatever was added to the log
+ * since the last refresh as a single edit. The area never holds more lines than the log does, so it
+ * stays the same size however long the chat runs. Only used on the event dispatch thread.
+ */
+final class ChatDisplay {
+  private final ChatLog log;
+  private final JTextArea area;
+  private long shownLines = -1; // ChatLog.count() as of the last refresh, -1 to show every line
+
+  /**
+   * Constructor
+   *
+   * @param log lines to be shown
+   * @param rows height of the area in lines
+   * @param columns width of the area in characters
+   */
+  ChatDisplay(ChatLog log, int rows, int columns) {
+    this.log = log;
+    area = new JTextArea(rows, columns);
+    area.setLineWrap(true);
+    area.setEditable(false);
+  }
+
+  /** Returns the text area, to be added to a window. */
+  JTextArea area() {
+    return area;
+  }
+
+  /** Shows the lines added to the log since the last refresh, if there are any. */
+  void refresh() {
+    long count = log.count();
+    if (count == shownLines) return;
+    if (shownLines < 0 || count < shownLines || count - shownLines >= log.capacity()) {
+      area.setText(log.linesSince(0));
+    } else {
+      area.append("\n" + log.linesSince(shownLines));
+      trim();
+    }
+    shownLines = count;
+    area.setCaretPosition(area.getDocument().getLength());
+  }
+
+  /** Clears the area. The next refresh shows every line the log still holds. */
+  void reset() {
+    area.setText("");
+    shownLines = -1;
+  }
+
+  /** Drops lines from the top of the area once it holds more than the log does. */
+  private void trim() {
+    int excess = area.getLineCount() - log.capacity();
+    if (excess <= 0) return;
+    try {
+      area.replaceRange("", 0, area.getLineEndOffset(excess - 1));
+    } catch (Exception e) {
+      e.printStackTrace();
+    }
+  }
+}
@@ -0,0 +1,82 @@
+package edu.psu.cs.irc;
+
+import java.util.Arrays;
+
+/**
+ * The most recent lines of a chat, as shown in the server's or client's chat display, kept in a
+ * fixed size ring. Network threads only ever add a line to the ring, which never grows and never
+ * touches Swing; the display reads the ring on its own schedule, so it costs the same however fast
+ * messages arrive. Relayed chat messages are kept as the frame they were relayed in, and only
+ * decoded if they are read before they drop out of the ring.
+ */
+final class ChatLog {
+  private final Object[] lines; // each a String, or a relayed Frame holding a reference
+  private long count; // lines added since the log was created or cleared, guarded by this
+
+  /**
+   * Constructor
+   *
+   * @param capacity number of lines kept, older lines are dropped
+   */
+  ChatLog(int capacity) {
+    lines = new Object[capacity];
+  }
+
+  /** Returns the number of lines kept. */
+  int capacity() {
+    return lines.length;
+  }
+
+  /** Adds a line, dropping the oldest one if the log is full. */
+  synchronized void add(String line) {
+    put(line);
+  }
+
+  /**
+   * Adds a relayed chat message as a line, without decoding it. Takes a reference to the frame,
+   * which is given up once the line drops out of the log, so the caller keeps theirs.
+   *
+   * @param relayed displayToUser frame built by {@link PacketEncoder#encodeRelay}
+   */
+  synchronized void add(Frame relayed) {
+    relayed.retain();
+    put(relayed);
+  }
+
+  /** Drops every line. */
+  synchronized void clear() {
+    for (Object line : lines) if (line instanceof Frame) ((Frame) line).release();
+    Arrays.fill(lines, null);
+    count = 0;
+  }
+
+  private void put(Object line) {
+    int slot = (int) (count++ % lines.length);
+    if (lines[slot] instanceof Frame) ((Frame) lines[slot]).release();
+    lines[slot] = line;
+  }
+
+  /**
+   * Returns the number of lines added so far. A display that remembers it can tell whether anything
+   * changed, and which lines are new.
+   */
+  synchronized long count() {
+    return count;
+  }
+
+  /**
+   * Returns the lines added after the given count that are still kept, oldest first, separated by
+   * newlines.
+   *
+   * @param from value of {@link #count()} to start after, 0 for every line kept
+   */
+  synchronized String linesSince(long from) {
+    StringBuilder sb = new StringBuilder();
+    for (long i = Math.max(from, count - lines.length); i < count; ++i) {
+      if (sb.length() > 0) sb.append('\n');
+      Object line = lines[(int) (i % lines.length)];
+      sb.append(line instanceof Frame ? ((Frame) line).relayedText() : line);
+    }
+    return sb.toString();
+  }
+}
@@ -3,28 +3,34 @@ package edu.psu.cs.irc;
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.*;
-import java.io.*;
-import java.net.Socket;
-import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The chat window. Everything to do with the connection is left to a {@link ChatClient}, which
+ * never blocks the window's thread. Its callbacks run on the thread reading from the server and
+ * never touch Swing themselves: messages are added to a bounded {@link ChatLog}, and only the
+ * latest user and room lists are kept. A Swing timer applies whatever has changed to the window
+ * about thirty times a second, so a busy room costs the window the same few updates per second as a
+ * quiet one, and the scrollback never grows past {@code irc.client.scrollback} lines.
+ */
+public class Client extends JFrame implements ActionListener, ChatClient.Listener {
+  private static final int REFRESH_MILLIS = 33; // how often changes are shown, about 30 per second
 
-/** */
-public class Client extends JFrame implements ActionListener {
   /** Client Data Members */
-  private Socket socket;
+  private ChatClient chat; // the current connection, null while not connected
 
-  private boolean shutdown;
-  private ObjectOutputStream out;
-  private ObjectInputStream in;
-  private ExecutorService pool;
-  private PacketListener packetListener;
+  private final ChatLog scrollback =
+      new ChatLog(Math.max(1, Integer.getInteger("irc.client.scrollback", 1000)));
+  private final AtomicReference<String[]> presence = new AtomicReference<>(); // lists not shown yet
 
   /** GUI Data Members */
   private LoginMenu loginMenu;
 
-  private JTextArea chatDisplay;
+  private final Timer refreshTimer = new Timer(REFRESH_MILLIS, event -> refresh());
+  private ChatDisplay chatDisplay;
   private JTextField textInput;
-  private JTextArea userDisplay;
-  private JTextArea roomDisplay;
+  private final DefaultListModel<String> users = new DefaultListModel<>();
+  private final DefaultListModel<String> rooms = new DefaultListModel<>();
 
   // CLIENT METHODS
 
@@ -34,128 +40,120 @@ public class Client extends JFrame implements ActionListener {
    */
   Client() {
     super("IRC Client");
-    System.out.println("Starting up client application...");
+    Log.info("Starting up client application...");
     clientGUISetup();
     loginMenu = new LoginMenu();
     loginMenu.setVisible(true);
-    System.out.println("Success! Client application started.");
+    Log.info("Success! Client application started.");
   }
 
   /** Exits the application with status code 0. */
   private void closeClientApplication() {
-    System.out.println("Closing client application...");
+    Log.info("Closing client application...");
     System.exit(0);
   }
 
   /**
-   * Sends out a socket connection request to ip:port. If successful, attempts to instantiate the
-   * object streams, the single thread pool (for holding the packet listener), and the packet
-   * listener. Finally it starts up the packet listener by executing it in the pool and returning
-   * true. If any exceptions occur, it returns false.
+   * Connects to the server at ip:port and joins it under the given username. The connection is made
+   * on the chat client's own threads, and the login menu reports how it went once it is done.
    *
    * @param ip a string representing the desired IP address that is being connected to
    * @param port an integer representing the desired port number that is being connected to
-   * @return a boolean representing whether successful connection to server was made
+   * @param username name shown to the other users
    */
-  private boolean connectToServer(String ip, int port) {
-    System.out.println("Connecting to server...");
-    shutdown = false;
-    try {
-      socket = new Socket(ip, port);
-      out = new ObjectOutputStream(socket.getOutputStream());
-      in = new ObjectInputStream(socket.getInputStream());
-      pool = Executors.newFixedThreadPool(1);
-      packetListener = new PacketListener();
-      pool.execute(packetListener);
-    } catch (Exception e) {
-      e.printStackTrace();
-      return false;
-    }
-    System.out.println("Success! Connected to server.");
-    return true;
+  private void connectToServer(String ip, int port, String username) {
+    Log.info("Connecting to server...");
+    chat = new ChatClient(this, Runnable::run); // callbacks are cheap, see the class comment
+    chat.connect(ip, port, username)
+        .whenComplete(
+            (userid, e) ->
+                SwingUtilities.invokeLater(
+                    () -> {
+                      if (e != null) {
+                        loginMenu.displayFeedback("Connection failed.");
+                        return;
+                      }
+                      Log.info("Success! Connected to server.");
+                      loginMenu.displayFeedback("Success! Connected to server " + ip + ":" + port);
+                    }));
   }
 
-  /**
-   * Sets shutdown to true, thus exiting the infinite incoming connection loop and closing the
-   * server. Also sends a final packet to the server to let it know the user is logging out of the
-   * server.
-   */
+  /** Lets the server know the user is leaving. The window closes once the connection has. */
   private void disconnectFromServer() {
-    System.out.println("Disconnecting from server...");
-    shutdown = true;
-    Packet packet = new Packet();
-    packet.leaveServer();
-    sendPacket(packet);
+    Log.info("Disconnecting from server...");
+    if (chat != null) chat.disconnect();
   }
 
   /**
-   * Closes all connections and sets the relevant members to their null values. Finally switches the
-   * visible windows from the chat window to the login window.
+   * Once the user has been accepted, the chat window replaces the login window. The scrollback is
+   * started over here rather than in the window, so that no message arriving meanwhile is lost.
    */
-  private void serverDisconnectCleanup() {
-    // disconnect sequence
-    System.out.println("Closing connections...");
-    try {
-      in.close();
-      in = null;
-      out.close();
-      out = null;
-      socket.close();
-      socket = null;
-      pool.shutdown();
-      pool = null;
-      packetListener = null;
-    } catch (Exception e) {
-      e.printStackTrace();
-    }
-    System.out.println("Success! Connections closed.");
-    setVisible(false);
-    loginMenu.displayFeedback("Disconnected from server.");
-    loginMenu.setVisible(true);
+  @Override
+  public void joined(int userid, String welcome) {
+    scrollback.clear();
+    scrollback.add(welcome);
+    presence.set(null);
+    SwingUtilities.invokeLater(this::startChatGUI);
   }
 
-  /**
-   * Sends a given packet to the server.
-   *
-   * @param packet packet to be sent to the server
-   */
-  private void sendPacket(Packet packet) {
-    try {
-      out.writeObject(packet);
-      out.flush();
-    } catch (Exception e) {
-      e.printStackTrace();
-    }
-    System.out.println(packet.command + " packet sent to server.");
+  @Override
+  public void message(String message) {
+    scrollback.add(message);
+  }
+
+  /** Only the latest lists matter, so lists replaced before the window shows them are skipped. */
+  @Override
+  public void presenceChanged(String userListing, String roomListing) {
+    presence.set(new String[] {userListing, roomListing});
+  }
+
+  /** The chat window stays up while the session is resumed in the background. */
+  @Override
+  public void reconnecting(Throwable cause) {
+    scrollback.add("System: Connection lost, reconnecting...");
+  }
+
+  /** Once the connection has closed, the login window replaces the chat window. */
+  @Override
+  public void disconnected(Throwable cause) {
+    SwingUtilities.invokeLater(
+        () -> {
+          Log.info("Success! Connections closed.");
+          chat = null;
+          refreshTimer.stop();
+          setVisible(false);
+          loginMenu.displayFeedback("Disconnected from server.");
+          loginMenu.setVisible(true);
+        });
+  }
+
+  /** Shows new chat lines and the latest user and room lists, if any have arrived. */
+  private void refresh() {
+    chatDisplay.refresh();
+    String[] listings = presence.getAndSet(null);
+    if (listings == null) return;
+    updateList(users, listings[0]);
+    updateList(rooms, listings[1]);
   }
 
   /**
-   * Takes a given packet and inspects its command value to route it to the correct function with
-   * the correct data passed to it. Any unrecognized packet command types are ignored.
+   * Makes a list show the lines of a listing, changing only the rows that differ. A user joining or
+   * leaving changes a row or two, so only those are repainted, and the list keeps its scroll
+   * position instead of being rebuilt.
    *
-   * @param packet packet to be inspected and rerouted.
+   * @param model rows of the list
+   * @param listing one row per line, blank lines are left out
    */
-  private void packetHandler(Packet packet) {
-    String command = packet.command;
-    switch (command) {
-      case "joinServer": // username logged by server, ready to start chatting
-        startChatGUI(packet.message);
-        break;
-      case "userUpdate":
-        userDisplay.setText(packet.message);
-        break;
-      case "roomUpdate":
-        roomDisplay.setText(packet.message);
-        break;
-      case "displayToUser":
-        displayToUser(packet.message);
-        break;
-      case "shutdown":
-        shutdown = true;
-        break;
-      default:
-        // TODO - error handling
+  private static void updateList(DefaultListModel<String> model, String listing) {
+    String[] rows = listing.replace("\n\n", "\n").split("\n");
+    for (int i = 0; i < rows.length; ++i) { // rows before i already match
+      if (i == model.getSize()) model.addElement(rows[i]);
+      else if (model.get(i).equals(rows[i])) continue;
+      else if (i + 1 < model.getSize() && model.get(i + 1).equals(rows[i])) model.remove(i);
+      else if (i + 1 < rows.length && model.get(i).equals(rows[i + 1])) model.add(i, rows[i]);
+      else model.set(i, rows[i]);
     }
+    if (model.getSize() > rows.length) model.removeRange(rows.length, model.getSize() - 1);
   }
 
   // GUI Methods
@@ -185,10 +183,7 @@ public class Client extends JFrame implements ActionListener {
     gbc.fill = GridBagConstraints.VERTICAL;
 
     // initialize active user list display
-    userDisplay = new JTextArea(25, 15);
-    userDisplay.setLineWrap(false);
-    userDisplay.setEditable(false);
-    JScrollPane userDisplayScroll = new JScrollPane(userDisplay);
+    JScrollPane userDisplayScroll = listDisplay(users, 25, 15);
     gbc.gridx = 0;
     gbc.gridy = 0;
     gbc.gridwidth = 1;
@@ -196,10 +191,7 @@ public class Client extends JFrame implements ActionListener {
     panel.add(userDisplayScroll, gbc);
 
     // initializes active room list display
-    roomDisplay = new JTextArea(25, 15);
-    roomDisplay.setLineWrap(false);
-    roomDisplay.setEditable(false);
-    JScrollPane roomDisplayScroll = new JScrollPane(roomDisplay);
+    JScrollPane roomDisplayScroll = listDisplay(rooms, 25, 15);
     gbc.gridx = 1;
     gbc.gridy = 0;
     gbc.gridwidth = 1;
@@ -207,11 +199,8 @@ public class Client extends JFrame implements ActionListener {
     panel.add(roomDisplayScroll, gbc);
 
     // initialize chat dialogue display
-    chatDisplay = new JTextArea(25, 40);
-    chatDisplay.setText("System: Welcome to the Chat Server!");
-    chatDisplay.setLineWrap(true);
-    chatDisplay.setEditable(false);
-    JScrollPane chatDisplayScroll = new JScrollPane(chatDisplay);
+    chatDisplay = new ChatDisplay(scrollback, 25, 40);
+    JScrollPane chatDisplayScroll = new JScrollPane(chatDisplay.area());
     gbc.gridx = 2;
     gbc.gridy = 0;
     gbc.gridwidth = 2;
@@ -238,27 +227,38 @@ public class Client extends JFrame implements ActionListener {
   }
 
   /**
-   * Reveals the chat GUI window with a given message, clearing out any previous messages.
-   *
-   * @param message string set as the only text in the chat window display
+   * Returns a list showing the rows of a model, sized like a text area of the given rows and
+   * columns. Rows too long for it can be scrolled to.
    */
-  private void startChatGUI(String message) {
+  private static JScrollPane listDisplay(DefaultListModel<String> model, int rows, int columns) {
+    JList<String> list = new JList<>(model);
+    list.setVisibleRowCount(rows);
+    JScrollPane scroll = new JScrollPane(list);
+    scroll.setPreferredSize(new JScrollPane(new JTextArea(rows, columns)).getPreferredSize());
+    return scroll;
+  }
+
+  /**
+   * Reveals the chat GUI window, clearing out any previous messages. The chat log already holds the
+   * welcome message, which the next refresh shows.
+   */
+  private void startChatGUI() {
+    chatDisplay.reset();
+    users.clear();
+    rooms.clear();
+    refreshTimer.start();
     loginMenu.setVisible(false);
     setVisible(true);
-    System.out.println("Ready to start chatting!");
-    chatDisplay.setText(message);
   }
 
   /**
-   * Takes a string and posts it to the chat window display with the correct formatting. Also sets
-   * the carat position so that the window scrolls as you get new messages and shows the most
-   * recent.
+   * Takes a string and posts it to the chat window display. It is shown, and the window scrolled to
+   * it, by the next refresh.
    *
    * @param message message to be posted to the chat window display
    */
   private void displayToUser(String message) {
-    chatDisplay.append("\n" + message);
-    chatDisplay.setCaretPosition(chatDisplay.getDocument().getLength());
+    scrollback.add(message);
   }
 
   /**
@@ -272,7 +272,7 @@ public class Client extends JFrame implements ActionListener {
    * @param userInput
    */
   private void parseInput(String userInput) {
-    Packet packet = new Packet();
+    if (chat == null) return;
     if (userInput.startsWith("@")) {
       String[] input = userInput.split(" ", 2);
       int targetid;
@@ -292,8 +292,7 @@ public class Client extends JFrame implements ActionListener {
             displayToUser("System: Cannot send an empty message to a user.");
             return;
           }
-          packet.sendMessageUser(targetid, userInput);
-          sendPacket(packet);
+          chat.sendMessageUser(targetid, userInput);
           break;
         case "@room":
           input = input[1].split(" ", 2);
@@ -308,16 +307,14 @@ public class Client extends JFrame implements ActionListener {
             displayToUser("System: Cannot send an empty message to a room.");
             return;
           }
-          packet.sendMessageRoom(targetid, userInput);
-          sendPacket(packet);
+          chat.sendMessageRoom(targetid, userInput);
           break;
         case "@create":
           if (input[1].equals("")) {
             displayToUser("System: Cannot create a room with no name.");
             return;
           }
-          packet.createRoom(input[1]);
-          sendPacket(packet);
+          chat.createRoom(input[1]);
           break;
         case "@join":
           if (input.length > 2) {
@@ -331,8 +328,7 @@ public class Client extends JFrame implements ActionListener {
                 "System: '" + input[1] + "' in command '" + userInput + "' is not a valid number.");
             return;
           }
-          packet.joinRoom(targetid);
-          sendPacket(packet);
+          chat.joinRoom(targetid);
           break;
         case "@leave":
           if (input.length > 2) {
@@ -346,8 +342,7 @@ public class Client extends JFrame implements ActionListener {
                 "System: '" + input[1] + "' in command '" + userInput + "' is not a valid number.");
             return;
           }
-          packet.leaveRoom(targetid);
-          sendPacket(packet);
+          chat.leaveRoom(targetid);
           break;
         default:
           String message =
@@ -365,8 +360,7 @@ public class Client extends JFrame implements ActionListener {
           displayToUser(message);
       }
     } else {
-      packet.sendMessageAll(userInput);
-      sendPacket(packet);
+      chat.sendMessageAll(userInput);
     }
   }
 
@@ -383,35 +377,6 @@ public class Client extends JFrame implements ActionListener {
     parseInput(userInput);
   }
 
-  /**
-   * The PacketListener is a runnable thread which will asyncronously listener for incoming packets
-   * from the server. The run function is called when the PacketListener is handed to the thread
-   * pool and executed. It loops while the shutdown member is false, attempting to read in packets
-   * from the server. On any failure to read from the server, it calls the disconnectFromServer()
-   * function to close the connection and leave the server. When it gets a packet from the server,
-   * it hands it to the packetHandler() function to be interpreted and manipulated. Once it exits
-   * the loop, it calls the serverDisconnectCleanup() function to close all the connections and
-   * return to the login GUI.
-   */
-  private class PacketListener implements Runnable {
-    @Override
-    public void run() {
-      // packet listening loop
-      System.out.println("Listening for packets...");
-      while (!shutdown) {
-        try {
-          Packet packet = (Packet) in.readObject();
-          System.out.println(packet.command + " packet received from server.");
-          packetHandler(packet);
-        } catch (Exception e) {
-          if (e instanceof EOFException) disconnectFromServer();
-          else e.printStackTrace();
-        }
-      }
-      serverDisconnectCleanup();
-    }
-  }
-
   /**
    * The login menu is the GUI object that the user utilizes to instigate connections to the server.
    */
@@ -522,14 +487,7 @@ public class Client extends JFrame implements ActionListener {
           return;
         }
         displayFeedback("Attempting to connect to server " + ip + ":" + portString + "...");
-        if (!connectToServer(ip, port)) {
-          displayFeedback("Connection failed.");
-          return;
-        }
-        displayFeedback("Success! Connected to server " + ip + ":" + portString);
-        Packet packet = new Packet();
-        packet.joinServer(username);
-        sendPacket(packet);
+        connectToServer(ip, port, username);
       }
       // clear button pressed
       if (event.getSource() == clearButton) {
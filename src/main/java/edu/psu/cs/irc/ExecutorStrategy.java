@@ -0,0 +1,69 @@
+package edu.psu.cs.irc;
+
+import java.util.concurrent.*;
+
+/**
+ * The kinds of executor that can run blocking connection tasks, i.e. the server's ServerThreads and
+ * the client's PacketListener. Every task spends most of its life blocked on a socket read, so a
+ * pooled strategy can only serve as many connections as it has threads, while {@link #CACHED}
+ * starts a platform thread whenever every other one is busy and {@link #VIRTUAL} gives each
+ * connection its own cheap virtual thread.
+ */
+enum ExecutorStrategy {
+  CACHED, // platform threads started as needed and reused once idle, never capped
+  FIXED, // a fixed pool of platform threads, one per connection
+  WORK_STEALING, // a ForkJoinPool with the same parallelism as the fixed pool
+  VIRTUAL; // one virtual thread per task, JDK 21+ only
+
+  /**
+   * Creates a fresh executor of this kind.
+   *
+   * @param threadLimit number of platform threads for the pooled strategies; ignored by CACHED and
+   *     VIRTUAL
+   * @return the new executor
+   * @throws UnsupportedOperationException if VIRTUAL is requested on a JDK without virtual threads
+   */
+  ExecutorService newExecutor(int threadLimit) {
+    switch (this) {
+      case CACHED:
+        return Executors.newCachedThreadPool();
+      case WORK_STEALING:
+        return Executors.newWorkStealingPool(threadLimit);
+      case VIRTUAL:
+        return newVirtualThreadPerTaskExecutor();
+      default:
+        return Executors.newFixedThreadPool(threadLimit);
+    }
+  }
+
+  /** Returns whether the strategy runs at most threadLimit tasks at once. */
+  boolean isPooled() {
+    return this == FIXED || this == WORK_STEALING;
+  }
+
+  /**
+   * Reads a strategy from a system property, e.g. {@code -Dirc.executor=virtual}.
+   *
+   * @param name name of the system property
+   * @param fallback strategy to use if the property is not set
+   * @return the configured strategy
+   */
+  static ExecutorStrategy fromSystemProperty(String name, ExecutorStrategy fallback) {
+    String value = System.getProperty(name);
+    return value == null ? fallback : valueOf(value.toUpperCase().replace('-', '_'));
+  }
+
+  /**
+   * Looked up reflectively so the project keeps compiling for JDK 11 while still picking up virtual
+   * threads when it runs on JDK 21 or later.
+   */
+  private static ExecutorService newVirtualThreadPerTaskExecutor() {
+    try {
+      return (ExecutorService)
+          Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    } catch (ReflectiveOperationException e) {
+      throw new UnsupportedOperationException(
+          "Virtual threads require JDK 21 or later, running on " + Runtime.version() + ".");
+    }
+  }
+}
@@ -0,0 +1,105 @@
+package edu.psu.cs.irc;
+
+/**
+ * Limits how fast a single user can make the server work. Every command a user sends is counted
+ * against a {@link TokenBucket} of the user's own, one per class of command, before the server does
+ * anything with it, so a client sending in a loop only ever uses up its own allowance and the
+ * fan-out capacity is kept for everyone else. What happens to a command sent too fast is decided by
+ * the {@link Policy}.
+ */
+final class FloodControl {
+  /** What to do with a command sent faster than its class allows. */
+  enum Policy {
+    DELAY, // the sender's connection is not read until the command is allowed
+    DROP, // the command is dropped and the sender is told so
+    DISCONNECT // the sender is disconnected
+  }
+
+  /** Commands limited together, each limited on its own. */
+  enum CommandClass {
+    CHAT, // messages to everyone, a room or a single user
+    ROOMS, // creating, joining and leaving rooms, each of which every user is told about
+    PRESENCE, // joining and resuming, and asking for the user and room lists, each sent in full
+    OTHER // everything else, e.g. answers to pings, leaving, and commands only the server sends
+  }
+
+  /** A session's buckets: one per class of command, and one limiting how often it is warned. */
+  static final class Buckets {
+    final TokenBucket[] commands; // indexed by CommandClass.ordinal(), null if not limited
+    final TokenBucket warnings = new TokenBucket(WARNINGS_PER_SECOND, 1);
+
+    private Buckets(TokenBucket[] commands) {
+      this.commands = commands;
+    }
+  }
+
+  private static final double WARNINGS_PER_SECOND = 0.2; // a flooding user is not flooded back
+
+  private final Policy policy;
+  private final double[] perSecond = new double[CommandClass.values().length];
+  private final int[] burst = new int[CommandClass.values().length];
+
+  /**
+   * Constructor
+   *
+   * @param config settings of the server, providing the limit of each class and the policy
+   */
+  FloodControl(ServerConfig config) {
+    policy = config.ratePolicy;
+    set(CommandClass.CHAT, config.rateChat, config.rateChatBurst);
+    set(CommandClass.ROOMS, config.rateRooms, config.rateRoomsBurst);
+    set(CommandClass.PRESENCE, config.ratePresence, config.ratePresenceBurst);
+    set(CommandClass.OTHER, config.rateOther, config.rateOtherBurst);
+  }
+
+  private void set(CommandClass commandClass, double perSecond, int burst) {
+    this.perSecond[commandClass.ordinal()] = perSecond;
+    this.burst[commandClass.ordinal()] = Math.max(1, burst);
+  }
+
+  /** Returns what to do with a command sent too fast. */
+  Policy policy() {
+    return policy;
+  }
+
+  /** Returns the class a command is limited with. */
+  static CommandClass classOf(String command) {
+    switch (command) {
+      case "sendMessageAll":
+      case "sendMessageUser":
+      case "sendMessageRoom":
+        return CommandClass.CHAT;
+      case "createRoom":
+      case "joinRoom":
+      case "leaveRoom":
+        return CommandClass.ROOMS;
+      case "joinServer":
+      case "resumeSession":
+      case "presenceResync":
+        return CommandClass.PRESENCE;
+      default:
+        return CommandClass.OTHER;
+    }
+  }
+
+  /** Returns a full set of buckets for a new session. */
+  Buckets newBuckets() {
+    TokenBucket[] commands = new TokenBucket[perSecond.length];
+    for (int i = 0; i < commands.length; ++i)
+      if (perSecond[i] > 0) commands[i] = new TokenBucket(perSecond[i], burst[i]);
+    return new Buckets(commands);
+  }
+
+  /**
+   * Takes a token for a command from a session's buckets.
+   *
+   * @param buckets the sending session's buckets
+   * @param command command of the packet received
+   * @param now the current System.nanoTime()
+   * @return zero if the command is allowed, otherwise how many nanoseconds it would have to wait
+   */
+  static long tryTake(Buckets buckets, String command, long now) {
+    TokenBucket bucket = buckets.commands[classOf(command).ordinal()];
+    return bucket == null ? 0 : bucket.tryTake(now);
+  }
+}
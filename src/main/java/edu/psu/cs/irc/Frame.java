@@ -0,0 +1,145 @@
+package edu.psu.cs.irc;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * A packet that has already been encoded for the wire. Frames are never modified once they have
+ * been sent, so a single frame can be handed to any number of sessions: every writer reads the same
+ * bytes instead of encoding or copying the packet again.
+ *
+ * <p>Frames taken from a {@link FramePool} are reference counted. Every queue holding the frame
+ * owns a reference, and the frame goes back to its pool once the last one is released. Frames that
+ * are not pooled ignore reference counting and are left to the garbage collector.
+ */
+final class Frame {
+  private static final AtomicIntegerFieldUpdater<Frame> REFS =
+      AtomicIntegerFieldUpdater.newUpdater(Frame.class, "refs");
+
+  final String command; // Command of the encoded packet, kept for logging
+  private final byte[] array;
+  private final FramePool pool; // null if the frame is not pooled
+  private int offset; // start of the frame; moves towards 0 as headers are prepended
+  private int end;
+  private volatile int refs = 1;
+  long handledNanos; // when the packet relayed began to be handled on its shard, else when encoded
+
+  /**
+   * Constructor
+   *
+   * @param command command of the encoded packet
+   * @param buffer array backed buffer holding the complete frame; must not be modified afterwards
+   */
+  Frame(String command, ByteBuffer buffer) {
+    this.command = command;
+    this.array = buffer.array();
+    this.pool = null;
+    this.offset = buffer.arrayOffset() + buffer.position();
+    this.end = offset + buffer.remaining();
+    this.handledNanos = System.nanoTime();
+  }
+
+  /**
+   * Creates an empty frame whose bytes are filled in from the back, see {@link #setBody}.
+   *
+   * @param command command of the packet the frame will hold
+   * @param capacity most bytes the frame can hold
+   * @param pool pool the frame returns to once released, or null
+   */
+  Frame(String command, int capacity, FramePool pool) {
+    this.command = command;
+    this.array = new byte[capacity];
+    this.pool = pool;
+    this.offset = capacity;
+    this.end = capacity;
+  }
+
+  /**
+   * Returns a view of the frame's bytes for a single reader to drain. The view shares the frame's
+   * content but has its own position, so draining it does not affect other recipients.
+   *
+   * @return a new buffer positioned at the start of the frame
+   */
+  ByteBuffer view() {
+    return ByteBuffer.wrap(array, offset, end - offset);
+  }
+
+  /** Returns the number of bytes in the frame, including the length prefix. */
+  int length() {
+    return end - offset;
+  }
+
+  /**
+   * Writes the frame's bytes straight from the backing array to a stream.
+   *
+   * @param out stream to write the frame to
+   */
+  void writeTo(OutputStream out) throws IOException {
+    out.write(array, offset, end - offset);
+  }
+
+  /**
+   * Copies the frame's bytes into a buffer.
+   *
+   * @param buffer buffer with at least {@link #length()} bytes remaining
+   */
+  void copyTo(ByteBuffer buffer) {
+    buffer.put(array, offset, end - offset);
+  }
+
+  /**
+   * Decodes the message of a relayed chat message, as built by {@link PacketEncoder#encodeRelay}.
+   */
+  String relayedText() {
+    int start = offset + 4 + 2; // length prefix, opcode, and a targetid of -1 in one byte
+    return new String(array, start, end - start, StandardCharsets.UTF_8);
+  }
+
+  /* Building, only allowed before the frame is shared */
+
+  /** Replaces the frame's content with the given bytes, placed at the very end of the array. */
+  void setBody(byte[] bytes, int from, int length) {
+    offset = array.length - length;
+    end = array.length;
+    System.arraycopy(bytes, from, array, offset, length);
+  }
+
+  /** Returns how many bytes can still be prepended. */
+  int headroom() {
+    return offset;
+  }
+
+  void prepend(byte[] bytes) {
+    offset -= bytes.length;
+    System.arraycopy(bytes, 0, array, offset, bytes.length);
+  }
+
+  void prepend(byte b) {
+    array[--offset] = b;
+  }
+
+  void prependInt(int value) {
+    for (int i = 0; i < 4; ++i, value >>>= 8) array[--offset] = (byte) value;
+  }
+
+  /* Reference counting */
+
+  /** Adds a reference, to be given up with {@link #release()}. */
+  void retain() {
+    if (pool != null) REFS.incrementAndGet(this);
+  }
+
+  /** Gives up a reference. The last one returns the frame to its pool. */
+  void release() {
+    if (pool != null && REFS.decrementAndGet(this) == 0) pool.recycle(this);
+  }
+
+  /** Empties a recycled frame for its next use, with a single reference held by the caller. */
+  void reset() {
+    offset = array.length;
+    end = array.length;
+    refs = 1;
+  }
+}
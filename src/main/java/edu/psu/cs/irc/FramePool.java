@@ -0,0 +1,49 @@
+package edu.psu.cs.irc;
+
+import java.util.concurrent.*;
+
+/**
+ * Fixed size frames that are reused instead of being allocated for every message. Relayed chat
+ * messages are decoded straight into a pooled frame and sent on in it, so a busy server does not
+ * produce a new buffer per message. The pool only keeps a bounded number of free frames; when it
+ * runs dry new frames are allocated, and frames that are never released are simply collected.
+ */
+final class FramePool {
+  /** Frames for relayed chat messages. */
+  static final FramePool CHAT = new FramePool("displayToUser", 1024, 4096);
+
+  private final String command;
+  private final int frameCapacity;
+  private final BlockingQueue<Frame> free;
+
+  /**
+   * Constructor
+   *
+   * @param command command of the packets the frames hold
+   * @param frameCapacity bytes every frame can hold
+   * @param maxFree most released frames kept for reuse
+   */
+  FramePool(String command, int frameCapacity, int maxFree) {
+    this.command = command;
+    this.frameCapacity = frameCapacity;
+    free = new ArrayBlockingQueue<>(maxFree);
+  }
+
+  /** Returns the number of bytes every frame in the pool can hold. */
+  int frameCapacity() {
+    return frameCapacity;
+  }
+
+  /** Returns an empty frame with a single reference held by the caller. */
+  Frame acquire() {
+    Frame frame = free.poll();
+    if (frame == null) return new Frame(command, frameCapacity, this);
+    frame.reset();
+    return frame;
+  }
+
+  /** Takes back a frame whose last reference has been released. */
+  void recycle(Frame frame) {
+    free.offer(frame);
+  }
+}
@@ -0,0 +1,119 @@
+package edu.psu.cs.irc;
+
+import java.beans.ConstructorProperties;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Distribution of recorded values, such as latencies in nanoseconds or the number of users a
+ * message was sent to. Values are counted in buckets that split every power of two into eight, so a
+ * percentile is never off by more than an eighth of its value, however large or small it is. Every
+ * bucket is a {@link LongAdder}, so threads recording at the same time update separate cells
+ * instead of contending on one counter.
+ */
+final class Histogram {
+  private static final int SUB_BITS = 3;
+  private static final int SUB_BUCKETS = 1 << SUB_BITS; // buckets per power of two
+  private static final int BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS;
+
+  private final LongAdder[] buckets = new LongAdder[BUCKETS];
+  private final LongAdder sum = new LongAdder();
+  private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+  Histogram() {
+    for (int i = 0; i < BUCKETS; ++i) buckets[i] = new LongAdder();
+  }
+
+  /** Records a value, negative values counting as zero. */
+  void record(long value) {
+    if (value < 0) value = 0;
+    buckets[index(value)].increment();
+    sum.add(value);
+    max.accumulate(value);
+  }
+
+  /**
+   * Returns the counts recorded so far. Values recorded while the snapshot is taken may or may not
+   * be included, so the figures are only approximately consistent with each other.
+   */
+  Snapshot snapshot() {
+    long[] counts = new long[BUCKETS];
+    long count = 0;
+    for (int i = 0; i < BUCKETS; ++i) count += counts[i] = buckets[i].sum();
+    if (count == 0) return new Snapshot(0, 0, 0, 0, 0, 0);
+    long max = this.max.get();
+    return new Snapshot(
+        count,
+        sum.sum() / count,
+        Math.min(percentile(counts, count, 0.50), max),
+        Math.min(percentile(counts, count, 0.99), max),
+        Math.min(percentile(counts, count, 0.999), max),
+        max);
+  }
+
+  /** Returns the highest value that falls in the bucket holding the given percentile. */
+  private static long percentile(long[] counts, long count, double percentile) {
+    long rank = (long) Math.ceil(count * percentile);
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; ++i) if ((seen += counts[i]) >= rank) return highest(i);
+    return highest(BUCKETS - 1);
+  }
+
+  /** Values below eight get a bucket each, larger ones share a bucket with their closest peers. */
+  private static int index(long value) {
+    if (value < SUB_BUCKETS) return (int) value;
+    int exponent = 63 - Long.numberOfLeadingZeros(value);
+    int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+    return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+  }
+
+  private static long highest(int index) {
+    if (index < SUB_BUCKETS) return index;
+    int shift = index / SUB_BUCKETS - 1;
+    long lowest = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+    return lowest + (1L << shift) - 1;
+  }
+
+  /** Summary of a histogram, in the unit the values were recorded in. Public for JMX. */
+  public static final class Snapshot {
+    private final long count;
+    private final long mean;
+    private final long p50;
+    private final long p99;
+    private final long p999;
+    private final long max;
+
+    @ConstructorProperties({"count", "mean", "p50", "p99", "p999", "max"})
+    public Snapshot(long count, long mean, long p50, long p99, long p999, long max) {
+      this.count = count;
+      this.mean = mean;
+      this.p50 = p50;
+      this.p99 = p99;
+      this.p999 = p999;
+      this.max = max;
+    }
+
+    public long getCount() {
+      return count;
+    }
+
+    public long getMean() {
+      return mean;
+    }
+
+    public long getP50() {
+      return p50;
+    }
+
+    public long getP99() {
+      return p99;
+    }
+
+    public long getP999() {
+      return p999;
+    }
+
+    public long getMax() {
+      return max;
+    }
+  }
+}
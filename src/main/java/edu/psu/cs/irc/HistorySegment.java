@@ -0,0 +1,267 @@
+package edu.psu.cs.irc;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * One file of a room's message history, holding consecutive records from {@link #firstSeq} on.
+ * Every record is laid out as
+ *
+ * <pre>
+ *   int64   sequence number, one more than the record before
+ *   bytes   the displayToUser frame that relayed the message, starting with its int32 length
+ * </pre>
+ *
+ * so replaying a record means handing its frame to a session as it is. Next to the log file, an
+ * index file holds the sequence number and file position of every {@value #INDEX_INTERVAL}th
+ * record, 16 bytes each, so a read starting at any sequence number scans only a few records before
+ * it gets there. Reads map the file rather than reading it, so only the pages holding the records
+ * read are ever touched.
+ *
+ * <p>Records are written by the history's writer only. Readers see records once they have been
+ * committed, which the writer does while holding the room's lock, and reads are done holding that
+ * lock too.
+ */
+final class HistorySegment {
+  static final int INDEX_INTERVAL = 64; // records between index entries
+  private static final int HEADER = 8 + 4; // sequence number and frame length
+
+  final long firstSeq;
+  private final Path logPath;
+  private final Path indexPath;
+  private FileChannel log; // open while the segment is appended to, null once sealed
+  private FileChannel index;
+  private long size; // bytes of committed records
+  private long written; // bytes written by the writer, committed or not
+  private long nextSeq; // sequence number of the next record written
+  private long[] indexSeqs = new long[16];
+  private long[] indexPositions = new long[16];
+  private int indexCount; // index entries, all of them committed
+  private final ArrayList<long[]> uncommitted = new ArrayList<>(); // written entries, writer only
+
+  private HistorySegment(Path dir, long firstSeq) {
+    this.firstSeq = firstSeq;
+    this.logPath = dir.resolve(String.format("%020d.log", firstSeq));
+    this.indexPath = dir.resolve(String.format("%020d.idx", firstSeq));
+    this.nextSeq = firstSeq;
+  }
+
+  /**
+   * Creates an empty segment to be appended to.
+   *
+   * @param dir directory of the room's history
+   * @param firstSeq sequence number of the segment's first record
+   */
+  static HistorySegment create(Path dir, long firstSeq) throws IOException {
+    HistorySegment segment = new HistorySegment(dir, firstSeq);
+    segment.openForAppend();
+    return segment;
+  }
+
+  /**
+   * Opens a segment written earlier. Only the last segment of a room may have been cut short by the
+   * server stopping mid write, so only that one is checked record by record, and cut back to its
+   * last complete record.
+   *
+   * @param dir directory of the room's history
+   * @param firstSeq sequence number of the segment's first record, as in its file name
+   * @param last true if this is the room's newest segment, which is opened for appending
+   */
+  static HistorySegment open(Path dir, long firstSeq, boolean last) throws IOException {
+    HistorySegment segment = new HistorySegment(dir, firstSeq);
+    long length = Files.size(segment.logPath);
+    if (Files.exists(segment.indexPath)) {
+      ByteBuffer entries = ByteBuffer.wrap(Files.readAllBytes(segment.indexPath));
+      while (entries.remaining() >= 16) {
+        long seq = entries.getLong();
+        long position = entries.getLong();
+        if (position >= length) break;
+        segment.addIndexEntry(seq, position);
+      }
+    }
+    segment.size = length;
+    if (last) {
+      segment.recover(length);
+      segment.openForAppend();
+    }
+    segment.written = segment.size;
+    return segment;
+  }
+
+  /** Scans the records after the last index entry, rebuilding the entries and size they imply. */
+  private void recover(long length) throws IOException {
+    long position = indexCount == 0 ? 0 : indexPositions[indexCount - 1];
+    long seq = indexCount == 0 ? firstSeq : indexSeqs[indexCount - 1];
+    try (FileChannel channel = FileChannel.open(logPath, StandardOpenOption.READ)) {
+      MappedByteBuffer map =
+          channel.map(FileChannel.MapMode.READ_ONLY, position, length - position);
+      while (map.remaining() >= HEADER) {
+        int start = map.position();
+        if (map.getLong(start) != seq) break;
+        int frameLength = map.getInt(start + 8);
+        if (frameLength <= 0
+            || frameLength > PacketDecoder.CLIENT_MAX_FRAME_LENGTH
+            || map.remaining() < HEADER + frameLength) break; // written only in part
+        if ((seq - firstSeq) % INDEX_INTERVAL == 0 && seq > lastIndexedSeq())
+          addIndexEntry(seq, position + start);
+        map.position(start + HEADER + frameLength);
+        ++seq;
+      }
+      size = position + map.position();
+    }
+    nextSeq = seq;
+    while (indexCount > 0 && indexPositions[indexCount - 1] >= size) --indexCount;
+    if (size < length) {
+      Log.warn("Dropping " + (length - size) + " bytes of incomplete history in " + logPath + ".");
+      try (FileChannel channel = FileChannel.open(logPath, StandardOpenOption.WRITE)) {
+        channel.truncate(size);
+      }
+    }
+  }
+
+  private void openForAppend() throws IOException {
+    Files.createDirectories(logPath.getParent());
+    log =
+        FileChannel.open(
+            logPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    index = FileChannel.open(indexPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    index.truncate(indexCount * 16L); // entries past a torn record are rebuilt as it is rewritten
+  }
+
+  /** Returns the number of bytes written to the segment, for deciding when to start a new one. */
+  long written() {
+    return written;
+  }
+
+  /** Returns the sequence number the next record appended is expected to carry. */
+  long nextSeq() {
+    return nextSeq;
+  }
+
+  /**
+   * Writes records to the end of the segment, without making them visible to readers. Writer only.
+   *
+   * @param records records to write, in sequence
+   * @param from index of the first record to write
+   * @param to index after the last record to write
+   */
+  void write(List<MessageHistory.Record> records, int from, int to) throws IOException {
+    int bytes = 0;
+    for (int i = from; i < to; ++i) bytes += 8 + records.get(i).frame.length();
+    ByteBuffer buffer = ByteBuffer.allocate(bytes);
+    int entriesBefore = uncommitted.size();
+    for (int i = from; i < to; ++i) {
+      MessageHistory.Record record = records.get(i);
+      if ((record.seq - firstSeq) % INDEX_INTERVAL == 0)
+        uncommitted.add(new long[] {record.seq, written + buffer.position()});
+      buffer.putLong(record.seq);
+      record.frame.copyTo(buffer);
+    }
+    buffer.flip();
+    while (buffer.hasRemaining()) written += log.write(buffer, written);
+    ByteBuffer entries = ByteBuffer.allocate((uncommitted.size() - entriesBefore) * 16);
+    for (int i = entriesBefore; i < uncommitted.size(); ++i)
+      entries.putLong(uncommitted.get(i)[0]).putLong(uncommitted.get(i)[1]);
+    entries.flip();
+    long indexEnd = (indexCount + (long) uncommitted.size()) * 16;
+    while (entries.hasRemaining()) index.write(entries, indexEnd - entries.remaining());
+    nextSeq = records.get(to - 1).seq + 1;
+  }
+
+  /** Makes everything written so far visible to readers. Called holding the room's lock. */
+  void commit() {
+    size = written;
+    for (long[] entry : uncommitted) addIndexEntry(entry[0], entry[1]);
+    uncommitted.clear();
+  }
+
+  /**
+   * Forces what has been written to the disk. Writer only, and never while holding the room's lock,
+   * so that appending to the room never waits on the disk.
+   */
+  void force() throws IOException {
+    if (log == null) return;
+    log.force(false);
+    index.force(false);
+  }
+
+  /**
+   * Stops appending to the segment, once everything written has been committed and forced. Called
+   * holding the room's lock, as readers use the segment's channel while it is open.
+   */
+  void seal() throws IOException {
+    if (log == null) return;
+    log.close();
+    index.close();
+    log = null;
+    index = null;
+  }
+
+  /** Removes the segment's files, once it has been sealed and no reader can reach it anymore. */
+  void delete() throws IOException {
+    Files.deleteIfExists(logPath);
+    Files.deleteIfExists(indexPath);
+  }
+
+  /**
+   * Reads committed records, oldest first. Called holding the room's lock. Frames are copied out of
+   * the mapped file one record at a time, so only the records returned ever take up heap.
+   *
+   * @param fromSeq sequence number of the first record wanted
+   * @param limit most records to add
+   * @param out list the frames of the records are added to
+   */
+  void read(long fromSeq, int limit, List<Frame> out) throws IOException {
+    int entry = floorIndexEntry(fromSeq);
+    long position = entry < 0 ? 0 : indexPositions[entry];
+    if (position >= size || out.size() >= limit) return;
+    MappedByteBuffer map;
+    if (log != null) {
+      map = log.map(FileChannel.MapMode.READ_ONLY, position, size - position);
+    } else {
+      try (FileChannel channel = FileChannel.open(logPath, StandardOpenOption.READ)) {
+        map = channel.map(FileChannel.MapMode.READ_ONLY, position, size - position);
+      }
+    }
+    while (map.remaining() >= HEADER && out.size() < limit) {
+      long seq = map.getLong();
+      int frameLength = 4 + map.getInt(map.position());
+      if (seq < fromSeq) {
+        map.position(map.position() + frameLength);
+        continue;
+      }
+      byte[] frame = new byte[frameLength];
+      map.get(frame);
+      out.add(new Frame("displayToUser", ByteBuffer.wrap(frame)));
+    }
+  }
+
+  /** Returns the last index entry at or before the given sequence number, or -1 if none is. */
+  private int floorIndexEntry(long seq) {
+    int low = 0;
+    int high = indexCount - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      if (indexSeqs[mid] <= seq) low = mid + 1;
+      else high = mid - 1;
+    }
+    return high;
+  }
+
+  private long lastIndexedSeq() {
+    return indexCount == 0 ? -1 : indexSeqs[indexCount - 1];
+  }
+
+  private void addIndexEntry(long seq, long position) {
+    if (indexCount == indexSeqs.length) {
+      indexSeqs = Arrays.copyOf(indexSeqs, indexCount * 2);
+      indexPositions = Arrays.copyOf(indexPositions, indexCount * 2);
+    }
+    indexSeqs[indexCount] = seq;
+    indexPositions[indexCount++] = position;
+  }
+}
@@ -0,0 +1,96 @@
+package edu.psu.cs.irc;
+
+import java.util.function.IntConsumer;
+
+/**
+ * Immutable set of positive ints, stored unboxed in an open addressing hash table. Adding or
+ * removing an element returns a new set and leaves the old one untouched, so a set can be published
+ * through a volatile field and read by any number of threads without locking: a membership check is
+ * a couple of array reads, and iterating sees a consistent snapshot however the set changes
+ * afterwards. Built for user and room id numbers, which are always positive.
+ */
+final class IntSet {
+  static final IntSet EMPTY = new IntSet(new int[1], 0);
+
+  private final int[] slots; // length is a power of two, 0 marks an empty slot
+  private final int size;
+
+  private IntSet(int[] slots, int size) {
+    this.slots = slots;
+    this.size = size;
+  }
+
+  /** Returns if the value is in the set. */
+  boolean contains(int value) {
+    int mask = slots.length - 1;
+    for (int i = mix(value) & mask; slots[i] != 0; i = (i + 1) & mask)
+      if (slots[i] == value) return true;
+    return false;
+  }
+
+  /**
+   * Returns a set holding this set's values and the given value.
+   *
+   * @param value value to add, must be positive
+   * @return the new set, or this set if it already holds the value
+   */
+  IntSet with(int value) {
+    if (value <= 0) throw new IllegalArgumentException("Not a positive value: " + value);
+    if (contains(value)) return this;
+    int[] copy = new int[tableSize(size + 1)];
+    for (int v : slots) if (v != 0) insert(copy, v);
+    insert(copy, value);
+    return new IntSet(copy, size + 1);
+  }
+
+  /**
+   * Returns a set holding this set's values except the given value.
+   *
+   * @param value value to remove
+   * @return the new set, or this set if it does not hold the value
+   */
+  IntSet without(int value) {
+    if (!contains(value)) return this;
+    if (size == 1) return EMPTY;
+    int[] copy = new int[tableSize(size - 1)];
+    for (int v : slots) if (v != 0 && v != value) insert(copy, v);
+    return new IntSet(copy, size - 1);
+  }
+
+  /** Returns the number of values in the set. */
+  int size() {
+    return size;
+  }
+
+  /** Returns if the set holds no values. */
+  boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * Passes every value in the set to an action, in no particular order.
+   *
+   * @param action action to be performed for each value
+   */
+  void forEach(IntConsumer action) {
+    for (int v : slots) if (v != 0) action.accept(v);
+  }
+
+  /** Keeps the table at most half full, so probe sequences stay short. */
+  private static int tableSize(int size) {
+    return Integer.highestOneBit(Math.max(size, 1)) << 2;
+  }
+
+  private static void insert(int[] slots, int value) {
+    int mask = slots.length - 1;
+    int i = mix(value) & mask;
+    while (slots[i] != 0) i = (i + 1) & mask;
+    slots[i] = value;
+  }
+
+  /** Spreads consecutive ids across the table instead of filling one run of slots. */
+  private static int mix(int value) {
+    int h = value * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+}
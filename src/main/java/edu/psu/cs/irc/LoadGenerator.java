@@ -0,0 +1,506 @@
+package edu.psu.cs.irc;
+
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Command line tool that drives a running server with simulated users, to see how much traffic a
+ * machine can take. Every simulated user is a real connection speaking the same protocol as the
+ * {@link Client}: it joins the server, one user per room creates it and the rest join it, and then
+ * messages are sent to rooms, single users and everyone at a fixed rate. Every message carries the
+ * time it was sent, so each delivery to a simulated user measures the time from the sender handing
+ * it to its socket to the recipient having decoded it. Thousands of users are served by a few
+ * selector threads, so the tool and the server can share one machine.
+ *
+ * <pre>
+ *   java -cp target/classes edu.psu.cs.irc.LoadGenerator --clients 2000 --rate 5000
+ * </pre>
+ *
+ * See {@link #usage()} for every option. Run the server on the {@code nio} transport, as the
+ * blocking transport needs two threads per user.
+ */
+public class LoadGenerator {
+  private static final String MARKER = "LG "; // starts the body of every message sent by the tool
+
+  /* Options */
+  private String host = "localhost";
+  private int port = 8080;
+  private int clients = 100; // simulated users
+  private int rooms = 10; // rooms the users are spread over
+  private int rate = 1000; // messages sent per second, over all users
+  private int duration = 30; // seconds messages are sent for
+  private int messageSize = 64; // bytes of text in every message
+  private int mixRoom = 80; // share of messages sent to a room
+  private int mixUser = 10; // share of messages sent to a single user
+  private int mixAll = 10; // share of messages sent to everyone
+  private int reportSeconds = 5;
+  private int loops = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+
+  /* State */
+  private SimClient[] sims;
+  private final AtomicInteger joined = new AtomicInteger(); // users the server has welcomed
+  private final AtomicInteger inRoom = new AtomicInteger(); // users that know their room id
+  private volatile boolean stopping;
+
+  /* Results */
+  private final Histogram latency = new Histogram(); // nanoseconds from send to delivery
+  private volatile Histogram intervalLatency = new Histogram();
+  private final LongAdder sentRoom = new LongAdder();
+  private final LongAdder sentUser = new LongAdder();
+  private final LongAdder sentAll = new LongAdder();
+  private final LongAdder delivered = new LongAdder();
+  private final LongAdder skipped = new LongAdder(); // sends dropped because a user was backed up
+  private final LongAdder connectErrors = new LongAdder();
+  private final LongAdder disconnects = new LongAdder(); // connections the server closed
+  private final LongAdder protocolErrors = new LongAdder(); // frames that could not be decoded
+  private final LongAdder serverErrors = new LongAdder(); // error messages sent by the server
+
+  private LoadGenerator(String[] args) {
+    for (int i = 0; i < args.length; ++i) {
+      switch (args[i]) {
+        case "--host":
+          host = value(args, ++i);
+          break;
+        case "--port":
+          port = intValue(args, ++i);
+          break;
+        case "--clients":
+          clients = Math.max(2, intValue(args, ++i));
+          break;
+        case "--rooms":
+          rooms = Math.max(1, intValue(args, ++i));
+          break;
+        case "--rate":
+          rate = Math.max(1, intValue(args, ++i));
+          break;
+        case "--duration":
+          duration = Math.max(1, intValue(args, ++i));
+          break;
+        case "--message-size":
+          messageSize = Math.max(MARKER.length() + 20, intValue(args, ++i));
+          break;
+        case "--mix":
+          String[] mix = value(args, ++i).split(",");
+          if (mix.length != 3) throw new IllegalArgumentException("--mix needs room,user,all.");
+          mixRoom = Integer.parseInt(mix[0]);
+          mixUser = Integer.parseInt(mix[1]);
+          mixAll = Integer.parseInt(mix[2]);
+          if (mixRoom + mixUser + mixAll <= 0)
+            throw new IllegalArgumentException("--mix needs at least one share above zero.");
+          break;
+        case "--report":
+          reportSeconds = Math.max(1, intValue(args, ++i));
+          break;
+        case "--loops":
+          loops = Math.max(1, intValue(args, ++i));
+          break;
+        case "--help":
+          throw new IllegalArgumentException("Simulates users to put load on a server.");
+        default:
+          throw new IllegalArgumentException("Unrecognized argument " + args[i] + ".");
+      }
+    }
+    rooms = Math.min(rooms, clients);
+  }
+
+  private static String usage() {
+    return "Usage: LoadGenerator [options]\n"
+        + "  --host HOST          server to connect to (localhost)\n"
+        + "  --port N             server port (8080)\n"
+        + "  --clients N          simulated users (100)\n"
+        + "  --rooms N            rooms the users are spread over (10)\n"
+        + "  --rate N             messages per second, over all users (1000)\n"
+        + "  --duration N         seconds to send messages for (30)\n"
+        + "  --message-size N     bytes of text per message (64)\n"
+        + "  --mix R,U,A          shares of room, user and everyone messages (80,10,10)\n"
+        + "  --report N           seconds between progress reports (5)\n"
+        + "  --loops N            selector threads serving the users (half the CPUs)";
+  }
+
+  private static String value(String[] args, int i) {
+    if (i >= args.length)
+      throw new IllegalArgumentException(args[i - 1] + " needs to be followed by a value.");
+    return args[i];
+  }
+
+  private static int intValue(String[] args, int i) {
+    return Integer.parseInt(value(args, i));
+  }
+
+  /**
+   * Connects every simulated user, waits for them to be welcomed and to find their rooms, then
+   * sends messages at the configured rate for the configured duration.
+   */
+  private void run() throws Exception {
+    Loop[] loopThreads = new Loop[loops];
+    for (int i = 0; i < loops; ++i) {
+      loopThreads[i] = new Loop(i);
+      loopThreads[i].start();
+    }
+    System.out.println("Connecting " + clients + " users to " + host + ":" + port + "...");
+    sims = new SimClient[clients];
+    InetSocketAddress address = new InetSocketAddress(host, port);
+    for (int i = 0; i < clients; ++i) {
+      try {
+        SocketChannel channel = SocketChannel.open();
+        channel.socket().connect(address, 10_000);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        channel.configureBlocking(false);
+        sims[i] = new SimClient(i, channel, loopThreads[i % loops]);
+        Packet packet = new Packet();
+        packet.joinServer("load" + i);
+        sims[i].send(PacketEncoder.encode(packet));
+      } catch (IOException e) {
+        connectErrors.increment();
+      }
+    }
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+    while ((joined.get() + connectErrors.intValue() < clients || inRoom.get() < joined.get())
+        && System.nanoTime() < deadline) Thread.sleep(50);
+    System.out.println(
+        joined.get()
+            + " users joined, "
+            + inRoom.get()
+            + " found their room, "
+            + connectErrors.sum()
+            + " could not connect.");
+    if (joined.get() == 0) return;
+
+    System.out.println("Sending " + rate + " messages per second for " + duration + " seconds.");
+    sendMessages();
+    Thread.sleep(1000); // let the last messages arrive
+    stopping = true;
+    for (SimClient sim : sims) if (sim != null) sim.channel.close();
+    report("Total", latency, duration, totalSent(), delivered.sum());
+    System.out.println(
+        "  sent: "
+            + sentRoom.sum()
+            + " to rooms, "
+            + sentUser.sum()
+            + " to users, "
+            + sentAll.sum()
+            + " to everyone, "
+            + skipped.sum()
+            + " skipped for backed up users");
+    System.out.println(
+        "  errors: "
+            + connectErrors.sum()
+            + " connect, "
+            + disconnects.sum()
+            + " disconnected, "
+            + protocolErrors.sum()
+            + " protocol, "
+            + serverErrors.sum()
+            + " from server");
+  }
+
+  /** Sends messages at the configured rate, printing progress every few seconds. */
+  private void sendMessages() throws InterruptedException {
+    Random random = new Random();
+    char[] fill = new char[messageSize - MARKER.length() - 20]; // room left for the send time
+    Arrays.fill(fill, 'x');
+    String padding = new String(fill);
+    long start = System.nanoTime();
+    long end = start + TimeUnit.SECONDS.toNanos(duration);
+    long nextReport = start + TimeUnit.SECONDS.toNanos(reportSeconds);
+    long issued = 0;
+    long reportSent = 0;
+    long reportDelivered = 0;
+    long now;
+    while ((now = System.nanoTime()) < end) {
+      long due = (now - start) * rate / 1_000_000_000L;
+      for (; issued < due; ++issued) sendMessage(random, padding);
+      if (now >= nextReport) {
+        long sent = totalSent();
+        long deliveredNow = delivered.sum();
+        Histogram interval = intervalLatency;
+        intervalLatency = new Histogram();
+        report(
+            String.format("%4ds", (now - start) / 1_000_000_000L),
+            interval,
+            reportSeconds,
+            sent - reportSent,
+            deliveredNow - reportDelivered);
+        reportSent = sent;
+        reportDelivered = deliveredNow;
+        nextReport += TimeUnit.SECONDS.toNanos(reportSeconds);
+      }
+      Thread.sleep(1);
+    }
+  }
+
+  private void sendMessage(Random random, String padding) {
+    SimClient sender = sims[random.nextInt(clients)];
+    if (sender == null || sender.userid == 0 || sender.closed) {
+      skipped.increment();
+      return;
+    }
+    if (sender.backlog.get() > 1000) {
+      skipped.increment();
+      return;
+    }
+    String body = MARKER + System.nanoTime() + " " + padding;
+    Packet packet = new Packet();
+    int pick = random.nextInt(mixRoom + mixUser + mixAll);
+    if (pick < mixRoom && sender.roomid != 0) {
+      packet.sendMessageRoom(sender.roomid, body);
+      sentRoom.increment();
+    } else if (pick < mixRoom + mixUser) {
+      SimClient target = sims[random.nextInt(clients)];
+      if (target == null || target.userid == 0) {
+        skipped.increment();
+        return;
+      }
+      packet.sendMessageUser(target.userid, body);
+      sentUser.increment();
+    } else {
+      packet.sendMessageAll(body);
+      sentAll.increment();
+    }
+    sender.send(PacketEncoder.encode(packet));
+  }
+
+  private long totalSent() {
+    return sentRoom.sum() + sentUser.sum() + sentAll.sum();
+  }
+
+  private static void report(
+      String label, Histogram histogram, long seconds, long sent, long delivered) {
+    Histogram.Snapshot snapshot = histogram.snapshot();
+    System.out.println(
+        String.format(
+            "%s  sent %8.0f/s  delivered %9.0f/s  latency ms p50 %7.2f  p99 %7.2f  p999 %7.2f"
+                + "  max %7.2f",
+            label,
+            (double) sent / seconds,
+            (double) delivered / seconds,
+            snapshot.getP50() / 1e6,
+            snapshot.getP99() / 1e6,
+            snapshot.getP999() / 1e6,
+            snapshot.getMax() / 1e6));
+  }
+
+  /** Handles a packet the server sent to a simulated user. Runs on the user's loop thread. */
+  private void packetReceived(SimClient sim, Packet packet) {
+    switch (packet.command) {
+      case "joinServer":
+        sim.userid = packet.targetid;
+        joined.incrementAndGet();
+        if (sim.index < rooms) {
+          Packet create = new Packet();
+          create.createRoom("load-room" + sim.index);
+          sim.send(PacketEncoder.encode(create));
+        }
+        break;
+      case "presenceSnapshot":
+      case "presenceDelta":
+        if (sim.roomid == 0) findRoom(sim, packet.message);
+        break;
+      case "displayToUser":
+        int marker = packet.message.indexOf(MARKER);
+        if (marker < 0) {
+          if (packet.message.startsWith("System:")
+              && (packet.message.contains("not found") || packet.message.contains("cannot")))
+            serverErrors.increment();
+          break;
+        }
+        int from = marker + MARKER.length();
+        long sentNanos =
+            Long.parseLong(packet.message.substring(from, packet.message.indexOf(' ', from)));
+        long nanos = System.nanoTime() - sentNanos;
+        latency.record(nanos);
+        intervalLatency.record(nanos);
+        delivered.increment();
+        break;
+      case "ping":
+        Packet pong = new Packet();
+        pong.pong(packet.message);
+        sim.send(PacketEncoder.encode(pong));
+        break;
+      default:
+        break;
+    }
+  }
+
+  /** Looks for the user's room among created rooms, and joins it once it has been created. */
+  private void findRoom(SimClient sim, String events) {
+    int room = sim.index % rooms;
+    String name = "load-room" + room;
+    for (String event : events.split("\n")) {
+      if (!event.startsWith("+r ") || !event.endsWith(" " + name)) continue;
+      int roomid = Integer.parseInt(event.split(" ")[1]);
+      if (sim.index != room) { // the creator is a member already
+        Packet join = new Packet();
+        join.joinRoom(roomid);
+        sim.send(PacketEncoder.encode(join));
+      }
+      sim.roomid = roomid;
+      inRoom.incrementAndGet();
+      return;
+    }
+  }
+
+  /** A simulated user: one connection, served by one of the loops. */
+  private final class SimClient {
+    final int index;
+    final SocketChannel channel;
+    final Loop loop;
+    final PacketDecoder decoder = new PacketDecoder(PacketDecoder.CLIENT_MAX_FRAME_LENGTH);
+    final Queue<ByteBuffer> pending = new ConcurrentLinkedQueue<>(); // frames waiting to be written
+    final AtomicInteger backlog = new AtomicInteger(); // pending.size(), without walking it
+    ByteBuffer partial; // start of a frame whose rest has not arrived yet, loop thread only
+    SelectionKey key;
+    volatile int userid; // assigned by the server, 0 until the user has been welcomed
+    volatile int roomid; // room the user sends room messages to, 0 until it has been found
+    volatile boolean closed;
+
+    SimClient(int index, SocketChannel channel, Loop loop) {
+      this.index = index;
+      this.channel = channel;
+      this.loop = loop;
+      loop.register(this);
+    }
+
+    /** Queues a frame to be written by the user's loop. May be called from any thread. */
+    void send(Frame frame) {
+      pending.add(frame.view());
+      backlog.incrementAndGet();
+      loop.flush(this);
+    }
+  }
+
+  /** A selector thread reading and writing for its share of the simulated users. */
+  private final class Loop extends Thread {
+    private final Selector selector;
+    private final Queue<SimClient> registrations = new ConcurrentLinkedQueue<>();
+    private final Queue<SimClient> flushes = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean wakeupPending = new AtomicBoolean();
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(256 * 1024);
+
+    Loop(int index) throws IOException {
+      super("load-loop-" + index);
+      setDaemon(true);
+      selector = Selector.open();
+    }
+
+    void register(SimClient sim) {
+      registrations.add(sim);
+      wakeup();
+    }
+
+    void flush(SimClient sim) {
+      flushes.add(sim);
+      wakeup();
+    }
+
+    /** Wakes the selector once for however many users have queued frames since it last woke up. */
+    private void wakeup() {
+      if (wakeupPending.compareAndSet(false, true)) selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+      while (!stopping) {
+        try {
+          selector.select();
+          wakeupPending.set(false);
+          SimClient sim;
+          while ((sim = registrations.poll()) != null) {
+            sim.key = sim.channel.register(selector, SelectionKey.OP_READ, sim);
+            write(sim); // frames sent before the user was registered
+          }
+          while ((sim = flushes.poll()) != null) write(sim);
+          for (SelectionKey key : selector.selectedKeys()) {
+            sim = (SimClient) key.attachment();
+            if (key.isValid() && key.isReadable()) read(sim);
+            if (key.isValid() && key.isWritable()) write(sim);
+          }
+          selector.selectedKeys().clear();
+        } catch (IOException e) {
+          if (!stopping) e.printStackTrace();
+        }
+      }
+    }
+
+    private void read(SimClient sim) {
+      ByteBuffer buffer = readBuffer;
+      buffer.clear();
+      if (sim.partial != null) {
+        buffer.put(sim.partial);
+        sim.partial = null;
+      }
+      try {
+        if (sim.channel.read(buffer) < 0) throw new EOFException();
+        buffer.flip();
+        Packet packet;
+        while ((packet = sim.decoder.decode(buffer)) != null) packetReceived(sim, packet);
+      } catch (StreamCorruptedException e) {
+        protocolErrors.increment();
+        close(sim);
+        return;
+      } catch (IOException e) {
+        close(sim);
+        return;
+      }
+      if (buffer.hasRemaining()) {
+        sim.partial = ByteBuffer.allocate(buffer.remaining());
+        sim.partial.put(buffer).flip();
+      }
+    }
+
+    private void write(SimClient sim) {
+      if (sim.closed || sim.key == null) return;
+      try {
+        ByteBuffer frame;
+        while ((frame = sim.pending.peek()) != null) {
+          sim.channel.write(frame);
+          if (frame.hasRemaining()) {
+            sim.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            return;
+          }
+          sim.pending.poll();
+          sim.backlog.decrementAndGet();
+        }
+        sim.key.interestOps(SelectionKey.OP_READ);
+      } catch (IOException e) {
+        close(sim);
+      }
+    }
+
+    private void close(SimClient sim) {
+      if (sim.closed) return;
+      sim.closed = true;
+      if (!stopping) disconnects.increment();
+      sim.key.cancel();
+      try {
+        sim.channel.close();
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    }
+  }
+
+  /**
+   * Main entry point to the load generator.
+   *
+   * @param args options, see {@link #usage()}
+   */
+  public static void main(String[] args) throws Exception {
+    LoadGenerator generator;
+    try {
+      generator = new LoadGenerator(args);
+    } catch (IllegalArgumentException e) {
+      System.out.println(e.getMessage());
+      System.out.println(usage());
+      System.exit(2);
+      return;
+    }
+    generator.run();
+    System.exit(0);
+  }
+}
@@ -0,0 +1,178 @@
+package edu.psu.cs.irc;
+
+import java.io.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Diagnostic output of the server and client. Threads doing network I/O never write to stdout
+ * themselves: messages are handed to a background writer through a bounded lock-free ring, and are
+ * dropped rather than waited for if the writer falls behind.
+ *
+ * <p>Every message has a level, and messages below the configured level ({@code irc.log.level},
+ * INFO by default) are skipped. The level is read once, into static final flags, so callers that
+ * check a flag before building their message cost nothing at all once the JIT has folded the check
+ * away. Packet events, one per packet sent or received, are logged at DEBUG, and can be sampled
+ * with {@code irc.log.sample} so that only one in that many is written.
+ */
+final class Log {
+  /** How much is logged, from everything to nothing at all. */
+  enum Level {
+    DEBUG, // one message per packet
+    INFO, // connections, disconnections, starting and stopping
+    WARN, // things going wrong that the server or client recovers from
+    OFF // nothing is logged and the writer never starts
+  }
+
+  static final Level LEVEL = level(System.getProperty("irc.log.level"));
+  static final boolean PACKETS = LEVEL.compareTo(Level.DEBUG) <= 0; // packet events are logged
+  static final boolean INFO = LEVEL.compareTo(Level.INFO) <= 0;
+  static final boolean WARN = LEVEL.compareTo(Level.WARN) <= 0;
+  private static final int SAMPLE = Math.max(1, Integer.getInteger("irc.log.sample", 1));
+
+  private Log() {}
+
+  /**
+   * Logs a packet received, or one in {@code irc.log.sample} of them. The text is only built by the
+   * writer, so the caller does nothing but pass on what it already has.
+   *
+   * @param command command of the packet
+   * @param userid id of the user the packet came from, or -1 if it came from the server
+   */
+  static void packetReceived(String command, int userid) {
+    if (PACKETS && sampled())
+      Writer.INSTANCE.offer(new PacketEvent(command, " received from ", userid));
+  }
+
+  /**
+   * Logs a packet sent, or one in {@code irc.log.sample} of them.
+   *
+   * @param command command of the packet
+   * @param userid id of the user the packet went to, or -1 if it went to the server
+   */
+  static void packetSent(String command, int userid) {
+    if (PACKETS && sampled()) Writer.INSTANCE.offer(new PacketEvent(command, " sent to ", userid));
+  }
+
+  /** Logs a message at INFO. Check {@link #INFO} first if building the message costs anything. */
+  static void info(String message) {
+    if (INFO) Writer.INSTANCE.offer(message);
+  }
+
+  /** Logs a message at WARN. */
+  static void warn(String message) {
+    if (WARN) Writer.INSTANCE.offer(message);
+  }
+
+  /** Waits until everything logged so far has been written, e.g. before the program exits. */
+  static void flush() {
+    if (LEVEL != Level.OFF) Writer.INSTANCE.flush();
+  }
+
+  private static boolean sampled() {
+    return SAMPLE == 1 || ThreadLocalRandom.current().nextInt(SAMPLE) == 0;
+  }
+
+  private static Level level(String value) {
+    return value == null ? Level.INFO : Level.valueOf(value.toUpperCase());
+  }
+
+  /** Packet events are turned into text by the writer, not by the thread that sent the packet. */
+  private static final class PacketEvent {
+    final String command;
+    final String direction;
+    final int userid;
+
+    PacketEvent(String command, String direction, int userid) {
+      this.command = command;
+      this.direction = direction;
+      this.userid = userid;
+    }
+
+    @Override
+    public String toString() {
+      return command
+          + " packet"
+          + direction
+          + (userid < 0 ? "server." : "user id # " + userid + ".");
+    }
+  }
+
+  /**
+   * The background writer and the ring feeding it. Any number of threads add to the ring, only the
+   * writer removes from it. A producer claims the next slot by moving the tail forward, then fills
+   * it in; the writer takes a slot once it has been filled, clears it, and only then moves the head
+   * forward, so a producer never claims a slot the writer has not finished with. Loaded on first
+   * use, so the writer thread is never started when nothing is logged.
+   */
+  private static final class Writer implements Runnable {
+    static final Writer INSTANCE = new Writer(Integer.getInteger("irc.log.bufferSize", 8192));
+    private static final long IDLE_NANOS = 5_000_000; // how long the writer sleeps once caught up
+
+    private final AtomicReferenceArray<Object> slots;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong(); // next slot a producer claims
+    private final AtomicLong head = new AtomicLong(); // next slot the writer takes
+    private final LongAdder dropped = new LongAdder(); // messages lost to a full ring
+    private final PrintStream out = System.out;
+
+    private Writer(int capacity) {
+      int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1; // power of two
+      slots = new AtomicReferenceArray<>(size);
+      mask = size - 1;
+      Thread thread = new Thread(this, "irc-log");
+      thread.setDaemon(true);
+      thread.start();
+      Runtime.getRuntime().addShutdownHook(new Thread(this::flush, "irc-log-flush"));
+    }
+
+    /** Adds a message to the ring without ever waiting, dropping it if the ring is full. */
+    void offer(Object message) {
+      long claimed;
+      do {
+        claimed = tail.get();
+        if (claimed - head.get() > mask) {
+          dropped.increment();
+          return;
+        }
+      } while (!tail.compareAndSet(claimed, claimed + 1));
+      slots.lazySet((int) claimed & mask, message);
+    }
+
+    @Override
+    public void run() {
+      StringBuilder sb = new StringBuilder();
+      while (true) {
+        if (!drain(sb)) LockSupport.parkNanos(IDLE_NANOS);
+      }
+    }
+
+    /** Writes out whatever is in the ring. Only the writer thread, or exit, calls this. */
+    synchronized boolean drain(StringBuilder sb) {
+      long next = head.get();
+      Object message;
+      while ((message = slots.get((int) next & mask)) != null) {
+        slots.lazySet((int) next & mask, null);
+        head.lazySet(++next);
+        sb.append(message).append(System.lineSeparator());
+        if (sb.length() >= 8192) write(sb);
+      }
+      long lost = dropped.sumThenReset();
+      if (lost > 0) sb.append(lost).append(" log messages dropped.").append(System.lineSeparator());
+      if (sb.length() == 0) return false;
+      write(sb);
+      return true;
+    }
+
+    void flush() {
+      drain(new StringBuilder());
+    }
+
+    private void write(StringBuilder sb) {
+      out.print(sb); // one write for the whole batch, instead of one per message
+      out.flush();
+      sb.setLength(0);
+    }
+  }
+}
@@ -0,0 +1,359 @@
+package edu.psu.cs.irc;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Every chat message relayed to a room or to everyone, kept on disk so that users joining later can
+ * be shown what they missed. Each room has its own directory of append-only {@link
+ * HistorySegment}s, and messages sent to everyone are kept as room {@value #LOBBY}. A segment is
+ * started once the current one has grown past a set size, and the oldest ones are deleted once a
+ * room has more than a set number.
+ *
+ * <p>Relaying a message never touches the disk: {@link #append} only takes a reference to the
+ * relayed frame and adds it to the room's pending records. A single writer thread wakes up every
+ * few milliseconds and writes whatever is pending, for every room, in one write per room, and
+ * forces the files to the disk once a second or so. Messages relayed in the last moments before a
+ * crash may be lost, but no sender ever waits on a disk.
+ *
+ * <p>Records still waiting for the writer are included in reads, so a read sees every message
+ * appended before it, in order. Reading a room's history while on the room's shard therefore shows
+ * exactly the messages relayed before that point.
+ *
+ * <p>Rooms do not outlive the server, so only the history of messages sent to everyone is kept
+ * across a restart. The history of every other room, including those still open when the server
+ * stopped, is deleted as the next one starts, and room ids are handed out from 1 again.
+ */
+final class MessageHistory {
+  static final int LOBBY = 0; // history id of messages sent to everyone, room ids start at 1
+  private static final String ROOM_PREFIX = "room-";
+
+  private final Path dir;
+  private final long segmentBytes;
+  private final int maxSegments;
+  private final long syncNanos;
+  private final ConcurrentHashMap<Integer, RoomLog> rooms = new ConcurrentHashMap<>();
+  private final ScheduledExecutorService writer;
+  private long lastSync = System.nanoTime(); // writer only
+  private volatile boolean closed;
+
+  /** A message waiting to be written, or just written, to a room's history. */
+  static final class Record {
+    final long seq;
+    final Frame frame;
+
+    Record(long seq, Frame frame) {
+      this.seq = seq;
+      this.frame = frame;
+    }
+  }
+
+  /**
+   * Constructor
+   *
+   * @param dir directory holding a directory per room, created if needed
+   * @param segmentBytes size a segment grows to before the next one is started
+   * @param maxSegments segments kept per room, older ones are deleted
+   * @param flushMillis how often pending messages are written out
+   * @param syncMillis how often written messages are forced to the disk, 0 for every write
+   */
+  MessageHistory(Path dir, long segmentBytes, int maxSegments, long flushMillis, long syncMillis)
+      throws IOException {
+    this.dir = Files.createDirectories(dir);
+    deleteClosedRooms();
+    this.segmentBytes = segmentBytes;
+    this.maxSegments = maxSegments;
+    this.syncNanos = TimeUnit.MILLISECONDS.toNanos(syncMillis);
+    writer =
+        Executors.newSingleThreadScheduledExecutor(
+            r -> {
+              Thread thread = new Thread(r, "irc-history");
+              thread.setDaemon(true);
+              return thread;
+            });
+    writer.scheduleWithFixedDelay(this::flush, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+  }
+
+  /** Deletes the history of every room but {@link #LOBBY}, left over from an earlier run. */
+  private void deleteClosedRooms() throws IOException {
+    List<Path> closed = new ArrayList<>();
+    try (DirectoryStream<Path> rooms = Files.newDirectoryStream(dir, ROOM_PREFIX + "*")) {
+      for (Path room : rooms) {
+        try {
+          int id = Integer.parseInt(room.getFileName().toString().substring(ROOM_PREFIX.length()));
+          if (id != LOBBY) closed.add(room);
+        } catch (NumberFormatException e) {
+          // not a room's history
+        }
+      }
+    }
+    for (Path room : closed) deleteDirectory(room);
+  }
+
+  /** Deletes a room's directory along with every file in it. */
+  private static void deleteDirectory(Path dir) throws IOException {
+    if (!Files.isDirectory(dir)) return;
+    List<Path> files = new ArrayList<>();
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+      for (Path file : stream) files.add(file);
+    }
+    for (Path file : files) Files.deleteIfExists(file);
+    Files.deleteIfExists(dir);
+  }
+
+  /**
+   * Adds a relayed message to a room's history. Takes a reference to the frame, which is given up
+   * once the message has been written, so the caller keeps theirs. Never waits on the disk.
+   *
+   * @param roomid id of the room the message was sent to, or {@link #LOBBY}
+   * @param frame the displayToUser frame that relayed the message
+   */
+  void append(int roomid, Frame frame) {
+    RoomLog log = room(roomid);
+    if (log != null) log.append(frame);
+  }
+
+  /**
+   * Returns the most recent messages of a room, oldest first. The caller owns a reference to every
+   * frame returned, to be given up with {@link Frame#release()} once the frame has been sent.
+   *
+   * @param roomid id of the room, or {@link #LOBBY}
+   * @param count most messages returned
+   */
+  List<Frame> recent(int roomid, int count) {
+    RoomLog log = room(roomid);
+    return log == null ? new ArrayList<>() : log.read(-count, count);
+  }
+
+  /**
+   * Returns a room's messages from the given sequence number on, oldest first. The first message of
+   * a room has sequence number 0. The caller owns a reference to every frame returned.
+   *
+   * @param roomid id of the room, or {@link #LOBBY}
+   * @param fromSeq sequence number of the first message returned
+   * @param limit most messages returned
+   */
+  List<Frame> since(int roomid, long fromSeq, int limit) {
+    RoomLog log = room(roomid);
+    return log == null ? new ArrayList<>() : log.read(Math.max(0, fromSeq), limit);
+  }
+
+  /**
+   * Deletes a room's history once the room has been removed. Room ids are never reused, so nothing
+   * more is appended to it. The files are closed and deleted by the writer, after it has written
+   * out whatever was still pending for the room.
+   */
+  void roomRemoved(int roomid) {
+    RoomLog log = rooms.remove(roomid);
+    if (log != null && !closed)
+      writer.execute(
+          () -> {
+            log.close(true);
+            log.delete();
+          });
+  }
+
+  /** Writes out everything pending, forces it to the disk and closes every room's files. */
+  void close() {
+    closed = true;
+    writer.shutdown();
+    try {
+      writer.awaitTermination(10, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    for (RoomLog log : rooms.values()) log.close(true);
+    rooms.clear();
+  }
+
+  private RoomLog room(int roomid) {
+    if (closed) return null;
+    try {
+      return rooms.computeIfAbsent(
+          roomid,
+          id -> {
+            try {
+              return new RoomLog(dir.resolve(ROOM_PREFIX + id));
+            } catch (IOException e) {
+              throw new UncheckedIOException(e);
+            }
+          });
+    } catch (UncheckedIOException e) {
+      e.printStackTrace();
+      return null;
+    }
+  }
+
+  /** Writes out the pending records of every room, and forces them to the disk when it is time. */
+  private void flush() {
+    boolean sync = System.nanoTime() - lastSync >= syncNanos;
+    for (RoomLog log : rooms.values()) log.flush(sync);
+    if (sync) lastSync = System.nanoTime();
+  }
+
+  /**
+   * The history of a single room. Appending and reading hold the log's lock, the writer only takes
+   * it to swap out the pending records and to commit what it has written.
+   */
+  private final class RoomLog {
+    private final Path dir;
+    private final ArrayList<HistorySegment> segments = new ArrayList<>(); // oldest first
+    private ArrayList<Record> pending = new ArrayList<>(); // not written yet
+    private List<Record> writing = Collections.emptyList(); // being written, not committed yet
+    private long nextSeq; // sequence number of the next message appended
+    private boolean unsynced; // writer only, written since the last force
+    private boolean failed; // writer only, a write failed so the next one starts a new segment
+    private boolean closed;
+
+    RoomLog(Path dir) throws IOException {
+      this.dir = dir;
+      if (!Files.isDirectory(dir)) return; // created along with the first segment
+      ArrayList<Long> firstSeqs = new ArrayList<>();
+      try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*.log")) {
+        for (Path file : files) {
+          String name = file.getFileName().toString();
+          try {
+            firstSeqs.add(Long.parseLong(name.substring(0, name.length() - ".log".length())));
+          } catch (NumberFormatException e) {
+            // not a segment
+          }
+        }
+      }
+      Collections.sort(firstSeqs);
+      for (int i = 0; i < firstSeqs.size(); ++i)
+        segments.add(HistorySegment.open(dir, firstSeqs.get(i), i == firstSeqs.size() - 1));
+      if (!segments.isEmpty()) nextSeq = segments.get(segments.size() - 1).nextSeq();
+    }
+
+    synchronized void append(Frame frame) {
+      if (closed) return;
+      frame.retain();
+      pending.add(new Record(nextSeq++, frame));
+    }
+
+    /**
+     * Reads records from the given sequence number on, counting back from the next one if it is
+     * negative.
+     */
+    synchronized List<Frame> read(long fromSeq, int limit) {
+      if (fromSeq < 0) fromSeq = Math.max(0, nextSeq + fromSeq);
+      ArrayList<Frame> frames = new ArrayList<>();
+      try {
+        for (int i = 0; i < segments.size() && frames.size() < limit; ++i) {
+          boolean last = i == segments.size() - 1;
+          if (!last && segments.get(i + 1).firstSeq <= fromSeq) continue; // all before fromSeq
+          segments.get(i).read(fromSeq, limit, frames);
+        }
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+      for (List<Record> records : Arrays.asList(writing, pending))
+        for (Record record : records)
+          if (record.seq >= fromSeq && frames.size() < limit) {
+            record.frame.retain();
+            frames.add(record.frame);
+          }
+      return frames;
+    }
+
+    /**
+     * Writes out the pending records, starting a new segment whenever the current one is full.
+     * Writer only, and the lock is never held while writing or forcing.
+     */
+    void flush(boolean sync) {
+      List<Record> batch;
+      synchronized (this) {
+        if (pending.isEmpty()) batch = Collections.emptyList();
+        else {
+          batch = writing = pending;
+          pending = new ArrayList<>();
+        }
+      }
+      try {
+        int from = 0;
+        while (from < batch.size()) {
+          HistorySegment segment = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+          if (segment == null || failed || segment.written() >= segmentBytes) {
+            segment = startSegment(batch.get(from).seq);
+            failed = false;
+          }
+          int to = from;
+          long bytes = segment.written();
+          while (to < batch.size() && (to == from || bytes < segmentBytes))
+            bytes += 8 + batch.get(to++).frame.length();
+          segment.write(batch, from, to);
+          synchronized (this) {
+            segment.commit();
+            writing = batch.subList(to, batch.size()); // readers find the rest in the segment
+          }
+          from = to;
+        }
+        if (!batch.isEmpty()) unsynced = true;
+        if (sync && unsynced) {
+          unsynced = false;
+          segments.get(segments.size() - 1).force();
+        }
+      } catch (IOException e) {
+        e.printStackTrace(); // the batch is lost, later batches are still written
+        failed = true; // in a new segment, as a segment's records must have consecutive numbers
+      } finally {
+        synchronized (this) {
+          writing = Collections.emptyList();
+        }
+        for (Record record : batch) record.frame.release();
+      }
+    }
+
+    /**
+     * Seals the current segment and starts the next one, deleting the oldest segments beyond the
+     * limit. Writer only.
+     */
+    private HistorySegment startSegment(long firstSeq) throws IOException {
+      HistorySegment segment = HistorySegment.create(dir, firstSeq);
+      HistorySegment current = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+      if (current != null) current.force(); // a sealed segment is never forced again
+      List<HistorySegment> expired = new ArrayList<>();
+      synchronized (this) {
+        if (current != null) current.seal();
+        segments.add(segment);
+        while (segments.size() > maxSegments) expired.add(segments.remove(0));
+      }
+      for (HistorySegment old : expired) old.delete();
+      return segment;
+    }
+
+    /**
+     * Writes out what is pending and closes the current segment. Writer, or once it has stopped.
+     */
+    void close(boolean sync) {
+      flush(sync);
+      synchronized (this) {
+        closed = true;
+        for (Record record : pending) record.frame.release();
+        pending.clear();
+      }
+      try {
+        if (!segments.isEmpty()) {
+          HistorySegment current = segments.get(segments.size() - 1);
+          current.force();
+          synchronized (this) {
+            current.seal();
+          }
+        }
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    }
+
+    /** Deletes the room's directory along with every file in it, once closed. Writer only. */
+    void delete() {
+      try {
+        deleteDirectory(dir);
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    }
+  }
+}
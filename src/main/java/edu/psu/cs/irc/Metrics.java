@@ -0,0 +1,259 @@
+package edu.psu.cs.irc;
+
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.*;
+import javax.management.*;
+
+/**
+ * Counters and latency histograms for the server, cheap enough to be left on. Every figure is kept
+ * in {@link LongAdder}s, which spread concurrent updates over per-thread cells, so recording never
+ * takes a lock and threads relaying messages never contend on a shared counter. The figures are
+ * shown over JMX, see {@link MetricsMXBean}, and written to the log every {@code
+ * irc.metrics.dumpSeconds} while the server is hosted. Counts add up for as long as the application
+ * runs, across restarts of the server.
+ */
+final class Metrics implements MetricsMXBean {
+  /** The server's metrics. */
+  static final Metrics SERVER = new Metrics();
+
+  private final Map<String, CommandMetrics> commands = new HashMap<>(); // never changed after init
+  private final LongAdder bytesIn = new LongAdder();
+  private final LongAdder bytesOut = new LongAdder();
+  private final Histogram fanOut = new Histogram();
+  private final Histogram queueDepth = new Histogram();
+  private final Histogram roundTrip = new Histogram();
+  private volatile IntSupplier sessions = () -> 0;
+  private volatile IntSupplier rooms = () -> 0;
+  private volatile LongSupplier queuedFrames = () -> 0;
+  private ScheduledExecutorService dumper; // guarded by this
+  private ObjectName name; // registered MBean, guarded by this
+
+  private Metrics() {
+    for (String command : Packet.COMMANDS) commands.put(command, new CommandMetrics());
+  }
+
+  /* Recording */
+
+  /** Counts a packet received from a user and notes when it arrived. */
+  void packetReceived(Packet packet) {
+    packet.receivedNanos = System.nanoTime();
+    commands.get(packet.command).received.increment();
+  }
+
+  /** Counts a packet dropped, or that got its sender disconnected, as it was sent too fast. */
+  void packetLimited(Packet packet) {
+    commands.get(packet.command).limited.increment();
+  }
+
+  /** Records how long a packet took from being received to having been handled. */
+  void packetHandled(Packet packet) {
+    commands.get(packet.command).handleLatency.record(System.nanoTime() - packet.receivedNanos);
+  }
+
+  /**
+   * Counts a frame handed to a user's socket and records how long it took to get there: from the
+   * packet it relays being handled on the shard that owns it, through the outbound queue, to the
+   * socket. Frames the server sends of its own accord are timed from being encoded.
+   */
+  void frameWritten(Frame frame) {
+    CommandMetrics command = commands.get(frame.command);
+    command.written.increment();
+    command.writeLatency.record(System.nanoTime() - frame.handledNanos);
+  }
+
+  /** Counts bytes the socket of a user has taken. */
+  void bytesWritten(long bytes) {
+    bytesOut.add(bytes);
+  }
+
+  /** Counts bytes received from a user. */
+  void bytesRead(int bytes) {
+    bytesIn.add(bytes);
+  }
+
+  /** Records the number of users a broadcast or room message was sent to. */
+  void fanOut(int recipients) {
+    fanOut.record(recipients);
+  }
+
+  /** Records the depth of a session's outbound queue right after a frame was added. */
+  void queueDepth(int depth) {
+    queueDepth.record(depth);
+  }
+
+  /** Records the time from a ping being sent to a user to their pong being received. */
+  void roundTrip(long nanos) {
+    roundTrip.record(nanos);
+  }
+
+  /* Lifecycle */
+
+  /**
+   * Starts showing the metrics of a hosted server: registers the MBean, and starts the periodic
+   * dump unless dumpSeconds is zero.
+   *
+   * @param sessions number of connected sessions
+   * @param rooms number of open rooms
+   * @param queuedFrames frames waiting to be written, over all sessions
+   * @param dumpSeconds seconds between dumps to the log, zero for none
+   */
+  synchronized void start(
+      IntSupplier sessions, IntSupplier rooms, LongSupplier queuedFrames, int dumpSeconds) {
+    this.sessions = sessions;
+    this.rooms = rooms;
+    this.queuedFrames = queuedFrames;
+    try {
+      name = new ObjectName("edu.psu.cs.irc:type=Metrics");
+      ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+    } catch (JMException e) {
+      e.printStackTrace();
+      name = null;
+    }
+    if (dumpSeconds > 0) {
+      dumper =
+          Executors.newSingleThreadScheduledExecutor(
+              task -> {
+                Thread thread = new Thread(task, "irc-metrics");
+                thread.setDaemon(true);
+                return thread;
+              });
+      dumper.scheduleAtFixedRate(
+          () -> Log.info(getReport()), dumpSeconds, dumpSeconds, TimeUnit.SECONDS);
+    }
+  }
+
+  /** Stops the periodic dump and unregisters the MBean once the server has shut down. */
+  synchronized void stop() {
+    sessions = () -> 0;
+    rooms = () -> 0;
+    queuedFrames = () -> 0;
+    if (dumper != null) dumper.shutdownNow();
+    dumper = null;
+    try {
+      if (name != null) ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+    } catch (JMException e) {
+      e.printStackTrace();
+    }
+    name = null;
+  }
+
+  /* MetricsMXBean */
+
+  @Override
+  public int getSessions() {
+    return sessions.getAsInt();
+  }
+
+  @Override
+  public int getRooms() {
+    return rooms.getAsInt();
+  }
+
+  @Override
+  public long getQueuedFrames() {
+    return queuedFrames.getAsLong();
+  }
+
+  @Override
+  public long getBytesIn() {
+    return bytesIn.sum();
+  }
+
+  @Override
+  public long getBytesOut() {
+    return bytesOut.sum();
+  }
+
+  @Override
+  public Map<String, Long> getPacketsReceived() {
+    return perCommand(command -> command.received.sum());
+  }
+
+  @Override
+  public Map<String, Long> getPacketsWritten() {
+    return perCommand(command -> command.written.sum());
+  }
+
+  @Override
+  public Map<String, Long> getPacketsLimited() {
+    return perCommand(command -> command.limited.sum());
+  }
+
+  @Override
+  public Map<String, Histogram.Snapshot> getHandleLatency() {
+    return perCommand(command -> command.handleLatency.snapshot());
+  }
+
+  @Override
+  public Map<String, Histogram.Snapshot> getWriteLatency() {
+    return perCommand(command -> command.writeLatency.snapshot());
+  }
+
+  @Override
+  public Histogram.Snapshot getFanOut() {
+    return fanOut.snapshot();
+  }
+
+  @Override
+  public Histogram.Snapshot getQueueDepth() {
+    return queueDepth.snapshot();
+  }
+
+  @Override
+  public Histogram.Snapshot getRoundTripTime() {
+    return roundTrip.snapshot();
+  }
+
+  @Override
+  public String getReport() {
+    StringBuilder sb = new StringBuilder("Metrics: ");
+    sb.append(getSessions()).append(" sessions, ").append(getRooms()).append(" rooms, ");
+    sb.append(getQueuedFrames()).append(" frames queued, ");
+    sb.append(getBytesIn()).append(" bytes in, ").append(getBytesOut()).append(" bytes out, ");
+    long limited = 0;
+    for (CommandMetrics command : commands.values()) limited += command.limited.sum();
+    sb.append(limited).append(" packets rate limited");
+    appendSnapshot(sb.append("\n  fan-out        "), getFanOut(), 1);
+    appendSnapshot(sb.append("\n  queue depth    "), getQueueDepth(), 1);
+    appendSnapshot(sb.append("\n  ping (ms)      "), getRoundTripTime(), 1_000_000);
+    sb.append("\n  command              count  handled in (us)");
+    sb.append("                  written  written in (us)");
+    for (String name : Packet.COMMANDS) {
+      CommandMetrics command = commands.get(name);
+      Histogram.Snapshot handled = command.handleLatency.snapshot();
+      Histogram.Snapshot written = command.writeLatency.snapshot();
+      if (handled.getCount() == 0 && written.getCount() == 0) continue;
+      sb.append(String.format("\n  %-17s %8d  ", name, command.received.sum()));
+      appendSnapshot(sb, handled, 1000);
+      sb.append(String.format("  %8d  ", command.written.sum()));
+      appendSnapshot(sb, written, 1000);
+    }
+    return sb.toString();
+  }
+
+  private <T> Map<String, T> perCommand(Function<CommandMetrics, T> figure) {
+    Map<String, T> map = new TreeMap<>();
+    for (Map.Entry<String, CommandMetrics> entry : commands.entrySet())
+      map.put(entry.getKey(), figure.apply(entry.getValue()));
+    return map;
+  }
+
+  private static void appendSnapshot(StringBuilder sb, Histogram.Snapshot snapshot, int unit) {
+    sb.append(
+        String.format(
+            "p50 %-6d p99 %-6d max %-6d",
+            snapshot.getP50() / unit, snapshot.getP99() / unit, snapshot.getMax() / unit));
+  }
+
+  /** Figures kept for every command. */
+  private static final class CommandMetrics {
+    final LongAdder received = new LongAdder(); // from users
+    final LongAdder written = new LongAdder(); // to users
+    final LongAdder limited = new LongAdder(); // from users, sent too fast
+    final Histogram handleLatency = new Histogram(); // received until handled
+    final Histogram writeLatency = new Histogram(); // handled, or else encoded, until written
+  }
+}
@@ -0,0 +1,55 @@
+package edu.psu.cs.irc;
+
+import java.util.Map;
+
+/**
+ * What the server's {@link Metrics} show over JMX, registered as {@code
+ * edu.psu.cs.irc:type=Metrics} while the server is hosted. Latencies are in nanoseconds, and per
+ * command figures are keyed by {@link Packet#command}. Public only because JMX requires it.
+ */
+public interface MetricsMXBean {
+  /** Returns the number of connected sessions. */
+  int getSessions();
+
+  /** Returns the number of open rooms. */
+  int getRooms();
+
+  /** Returns the number of frames waiting to be written, over all sessions. */
+  long getQueuedFrames();
+
+  /** Returns the bytes received from users. */
+  long getBytesIn();
+
+  /** Returns the bytes written to users. */
+  long getBytesOut();
+
+  /** Returns the packets received from users, per command. */
+  Map<String, Long> getPacketsReceived();
+
+  /** Returns the packets written to users, per command. */
+  Map<String, Long> getPacketsWritten();
+
+  /** Returns the packets dropped as they were sent too fast, per command. */
+  Map<String, Long> getPacketsLimited();
+
+  /** Returns the time from a packet being received to it having been handled, per command. */
+  Map<String, Histogram.Snapshot> getHandleLatency();
+
+  /**
+   * Returns the time from the packet a frame relays being handled, or else from the frame being
+   * encoded, to the frame having been written, per command.
+   */
+  Map<String, Histogram.Snapshot> getWriteLatency();
+
+  /** Returns the number of users each broadcast or room message was sent to. */
+  Histogram.Snapshot getFanOut();
+
+  /** Returns the depth of a session's outbound queue each time a frame was added to it. */
+  Histogram.Snapshot getQueueDepth();
+
+  /** Returns the time from a ping being sent to a user to their pong being received. */
+  Histogram.Snapshot getRoundTripTime();
+
+  /** Returns every figure above as text, as written by the periodic dump. */
+  String getReport();
+}
@@ -0,0 +1,101 @@
+package edu.psu.cs.irc;
+
+import java.util.function.IntConsumer;
+
+/**
+ * Set of positive ints, stored unboxed in an open addressing hash table that is changed in place.
+ * Adding or removing an element costs the same however large the set is, unlike {@link IntSet},
+ * which copies itself on every change so that other threads can read it. Only for sets that a
+ * single thread owns, such as the members of a room, which only its shard touches.
+ */
+final class MutableIntSet {
+  private int[] slots = new int[4]; // length is a power of two, 0 marks an empty slot
+  private int size;
+
+  /** Returns if the value is in the set. */
+  boolean contains(int value) {
+    int mask = slots.length - 1;
+    for (int i = mix(value) & mask; slots[i] != 0; i = (i + 1) & mask)
+      if (slots[i] == value) return true;
+    return false;
+  }
+
+  /**
+   * Adds a value to the set.
+   *
+   * @param value value to add, must be positive
+   * @return false if the set already held the value
+   */
+  boolean add(int value) {
+    if (value <= 0) throw new IllegalArgumentException("Not a positive value: " + value);
+    if (contains(value)) return false;
+    if (2 * (size + 1) > slots.length) {
+      int[] old = slots;
+      slots = new int[old.length * 2];
+      for (int v : old) if (v != 0) insert(slots, v);
+    }
+    insert(slots, value);
+    ++size;
+    return true;
+  }
+
+  /**
+   * Removes a value from the set. The values probed past it are moved back into the gap, so that
+   * lookups never stop short of them.
+   *
+   * @param value value to remove
+   * @return false if the set did not hold the value
+   */
+  boolean remove(int value) {
+    int mask = slots.length - 1;
+    int i = mix(value) & mask;
+    while (slots[i] != value) {
+      if (slots[i] == 0) return false;
+      i = (i + 1) & mask;
+    }
+    for (int j = (i + 1) & mask; slots[j] != 0; j = (j + 1) & mask) {
+      int home = mix(slots[j]) & mask;
+      // the value at j can fill the gap at i unless its home slot lies after i, up to j
+      if (((j - home) & mask) >= ((j - i) & mask)) {
+        slots[i] = slots[j];
+        i = j;
+      }
+    }
+    slots[i] = 0;
+    --size;
+    return true;
+  }
+
+  /** Returns the number of values in the set. */
+  int size() {
+    return size;
+  }
+
+  /** Returns if the set holds no values. */
+  boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * Passes every value in the set to an action, in no particular order. The action must not change
+   * the set.
+   *
+   * @param action action to be performed for each value
+   */
+  void forEach(IntConsumer action) {
+    for (int v : slots) if (v != 0) action.accept(v);
+  }
+
+  private static void insert(int[] slots, int value) {
+    int mask = slots.length - 1;
+    int i = mix(value) & mask;
+    while (slots[i] != 0) i = (i + 1) & mask;
+    slots[i] = value;
+  }
+
+  /** Spreads consecutive ids across the table instead of filling one run of slots. */
+  private static int mix(int value) {
+    int h = value * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+}
@@ -0,0 +1,383 @@
+package edu.psu.cs.irc;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Selector based transport. A small, fixed set of event loop threads own every socket: the first
+ * loop accepts incoming connections and hands them out round robin, and each loop then performs
+ * non-blocking reads and writes for the sessions it owns. The number of threads therefore stays the
+ * same no matter how many users are connected. With {@code irc.reusePort}, each of {@code
+ * irc.acceptors} loops accepts on a listening channel of its own, all bound to the same port, so
+ * that a burst of connections is accepted by several loops at once.
+ */
+final class NioTransport {
+  private final ServerConfig config;
+  private final SessionHandler handler;
+  private final List<ServerSocketChannel> serverChannels = new ArrayList<>();
+  private final EventLoop[] loops;
+  private volatile boolean closed;
+
+  /**
+   * Binds the server channel and opens one selector per event loop. No connections are accepted
+   * until {@link #start()} is called.
+   *
+   * @param port port number to listen on
+   * @param config server configuration, providing the event loop count and outbound queue settings
+   * @param handler callbacks for accepted sessions and the packets read from them
+   */
+  NioTransport(int port, ServerConfig config, SessionHandler handler) throws IOException {
+    this.config = config;
+    this.handler = handler;
+    int loopCount = config.eventLoops;
+    loops = new EventLoop[loopCount];
+    try {
+      for (int i = 0; i < loopCount; ++i) loops[i] = new EventLoop(i);
+      int count = config.reusePort ? Math.min(config.acceptors, loopCount) : 1;
+      for (int i = 0; i < count; ++i) {
+        ServerSocketChannel serverChannel = ServerSocketChannel.open();
+        serverChannels.add(serverChannel);
+        if (count > 1) {
+          if (!serverChannel.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT)) {
+            Log.warn("SO_REUSEPORT is not supported, a single event loop accepts connections.");
+            count = 1;
+          } else {
+            serverChannel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+          }
+        }
+        serverChannel.bind(new InetSocketAddress(port), config.acceptBacklog);
+        serverChannel.configureBlocking(false);
+        serverChannel.register(loops[i].selector, SelectionKey.OP_ACCEPT);
+      }
+    } catch (IOException e) {
+      for (ServerSocketChannel serverChannel : serverChannels) serverChannel.close();
+      for (EventLoop loop : loops) if (loop != null) loop.selector.close();
+      throw e;
+    }
+  }
+
+  /** Starts the event loop threads, after which connections are accepted. */
+  void start() {
+    for (EventLoop loop : loops) loop.thread.start();
+  }
+
+  /**
+   * Stops accepting connections, writes out whatever has already been queued and closes every
+   * connection. Returns once all event loop threads have exited.
+   */
+  void close() {
+    closed = true;
+    for (EventLoop loop : loops) loop.selector.wakeup();
+    for (EventLoop loop : loops) {
+      if (loop.thread == Thread.currentThread()) continue;
+      try {
+        loop.thread.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+    }
+  }
+
+  /**
+   * Event loops must never park, so a BLOCK slow consumer policy disconnects the session instead.
+   */
+  private OutboundQueue newOutboundQueue() {
+    OutboundQueue.Policy policy = config.slowConsumerPolicy;
+    if (policy == OutboundQueue.Policy.BLOCK) policy = OutboundQueue.Policy.DISCONNECT;
+    return new OutboundQueue(config.outboundCapacity, policy);
+  }
+
+  /**
+   * An event loop owns a selector and every channel registered with it. All socket reads and writes
+   * for those channels happen on the loop's thread; other threads only ever queue work and wake the
+   * selector up.
+   */
+  private final class EventLoop implements Runnable {
+    final Selector selector;
+    final Thread thread;
+    final Queue<SocketChannel> pendingChannels = new ConcurrentLinkedQueue<>();
+    final Queue<NioSession> pendingWrites = new ConcurrentLinkedQueue<>();
+    final PacketDecoder decoder = new PacketDecoder(PacketDecoder.SERVER_MAX_FRAME_LENGTH);
+    final ByteBuffer readBuffer = ByteBuffer.allocate(4 + PacketDecoder.SERVER_MAX_FRAME_LENGTH);
+    final ByteBuffer writeBuffer = ByteBuffer.allocateDirect(OutboundQueue.MAX_BATCH_BYTES);
+    final Frame[] batch = new Frame[OutboundQueue.MAX_BATCH_FRAMES];
+    private int nextLoop; // loop the next connection accepted here is handed to
+
+    /* Constructor */
+    EventLoop(int index) throws IOException {
+      selector = Selector.open();
+      thread = new Thread(this, "irc-nio-" + index);
+      nextLoop = index; // accepting loops start handing out connections at different loops
+    }
+
+    /** Runs until the transport is closed, servicing every ready channel on each wakeup. */
+    @Override
+    public void run() {
+      while (!closed) {
+        try {
+          selector.select();
+          registerPendingChannels();
+          Set<SelectionKey> keys = selector.selectedKeys();
+          for (SelectionKey key : keys) {
+            if (!key.isValid()) continue;
+            if (key.isAcceptable()) {
+              accept((ServerSocketChannel) key.channel());
+              continue;
+            }
+            NioSession session = (NioSession) key.attachment();
+            if (key.isReadable()) read(session);
+            if (key.isValid() && key.isWritable()) flush(session);
+          }
+          keys.clear();
+          flushPendingWrites();
+        } catch (Exception e) {
+          e.printStackTrace();
+        }
+      }
+      // loop shutdown sequence
+      flushPendingWrites();
+      for (SelectionKey key : selector.keys()) {
+        try {
+          key.channel().close();
+        } catch (IOException e) {
+          e.printStackTrace();
+        }
+      }
+      try {
+        selector.close();
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    }
+
+    /** Accepts every pending connection and hands each one to the next loop in turn. */
+    private void accept(ServerSocketChannel serverChannel) throws IOException {
+      SocketChannel channel;
+      while ((channel = serverChannel.accept()) != null) {
+        channel.configureBlocking(false);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        EventLoop loop = loops[nextLoop];
+        nextLoop = (nextLoop + 1) % loops.length;
+        loop.pendingChannels.add(channel);
+        loop.selector.wakeup();
+      }
+    }
+
+    /** Registers channels handed over by the accepting loop and announces their sessions. */
+    private void registerPendingChannels() {
+      SocketChannel channel;
+      while ((channel = pendingChannels.poll()) != null) {
+        NioSession session =
+            new NioSession(channel, this, newOutboundQueue(), config.newResumeBuffer());
+        try {
+          session.key = channel.register(selector, SelectionKey.OP_READ, session);
+          handler.sessionOpened(session);
+        } catch (Exception e) {
+          e.printStackTrace();
+          closeSession(session);
+        }
+      }
+    }
+
+    /**
+     * Reads whatever the client has sent and hands every complete packet to the handler. Bytes of a
+     * trailing partial frame are kept on the session until the rest of the frame arrives, so idle
+     * sessions do not hold on to a read buffer of their own.
+     */
+    private void read(NioSession session) {
+      ByteBuffer buffer = readBuffer;
+      buffer.clear();
+      if (session.partial != null) {
+        buffer.put(session.partial);
+        session.partial = null;
+      }
+      try {
+        int read = session.channel.read(buffer);
+        if (read < 0) {
+          closeSession(session);
+          return;
+        }
+        Metrics.SERVER.bytesRead(read);
+        buffer.flip();
+        Packet packet;
+        while (!session.closed && (packet = decoder.decode(buffer)) != null) {
+          try {
+            handler.packetReceived(session, packet);
+          } catch (RuntimeException e) {
+            e.printStackTrace();
+          }
+        }
+      } catch (IOException e) {
+        if (!(e instanceof EOFException)) Log.warn(e.getMessage());
+        closeSession(session);
+        return;
+      }
+      if (buffer.hasRemaining() && !session.closed) {
+        session.partial = ByteBuffer.allocate(buffer.remaining());
+        session.partial.put(buffer).flip();
+      }
+    }
+
+    /** Flushes every session that has had packets queued since the last wakeup. */
+    private void flushPendingWrites() {
+      NioSession session;
+      while ((session = pendingWrites.poll()) != null) flush(session);
+    }
+
+    /**
+     * Writes as many queued frames as the socket will take, copying every frame that is waiting
+     * into the loop's direct write buffer and handing that to the socket in a single write call. *
+     * The JDK would otherwise copy each heap frame into a temporary direct buffer of its own.
+     * Frames are counted as written, and released, once the socket has taken the batch. If the
+     * socket's send buffer fills up, the unwritten rest is kept on the session and the loop waits
+     * for the socket to become writable again instead of blocking.
+     */
+    private void flush(NioSession session) {
+      if (session.closed) return;
+      if (session.abortRequested) {
+        closeSession(session);
+        return;
+      }
+      try {
+        if (session.writing != null) {
+          ByteBuffer writing = session.writing;
+          session.writing = null;
+          if (!write(session, writing)) return;
+        }
+        int count;
+        while ((count = session.outbound.drainTo(batch, OutboundQueue.MAX_BATCH_BYTES)) > 0) {
+          ByteBuffer buffer;
+          if (batch[0].length() > writeBuffer.capacity()) {
+            // a batch holds only one frame this large, and frames this large are never pooled
+            buffer = batch[0].view();
+          } else {
+            buffer = writeBuffer;
+            buffer.clear();
+            for (int i = 0; i < count; ++i) batch[i].copyTo(buffer);
+            buffer.flip();
+          }
+          for (int i = 0; i < count; ++i) session.frameWritten(batch[i]);
+          boolean done = write(session, buffer);
+          for (int i = 0; i < count; ++i) {
+            Metrics.SERVER.frameWritten(batch[i]);
+            batch[i].release();
+            batch[i] = null;
+          }
+          if (!done) return;
+        }
+      } catch (IOException e) {
+        for (int i = 0; i < batch.length && batch[i] != null; ++i) {
+          batch[i].release();
+          batch[i] = null;
+        }
+        closeSession(session);
+        return;
+      }
+      if (session.closeRequested) {
+        closeSession(session);
+        return;
+      }
+      session.key.interestOps(SelectionKey.OP_READ);
+      session.writeScheduled.set(false);
+      // a packet queued between the last poll and the reset above must not be left behind
+      if (session.outbound.size() > 0 || session.closeRequested) session.scheduleFlush();
+    }
+
+    /**
+     * Hands a batch of bytes to the socket in one write.
+     *
+     * @return true if every byte was written, false if the socket filled up, in which case the
+     *     unwritten bytes are kept on the session until the socket becomes writable
+     */
+    private boolean write(NioSession session, ByteBuffer buffer) throws IOException {
+      Metrics.SERVER.bytesWritten(session.channel.write(buffer));
+      if (!buffer.hasRemaining()) return true;
+      if (buffer == writeBuffer) {
+        // the loop's buffer is reused for the next session, so the rest needs a copy of its own
+        ByteBuffer rest = ByteBuffer.allocate(buffer.remaining());
+        rest.put(buffer).flip();
+        buffer = rest;
+      }
+      session.writing = buffer;
+      session.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+      return false;
+    }
+
+    /** Closes a session's channel and lets the handler know it has gone away. */
+    private void closeSession(NioSession session) {
+      if (session.closed) return;
+      session.closed = true;
+      session.partial = null;
+      session.writing = null;
+      session.connectionLost(); // frames never written are held for a resume, or released
+      session.writerStopped(null);
+      if (session.key != null) session.key.cancel();
+      try {
+        session.channel.close();
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+      try {
+        handler.sessionClosed(session);
+      } catch (RuntimeException e) {
+        e.printStackTrace();
+      }
+    }
+  }
+
+  /**
+   * A session whose socket is owned by an event loop. Any thread may send frames to it; they wait
+   * in the session's outbound queue until the owning loop writes them out.
+   */
+  private static final class NioSession extends Session {
+    final SocketChannel channel;
+    final EventLoop loop;
+    final AtomicBoolean writeScheduled = new AtomicBoolean();
+    volatile boolean closeRequested;
+    volatile boolean abortRequested;
+    SelectionKey key; // the fields below are only touched by the owning loop
+    ByteBuffer partial;
+    ByteBuffer writing; // rest of a batch the socket has only taken part of
+    boolean closed;
+
+    /* Constructor */
+    NioSession(SocketChannel channel, EventLoop loop, OutboundQueue outbound, ResumeBuffer resume) {
+      super(outbound, resume);
+      this.channel = channel;
+      this.loop = loop;
+    }
+
+    @Override
+    void framesQueued() {
+      scheduleFlush();
+    }
+
+    @Override
+    void close() {
+      closeRequested = true;
+      scheduleFlush();
+    }
+
+    /** Bypasses the write scheduling, which may be waiting on a socket that will never drain. */
+    @Override
+    void abort() {
+      abortRequested = true;
+      loop.pendingWrites.add(this);
+      if (Thread.currentThread() != loop.thread) loop.selector.wakeup();
+    }
+
+    /** Asks the owning loop to flush this session, unless a flush is already on its way. */
+    void scheduleFlush() {
+      if (!writeScheduled.compareAndSet(false, true)) return;
+      loop.pendingWrites.add(this);
+      if (Thread.currentThread() != loop.thread) loop.selector.wakeup();
+    }
+  }
+}
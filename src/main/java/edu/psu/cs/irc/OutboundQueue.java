@@ -0,0 +1,213 @@
+package edu.psu.cs.irc;
+
+import java.util.*;
+import java.util.concurrent.locks.*;
+import java.util.function.Consumer;
+
+/**
+ * Bounded queue of frames waiting to be written to a single session. Senders only ever add to the
+ * queue and never touch the socket, so a client that stops reading can only fill up its own queue
+ * instead of stalling whoever is talking to it. What happens once the queue is full is decided by
+ * the slow consumer {@link Policy}.
+ *
+ * <p>The queue owns a reference to every frame it accepts. Frames it drops are released here, and
+ * frames taken out by the writer are released by the writer once written.
+ */
+final class OutboundQueue {
+  /** What to do when a frame is sent to a session whose queue is already full. */
+  enum Policy {
+    BLOCK, // the sending thread waits until the writer has made room
+    DROP_OLDEST, // the oldest queued chat message is discarded to make room
+    DISCONNECT // the session is closed
+  }
+
+  static final int MAX_BATCH_FRAMES = 64; // Most frames a writer hands to the socket at once
+  static final int MAX_BATCH_BYTES = 64 * 1024; // Most bytes a writer hands to the socket at once
+
+  private final ArrayDeque<Frame> frames = new ArrayDeque<>();
+  private final int capacity;
+  private final Policy policy;
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition notEmpty = lock.newCondition();
+  private final Condition notFull = lock.newCondition();
+  private volatile int size; // mirrors frames.size() so the depth can be read without the lock
+  private boolean closed;
+  private Consumer<Frame> sink; // takes frames offered once the queue has been diverted
+
+  /**
+   * Constructor
+   *
+   * @param capacity maximum number of frames waiting to be written
+   * @param policy what to do when a frame is offered to a full queue
+   */
+  OutboundQueue(int capacity, Policy policy) {
+    this.capacity = capacity;
+    this.policy = policy;
+  }
+
+  /**
+   * Adds a frame to the back of the queue, applying the slow consumer policy if the queue is full.
+   * Frames offered after the queue has been closed are silently discarded.
+   *
+   * @param frame frame to be written to the session, along with a reference to it
+   * @return false if the session can not keep up and should be disconnected, in which case the
+   *     reference is still the caller's
+   */
+  boolean offer(Frame frame) {
+    lock.lock();
+    try {
+      while (!closed && frames.size() >= capacity) {
+        if (policy == Policy.DISCONNECT) return false;
+        if (policy == Policy.BLOCK) {
+          notFull.awaitUninterruptibly();
+          continue;
+        }
+        // DROP_OLDEST: chat can be thinned out, but the session can not work without the rest
+        if (!dropOldestChat()) {
+          if (!isChat(frame)) return false;
+          frame.release(); // the new message is the oldest chat there is
+          return true;
+        }
+      }
+      if (closed) {
+        if (sink != null) sink.accept(frame);
+        else frame.release();
+        return true;
+      }
+      frames.add(frame);
+      size = frames.size();
+      notEmpty.signal();
+      return true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Removes every queued frame that fits in one batch without waiting, so that the writer can hand
+   * them all to the socket in a single write. Nothing is held back waiting for more frames to
+   * arrive: a lone frame makes a batch of one.
+   *
+   * @param batch array the frames are placed in, its length limiting the number of frames
+   * @param maxBytes most bytes to take; the first frame is always taken, however large it is
+   * @return the number of frames placed in batch, zero if the queue is empty
+   */
+  int drainTo(Frame[] batch, int maxBytes) {
+    lock.lock();
+    try {
+      return drain(batch, maxBytes);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Waits for at least one frame to become available, then removes a batch as {@link
+   * #drainTo(Frame[], int)} does.
+   *
+   * @param batch array the frames are placed in, its length limiting the number of frames
+   * @param maxBytes most bytes to take; the first frame is always taken, however large it is
+   * @return the number of frames placed in batch, zero once the queue has been closed and drained
+   */
+  int takeBatch(Frame[] batch, int maxBytes) throws InterruptedException {
+    lock.lock();
+    try {
+      while (frames.isEmpty() && !closed) notEmpty.await();
+      return drain(batch, maxBytes);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** Returns the number of frames waiting to be written. */
+  int size() {
+    return size;
+  }
+
+  /**
+   * Stops accepting frames. Frames already queued can still be taken, after which {@link
+   * #takeBatch(Frame[], int)} returns zero.
+   */
+  void close() {
+    lock.lock();
+    try {
+      closed = true;
+      notEmpty.signalAll();
+      notFull.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Closes the queue and hands every frame that has not been written yet to the given sink, in
+   * order, along with every frame offered from now on. Frames are handed over while holding the
+   * queue's lock, so none offered meanwhile can be handed over out of order or lost.
+   *
+   * @param sink takes over the reference to each frame
+   */
+  void divert(Consumer<Frame> sink) {
+    lock.lock();
+    try {
+      for (Frame frame : frames) sink.accept(frame);
+      frames.clear();
+      size = 0;
+      closed = true;
+      this.sink = sink;
+      notEmpty.signalAll();
+      notFull.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** Closes the queue and throws away every frame that has not been written yet. */
+  void discard() {
+    lock.lock();
+    try {
+      for (Frame frame : frames) frame.release();
+      frames.clear();
+      size = 0;
+      closed = true;
+      notEmpty.signalAll();
+      notFull.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private int drain(Frame[] batch, int maxBytes) {
+    int count = 0;
+    int bytes = 0;
+    Frame frame;
+    while (count < batch.length && (frame = frames.peek()) != null) {
+      if (count > 0 && bytes + frame.length() > maxBytes) break;
+      frames.poll();
+      batch[count++] = frame;
+      bytes += frame.length();
+    }
+    if (count > 0) {
+      size = frames.size();
+      notFull.signalAll();
+    }
+    return count;
+  }
+
+  private boolean dropOldestChat() {
+    for (Iterator<Frame> it = frames.iterator(); it.hasNext(); ) {
+      Frame frame = it.next();
+      if (isChat(frame)) {
+        it.remove();
+        frame.release();
+        size = frames.size();
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** Chat messages may be dropped; everything else keeps the client's view of the server intact. */
+  private static boolean isChat(Frame frame) {
+    return "displayToUser".equals(frame.command);
+  }
+}
@@ -7,10 +7,35 @@ import java.io.Serializable;
  * the information that needs to be parsed by both the client and the server.
  */
 class Packet implements Serializable {
+  /**
+   * Every command a packet can carry. A command's index in this array is its opcode on the wire.
+   */
+  static final String[] COMMANDS = {
+    "joinServer",
+    "leaveServer",
+    "presenceSnapshot",
+    "presenceDelta",
+    "sendMessageAll",
+    "sendMessageUser",
+    "sendMessageRoom",
+    "createRoom",
+    "joinRoom",
+    "leaveRoom",
+    "displayToUser",
+    "shutdown",
+    "presenceResync",
+    "sessionToken",
+    "resumeSession",
+    "ping",
+    "pong"
+  };
+
   String
       command; // Command received from the client (create a room, send a message to a room, etc.)
   int targetid; // Identifies the target user or room a client wants to send a message to
   String message; // Contents of the message a client wants to send
+  transient Frame body; // Chat message as received by the server, see PacketDecoder
+  transient long receivedNanos; // When the server received the packet, see Metrics
 
   /**
    * Returns the command, targetid, and message fields to null values. This ensures a clean slate
@@ -45,24 +70,98 @@ class Packet implements Serializable {
   }
 
   /**
-   * When a client connects to the server, or leaves the server, the user list is updated.
+   * Sent by the server when a client joins, or asks to be resynchronized. Contains the complete
+   * user and room lists, which later presenceDelta packets build upon.
+   *
+   * @param version number of the last delta the snapshot includes
+   * @param message events that rebuild the lists, in the format of {@link PresenceModel}
+   */
+  void presenceSnapshot(int version, String message) {
+    clear();
+    command = "presenceSnapshot";
+    this.targetid = version;
+    this.message = message;
+  }
+
+  /**
+   * When users connect or disconnect, or rooms are created, joined or left, the server sends only
+   * what changed.
+   *
+   * @param version version number of this delta, one more than the delta before it
+   * @param message events that changed the lists, in the format of {@link PresenceModel}
+   */
+  void presenceDelta(int version, String message) {
+    clear();
+    command = "presenceDelta";
+    this.targetid = version;
+    this.message = message;
+  }
+
+  /**
+   * Sent by the client when it notices a gap in the presence deltas it received, asking the server
+   * for a new snapshot.
+   *
+   * @param version version number of the last delta the client applied
+   */
+  void presenceResync(int version) {
+    clear();
+    command = "presenceResync";
+    this.targetid = version;
+  }
+
+  /**
+   * Sent by the server once the client has joined, and again after every resume. A client whose
+   * connection drops can present the token on a new connection to carry on as the same user.
+   *
+   * @param token the session's resume token
+   */
+  void sessionToken(String token) {
+    clear();
+    command = "sessionToken";
+    this.message = token;
+  }
+
+  /**
+   * Called when a client reconnects after its connection dropped, as the first packet on the new
+   * connection, in place of joinServer. The resume token is passed in as the message, along with
+   * the number of packets the client had read, counting on from where the connection before it left
+   * off.
+   *
+   * <p>This method is also called from the server side in answer, with a welcome back message and
+   * the user's id, or -1 if the session could not be resumed. Every packet the client missed
+   * follows a successful resume.
+   *
+   * @param message resume token from the client, or message from the server
+   * @param targetid packets read by the client, or the user's id from the server
+   */
+  void resumeSession(String message, int targetid) {
+    clear();
+    command = "resumeSession";
+    this.targetid = targetid;
+    this.message = message;
+  }
+
+  /**
+   * Sent by the server to a client it has not heard from in a while, to find out whether the
+   * connection is still alive. The client answers with a pong carrying the same message.
    *
-   * @param message contains the user id and username
+   * @param message when the server sent the ping, as text
    */
-  void userUpdate(String message) {
+  void ping(String message) {
     clear();
-    command = "userUpdate";
+    command = "ping";
     this.message = message;
   }
 
   /**
-   * When a room is created, the room list is updated.
+   * Called by the client in answer to a ping, handing back its message so the server can tell how
+   * long the round trip took.
    *
-   * @param message contains the room name, room id, and the user id, username of connected clients
+   * @param message message of the ping being answered
    */
-  void roomUpdate(String message) {
+  void pong(String message) {
     clear();
-    command = "roomUpdate";
+    command = "pong";
     this.message = message;
   }
 
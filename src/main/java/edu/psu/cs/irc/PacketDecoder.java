@@ -0,0 +1,120 @@
+package edu.psu.cs.irc;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads frames written by {@link PacketEncoder} back into packets. Every decoder enforces a maximum
+ * frame length, which is checked before anything is allocated, so a peer announcing a huge frame is
+ * rejected instead of making the decoder allocate without bound.
+ */
+final class PacketDecoder {
+  static final int SERVER_MAX_FRAME_LENGTH = 8 * 1024; // Largest frame a client may send
+  static final int CLIENT_MAX_FRAME_LENGTH = 16 * 1024 * 1024; // Largest frame the server may send
+
+  private static final int SEND_MESSAGE_ALL = PacketEncoder.opcode("sendMessageAll");
+  private static final int SEND_MESSAGE_ROOM = PacketEncoder.opcode("sendMessageRoom");
+  private static final int SEND_MESSAGE_USER = PacketEncoder.opcode("sendMessageUser");
+
+  private final int maxFrameLength;
+  private byte[] scratch = new byte[256]; // reused for stream reads, grows up to maxFrameLength
+  private int frameLength; // bytes taken by the last frame decoded, including its length prefix
+
+  /**
+   * Constructor
+   *
+   * @param maxFrameLength largest frame length this decoder will accept
+   */
+  PacketDecoder(int maxFrameLength) {
+    this.maxFrameLength = maxFrameLength;
+  }
+
+  /**
+   * Decodes the next frame in a heap buffer. If the buffer does not yet hold a complete frame,
+   * nothing is consumed and null is returned so the caller can read more bytes and try again.
+   *
+   * @param buffer array backed buffer in read mode holding zero or more frames
+   * @return the decoded packet, or null if the buffer does not hold a complete frame
+   * @throws IOException if the frame is malformed or longer than the maximum frame length
+   */
+  Packet decode(ByteBuffer buffer) throws IOException {
+    if (buffer.remaining() < 4) return null;
+    int length = checkLength(buffer.getInt(buffer.position()));
+    if (buffer.remaining() < 4 + length) return null;
+    frameLength = 4 + length;
+    int start = buffer.position() + 4;
+    buffer.position(start + length);
+    return decodeBody(buffer.array(), buffer.arrayOffset() + start, length);
+  }
+
+  /**
+   * Blocks until a complete frame has been read from a stream and decodes it. Not thread safe, as
+   * the frame is read into a buffer that is reused across calls.
+   *
+   * @param in stream to read the frame from
+   * @return the decoded packet
+   * @throws EOFException if the stream ends before a complete frame has been read
+   * @throws IOException if the frame is malformed or longer than the maximum frame length
+   */
+  Packet read(DataInputStream in) throws IOException {
+    int length = checkLength(in.readInt());
+    if (scratch.length < length) scratch = new byte[Math.max(length, scratch.length * 2)];
+    in.readFully(scratch, 0, length);
+    frameLength = 4 + length;
+    return decodeBody(scratch, 0, length);
+  }
+
+  /** Returns the number of bytes taken by the last frame decoded, including its length prefix. */
+  int frameLength() {
+    return frameLength;
+  }
+
+  /** The smallest frame is an opcode followed by a single byte targetid. */
+  private int checkLength(int length) throws IOException {
+    if (length < 2 || length > maxFrameLength)
+      throw new StreamCorruptedException("Invalid frame length " + length + ".");
+    return length;
+  }
+
+  private static Packet decodeBody(byte[] bytes, int offset, int length) throws IOException {
+    int end = offset + length;
+    int header = bytes[offset++] & 0xff;
+    int opcode = header & ~PacketEncoder.HAS_MESSAGE;
+    if (opcode >= Packet.COMMANDS.length)
+      throw new StreamCorruptedException("Unknown opcode " + opcode + ".");
+    // varint targetid, at most five bytes for a 32 bit value
+    int targetid = 0;
+    for (int shift = 0; ; shift += 7) {
+      if (offset == end || shift > 28)
+        throw new StreamCorruptedException("Malformed targetid in frame.");
+      byte b = bytes[offset++];
+      targetid |= (b & 0x7f) << shift;
+      if (b >= 0) break;
+    }
+    Packet packet = new Packet();
+    packet.command = Packet.COMMANDS[opcode];
+    packet.targetid = (targetid >>> 1) ^ -(targetid & 1);
+    if ((header & PacketEncoder.HAS_MESSAGE) == 0 && offset != end)
+      throw new StreamCorruptedException("Unexpected bytes after targetid.");
+    if (opcode == SEND_MESSAGE_ALL || opcode == SEND_MESSAGE_ROOM || opcode == SEND_MESSAGE_USER)
+      packet.body = relayBody(bytes, offset, end - offset);
+    else if ((header & PacketEncoder.HAS_MESSAGE) != 0)
+      packet.message = new String(bytes, offset, end - offset, StandardCharsets.UTF_8);
+    return packet;
+  }
+
+  /**
+   * Chat messages are only relayed by the server, never read, so they are kept as UTF-8 in a frame
+   * with headroom for the sender's prefix instead of being decoded into a string.
+   */
+  private static Frame relayBody(byte[] bytes, int offset, int length) {
+    FramePool pool = FramePool.CHAT;
+    Frame body =
+        length + PacketEncoder.RELAY_HEADROOM <= pool.frameCapacity()
+            ? pool.acquire()
+            : new Frame("displayToUser", length + PacketEncoder.RELAY_HEADROOM, null);
+    body.setBody(bytes, offset, length);
+    return body;
+  }
+}
@@ -0,0 +1,122 @@
+package edu.psu.cs.irc;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Turns packets into frames that can be written to a socket. Every frame has the layout
+ *
+ * <pre>
+ *   int32   length of everything that follows
+ *   byte    opcode (index into {@link Packet#COMMANDS}), high bit set if a message follows
+ *   varint  targetid, zigzag encoded so that the unset value -1 takes a single byte
+ *   bytes   message as UTF-8, running to the end of the frame
+ * </pre>
+ *
+ * The length prefix lets the receiver pull whole packets out of a non-blocking buffer, and the
+ * single byte opcode replaces the command name, so a typical chat message costs only six bytes on
+ * top of its text.
+ */
+final class PacketEncoder {
+  static final int HAS_MESSAGE = 0x80; // opcode flag marking a frame that carries a message
+  static final int RELAY_HEADROOM = 128; // room left in front of a chat message for its prefix
+  private static final Map<String, Integer> OPCODES = new HashMap<>();
+
+  static {
+    for (int i = 0; i < Packet.COMMANDS.length; ++i) OPCODES.put(Packet.COMMANDS[i], i);
+  }
+
+  private static final int DISPLAY_TO_USER = opcode("displayToUser");
+
+  private PacketEncoder() {}
+
+  /**
+   * Encodes a packet into a frame. The packet is encoded once, however many sessions the frame is
+   * later sent to.
+   *
+   * @param packet packet to be encoded
+   * @return the complete frame
+   * @throws IllegalArgumentException if the packet's command has no opcode
+   */
+  static Frame encode(Packet packet) {
+    int opcode = opcode(packet.command);
+    byte[] message =
+        packet.message == null ? null : packet.message.getBytes(StandardCharsets.UTF_8);
+    int targetid = zigzag(packet.targetid);
+    int length = 1 + varintSize(targetid) + (message == null ? 0 : message.length);
+    ByteBuffer frame = ByteBuffer.allocate(4 + length);
+    frame.putInt(length);
+    frame.put((byte) (message == null ? opcode : opcode | HAS_MESSAGE));
+    putVarint(frame, targetid);
+    if (message != null) frame.put(message);
+    frame.flip();
+    return new Frame(packet.command, frame);
+  }
+
+  /**
+   * Turns the message of a chat packet received from a user into the displayToUser frame that
+   * relays it, with the sender's prefix in front of the message. The prefix and frame header are
+   * written into the headroom in front of the message, so in the common case no bytes are copied
+   * and the message frame itself becomes the relayed frame.
+   *
+   * @param prefix UTF-8 text shown in front of the message, naming the sender
+   * @param message frame holding just the message, as decoded by {@link PacketDecoder}; must not be
+   *     used afterwards, except to release it
+   * @return the relayed frame, which is either message itself or a new frame
+   */
+  static Frame encodeRelay(byte[] prefix, Frame message) {
+    int length = 2 + prefix.length + message.length(); // opcode, targetid of -1 in one byte
+    if (message.headroom() < 4 + 2 + prefix.length) {
+      ByteBuffer frame = ByteBuffer.allocate(4 + length);
+      frame.putInt(length);
+      frame.put((byte) (DISPLAY_TO_USER | HAS_MESSAGE));
+      putVarint(frame, zigzag(-1));
+      frame.put(prefix);
+      message.copyTo(frame);
+      frame.flip();
+      Frame relayed = new Frame("displayToUser", frame);
+      relayed.handledNanos = message.handledNanos;
+      return relayed;
+    }
+    message.prepend(prefix);
+    message.prepend((byte) zigzag(-1));
+    message.prepend((byte) (DISPLAY_TO_USER | HAS_MESSAGE));
+    message.prependInt(length);
+    return message;
+  }
+
+  /**
+   * Returns the opcode of a command.
+   *
+   * @throws IllegalArgumentException if the command has no opcode
+   */
+  static int opcode(String command) {
+    Integer opcode = OPCODES.get(command);
+    if (opcode == null) throw new IllegalArgumentException("Unknown command " + command);
+    return opcode;
+  }
+
+  /** Maps small negative numbers to small positive ones so that they encode in few bytes. */
+  private static int zigzag(int value) {
+    return (value << 1) ^ (value >> 31);
+  }
+
+  private static int varintSize(int value) {
+    int size = 1;
+    while ((value & ~0x7f) != 0) {
+      value >>>= 7;
+      ++size;
+    }
+    return size;
+  }
+
+  /** Writes seven bits per byte, least significant first, with the high bit marking more bytes. */
+  private static void putVarint(ByteBuffer frame, int value) {
+    while ((value & ~0x7f) != 0) {
+      frame.put((byte) ((value & 0x7f) | 0x80));
+      value >>>= 7;
+    }
+    frame.put((byte) value);
+  }
+}
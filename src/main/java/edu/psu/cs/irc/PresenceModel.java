@@ -0,0 +1,160 @@
+package edu.psu.cs.irc;
+
+import java.util.*;
+
+/**
+ * The lists of users and rooms shown next to the chat, kept in step between the server and its
+ * clients by exchanging small events instead of complete listings. Events are sent as lines of
+ * text, one event per line:
+ *
+ * <pre>
+ *   +u id name     user joined the server
+ *   -u id          user left the server, along with every room they were in
+ *   +r id name     room created
+ *   -r id          room removed
+ *   +m room user   user joined a room
+ *   -m room user   user left a room
+ * </pre>
+ *
+ * Applying an event that has already taken effect changes nothing, so seeing an event twice can
+ * never make a client's lists drift from the server's. Not thread safe.
+ */
+final class PresenceModel {
+  private final TreeMap<Integer, String> users = new TreeMap<>();
+  private final TreeMap<Integer, Room> rooms = new TreeMap<>();
+
+  /**
+   * Applies one or more events, separated by newlines.
+   *
+   * @param events events in the format described above
+   * @throws IllegalArgumentException if an event is malformed; events before it have been applied
+   */
+  void apply(String events) {
+    for (String event : events.split("\n")) {
+      if (event.isEmpty()) continue;
+      String[] parts = event.split(" ", 3);
+      if (parts.length < 2 || parts[0].length() != 2)
+        throw new IllegalArgumentException("Malformed presence event '" + event + "'.");
+      int id = Integer.parseInt(parts[1]);
+      String rest = parts.length > 2 ? parts[2] : "";
+      switch (parts[0]) {
+        case "+u":
+          users.put(id, rest);
+          break;
+        case "-u":
+          users.remove(id);
+          for (Room room : rooms.values()) room.members.remove(id);
+          break;
+        case "+r":
+          rooms.putIfAbsent(id, new Room(rest));
+          break;
+        case "-r":
+          rooms.remove(id);
+          break;
+        case "+m":
+          Room joined = rooms.get(id);
+          if (joined != null) joined.members.add(Integer.parseInt(rest));
+          break;
+        case "-m":
+          Room left = rooms.get(id);
+          if (left != null) left.members.remove(Integer.parseInt(rest));
+          break;
+        default:
+          throw new IllegalArgumentException("Malformed presence event '" + event + "'.");
+      }
+    }
+  }
+
+  /** Forgets every user and room. */
+  void clear() {
+    users.clear();
+    rooms.clear();
+  }
+
+  /** Returns the events that rebuild the current lists from empty ones. */
+  String snapshot() {
+    StringBuilder sb = new StringBuilder();
+    for (Map.Entry<Integer, String> user : users.entrySet())
+      sb.append(userJoined(user.getKey(), user.getValue())).append('\n');
+    for (Map.Entry<Integer, Room> room : rooms.entrySet()) {
+      sb.append(roomCreated(room.getKey(), room.getValue().name)).append('\n');
+      for (Integer member : room.getValue().members)
+        sb.append(memberAdded(room.getKey(), member)).append('\n');
+    }
+    return sb.toString();
+  }
+
+  /** Returns the user list as displayed next to the chat. */
+  String userListing() {
+    StringBuilder sb = new StringBuilder();
+    sb.append(users.size()).append(" USERS\n");
+    for (Map.Entry<Integer, String> user : users.entrySet())
+      sb.append("\n# ").append(user.getKey()).append(" ").append(user.getValue());
+    return sb.toString();
+  }
+
+  /** Returns the room list, with the members of every room, as displayed next to the chat. */
+  String roomListing() {
+    StringBuilder sb = new StringBuilder();
+    sb.append(rooms.size()).append(" ROOMS\n");
+    for (Map.Entry<Integer, Room> room : rooms.entrySet()) {
+      sb.append("\n# ").append(room.getKey()).append(" ").append(room.getValue().name);
+      for (Integer member : room.getValue().members)
+        sb.append("\n   # ").append(member).append(" ").append(users.get(member));
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Returns what an event describes: a user, a room, or one user's membership of a room. A later
+   * event for the same entity supersedes an earlier one.
+   *
+   * @param event a single event
+   * @return a key that is equal for events about the same entity
+   */
+  static String entityOf(String event) {
+    if (event.startsWith("m", 1)) return event.substring(1); // "m room user"
+    int end = event.indexOf(' ', 3);
+    return event.substring(1, end < 0 ? event.length() : end); // "u id" or "r id"
+  }
+
+  /* Single events, ready to be applied or published */
+
+  static String userJoined(int userid, String username) {
+    return "+u " + userid + " " + oneLine(username);
+  }
+
+  static String userLeft(int userid) {
+    return "-u " + userid;
+  }
+
+  static String roomCreated(int roomid, String roomName) {
+    return "+r " + roomid + " " + oneLine(roomName);
+  }
+
+  static String roomRemoved(int roomid) {
+    return "-r " + roomid;
+  }
+
+  static String memberAdded(int roomid, int userid) {
+    return "+m " + roomid + " " + userid;
+  }
+
+  static String memberRemoved(int roomid, int userid) {
+    return "-m " + roomid + " " + userid;
+  }
+
+  /** Names come from user input, and a line break would be read as the start of another event. */
+  private static String oneLine(String name) {
+    return String.valueOf(name).replace('\n', ' ').replace('\r', ' ');
+  }
+
+  private static final class Room {
+    final String name;
+    final TreeSet<Integer> members = new TreeSet<>();
+
+    Room(String name) {
+      this.name = name;
+    }
+  }
+}
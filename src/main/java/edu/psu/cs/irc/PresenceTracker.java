@@ -0,0 +1,118 @@
+package edu.psu.cs.irc;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * The server's side of presence. Changes to the user and room lists are collected for a short
+ * window and then published to all sessions as one delta carrying the next version number, so a
+ * storm of users joining at once costs one delta per window instead of one per join. A complete
+ * snapshot is only sent to a user when they join or when their client reports that it has missed a
+ * delta.
+ *
+ * <p>Deltas are built holding the tracker's lock but sent to the sessions after releasing it, so a
+ * slow fan out never holds up publishing or a snapshot. Every delta is sent by the tracker's own
+ * thread, one after the other, so every session receives them in version order. A snapshot sent
+ * meanwhile may overtake the delta of its own version, which the client skips as already included.
+ *
+ * <p>Events waiting for the next flush are merged by what they describe: only the latest event for
+ * a given user, room or membership is kept. Snapshots already include events that have not been
+ * flushed yet, which is harmless as applying an event a second time changes nothing.
+ */
+final class PresenceTracker {
+  private final SessionRegistry registry;
+  private final PresenceModel model = new PresenceModel();
+  private final LinkedHashMap<String, String> pending = new LinkedHashMap<>(); // entity -> event
+  private final long flushMillis;
+  private final Runnable flushListener;
+  private final ScheduledExecutorService timer; // sends every delta
+  private boolean flushScheduled;
+  private int version; // number of deltas published so far
+
+  /**
+   * Constructor
+   *
+   * @param registry sessions the deltas are sent to
+   * @param flushMillis how long changes are collected before being published, 0 to publish every
+   *     change as soon as the tracker's thread gets to it
+   * @param flushListener run after each published delta, outside the tracker's lock
+   */
+  PresenceTracker(SessionRegistry registry, long flushMillis, Runnable flushListener) {
+    this.registry = registry;
+    this.flushMillis = flushMillis;
+    this.flushListener = flushListener;
+    timer =
+        Executors.newSingleThreadScheduledExecutor(
+            r -> {
+              Thread thread = new Thread(r, "irc-presence");
+              thread.setDaemon(true);
+              return thread;
+            });
+  }
+
+  /**
+   * Applies events to the server's lists and queues them for the next delta.
+   *
+   * @param events one or more events in the format of {@link PresenceModel}, separated by newlines
+   */
+  synchronized void publish(String events) {
+    model.apply(events);
+    for (String event : events.split("\n")) {
+      String entity = PresenceModel.entityOf(event);
+      pending.remove(entity); // moves a replaced event behind the ones queued after it
+      pending.put(entity, event);
+    }
+    if (!flushScheduled) {
+      flushScheduled = true;
+      try {
+        timer.schedule(this::flush, flushMillis, TimeUnit.MILLISECONDS);
+      } catch (RejectedExecutionException e) {
+        // closed
+      }
+    }
+  }
+
+  /** Sends every queued event to all sessions as a single delta. Tracker's thread only. */
+  private void flush() {
+    Frame frame;
+    List<Session> sessions;
+    synchronized (this) {
+      flushScheduled = false;
+      if (pending.isEmpty()) return;
+      Packet packet = new Packet();
+      packet.presenceDelta(++version, String.join("\n", pending.values()));
+      pending.clear();
+      frame = PacketEncoder.encode(packet);
+      sessions = new ArrayList<>(registry.sessions());
+    }
+    for (Session session : sessions) session.sendFrame(frame);
+    Metrics.SERVER.fanOut(sessions.size());
+    flushListener.run();
+  }
+
+  /**
+   * Sends the complete lists to a single session, which the deltas that follow build upon.
+   *
+   * @param session session to send the snapshot to
+   */
+  synchronized void sendSnapshot(Session session) {
+    Packet packet = new Packet();
+    packet.presenceSnapshot(version, model.snapshot());
+    session.sendPacket(packet);
+  }
+
+  /** Returns the user list as displayed next to the chat. */
+  synchronized String userListing() {
+    return model.userListing();
+  }
+
+  /** Returns the room list as displayed next to the chat. */
+  synchronized String roomListing() {
+    return model.roomListing();
+  }
+
+  /** Stops the tracker's thread. Events that have not been flushed yet are dropped. */
+  void close() {
+    timer.shutdownNow();
+  }
+}
@@ -0,0 +1,167 @@
+package edu.psu.cs.irc;
+
+import java.util.*;
+
+/**
+ * What a session needs to be resumed by a new connection after its own has dropped. Server and
+ * client both count the frames of a connection as they are written and read, so the sequence number
+ * of a frame is never sent: it is simply its place in the connection. The buffer keeps the most
+ * recent frames written along with their numbers, and once the connection has dropped, every frame
+ * that was still waiting to be written or has been sent since. A client reconnecting with the
+ * number of the last frame it read is sent exactly the frames it is missing.
+ *
+ * <p>Frames are shared with other sessions, so the buffer holds a reference to each and gives it up
+ * once the frame falls out of the buffer or the session ends. Both are bounded: a session that
+ * misses more frames than the buffer holds can no longer be resumed.
+ */
+final class ResumeBuffer {
+  private enum State {
+    CONNECTED, // frames written are recorded
+    DETACHED, // the connection has dropped, frames sent are held until a resume or the end
+    ENDED // nothing is kept any longer, frames go to the session that took over if there is one
+  }
+
+  private final Frame[] written; // ring of the most recent frames written
+  private final ArrayDeque<Frame> held = new ArrayDeque<>(); // never written, oldest first
+  private State state = State.CONNECTED;
+  private boolean writerStopped; // no more frames will be written on the connection
+  private boolean overflowed; // more frames were missed than can be held
+  private int base; // sequence number of the frame before the first one of this connection
+  private int count; // frames written on this connection, wrapping around like the client's count
+  private int recorded; // frames in the ring
+  private Session successor; // the session that took over, once resumed
+
+  /**
+   * Constructor
+   *
+   * @param capacity frames kept, both of those written and of those held while detached
+   */
+  ResumeBuffer(int capacity) {
+    written = new Frame[capacity];
+  }
+
+  /**
+   * Continues the numbering of an earlier connection, on the connection that resumed it. Frames
+   * written before this connection was known to resume keep their places too, as the client counts
+   * them the same way.
+   *
+   * @param lastSeq number of the last frame the client read on the earlier connection
+   */
+  synchronized void continueFrom(int lastSeq) {
+    base = lastSeq;
+  }
+
+  /**
+   * Records a frame handed to the connection, in the order written. Writer only, and only while it
+   * still holds its reference to the frame.
+   */
+  synchronized void frameWritten(Frame frame) {
+    if (state == State.ENDED) return;
+    int slot = Math.floorMod(count++, written.length);
+    if (written[slot] != null) written[slot].release();
+    else ++recorded;
+    frame.retain();
+    written[slot] = frame;
+  }
+
+  /**
+   * Stops recording frames sent to the session, once its connection has dropped. From now on they
+   * are to be handed to {@link #hold(Frame)} instead of being queued.
+   *
+   * @return false if the session has already ended and sent frames can simply be dropped
+   */
+  synchronized boolean detach() {
+    if (state == State.CONNECTED) state = State.DETACHED;
+    return state == State.DETACHED;
+  }
+
+  /**
+   * Holds a frame sent to the session after its connection has dropped, or passes it on to the
+   * session that has taken over.
+   *
+   * @param frame frame sent to the session, along with a reference to it
+   */
+  void hold(Frame frame) {
+    Session successor;
+    synchronized (this) {
+      if (state == State.DETACHED && !overflowed) {
+        held.add(frame);
+        if (held.size() > written.length) overflow();
+        return;
+      }
+      successor = this.successor;
+    }
+    if (successor != null) successor.sendFrame(frame);
+    frame.release();
+  }
+
+  /**
+   * Called once the writer has stopped. Frames it took off the queue but never wrote are held in
+   * front of every frame sent since.
+   *
+   * @param unwritten frames taken off the outbound queue and never written, oldest first, along
+   *     with a reference to each
+   */
+  synchronized void writerStopped(List<Frame> unwritten) {
+    writerStopped = true;
+    if (state == State.DETACHED && !overflowed) {
+      for (int i = unwritten.size() - 1; i >= 0; --i) held.addFirst(unwritten.get(i));
+      if (held.size() > written.length) overflow();
+    } else {
+      for (Frame frame : unwritten) frame.release();
+    }
+  }
+
+  /** Returns whether the connection has dropped and a resume is still possible. */
+  synchronized boolean isDetached() {
+    return state == State.DETACHED && !overflowed;
+  }
+
+  /**
+   * Returns whether the connection has not been found to have dropped yet, or its writer has yet to
+   * stop, so that a resume has to wait.
+   */
+  synchronized boolean awaitingDetach() {
+    return state == State.CONNECTED || (state == State.DETACHED && !overflowed && !writerStopped);
+  }
+
+  /**
+   * Hands every frame the client is missing to the session taking over, and passes on frames sent
+   * to this one from now on. Nothing is handed over if the missing frames are no longer all here.
+   *
+   * @param lastSeq number of the last frame the client read
+   * @param successor the session of the client's new connection
+   * @param reply frame sent to the successor ahead of the missing ones
+   * @return false if the session can not be resumed from there
+   */
+  synchronized boolean resume(int lastSeq, Session successor, Frame reply) {
+    if (state != State.DETACHED || overflowed || !writerStopped) return false;
+    int missed = base + count - lastSeq; // frames written that the client has not read
+    if (missed < 0 || missed > recorded) return false;
+    successor.sendFrame(reply);
+    for (int i = count - missed; i != count; ++i)
+      successor.sendFrame(written[Math.floorMod(i, written.length)]);
+    for (Frame frame : held) successor.sendFrame(frame);
+    end();
+    this.successor = successor;
+    return true;
+  }
+
+  /** Gives up every frame kept. The session can no longer be resumed. */
+  synchronized void end() {
+    state = State.ENDED;
+    for (int i = 0; i < written.length; ++i) {
+      if (written[i] != null) written[i].release();
+      written[i] = null;
+    }
+    recorded = 0;
+    for (Frame frame : held) frame.release();
+    held.clear();
+  }
+
+  private void overflow() {
+    overflowed = true;
+    for (Frame frame : held) frame.release();
+    held.clear();
+  }
+}
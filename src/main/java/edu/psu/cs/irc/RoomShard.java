@@ -0,0 +1,117 @@
+package edu.psu.cs.irc;
+
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+
+/**
+ * A single thread that handles commands for its share of the rooms and users, one at a time and in
+ * the order they were handed to it. The shard is the only owner of its rooms: they are kept in the
+ * registry's table of rooms but only ever added, changed and removed by this thread, without locks,
+ * and every command for a given room is handled in order.
+ */
+final class RoomShard {
+  private final BlockingQueue<Consumer<RoomShard>> tasks = new LinkedBlockingQueue<>();
+  private final SlotTable<ServerRoom> rooms; // shared by every shard, each owning some rooms
+  private final Thread thread;
+  private volatile boolean closed;
+
+  /**
+   * Constructor
+   *
+   * @param index number of the shard, used to name its thread
+   * @param rooms the open rooms, of which the shard owns those whose ids are routed to it
+   */
+  RoomShard(int index, SlotTable<ServerRoom> rooms) {
+    this.rooms = rooms;
+    thread = new Thread(this::run, "irc-shard-" + index);
+    thread.setDaemon(true);
+  }
+
+  /** Starts the shard's thread. */
+  void start() {
+    thread.start();
+  }
+
+  /**
+   * Queues a command to be handled on the shard's thread after every command queued before it.
+   *
+   * @param task command to run, given this shard to reach its rooms
+   */
+  void execute(Consumer<RoomShard> task) {
+    if (!closed) tasks.add(task);
+  }
+
+  /** Stops the shard's thread. Commands that have not been handled yet are dropped. */
+  void close() {
+    closed = true;
+    thread.interrupt();
+  }
+
+  /** Returns the room with the given id, or null if there is no such room, or not anymore. */
+  ServerRoom room(int roomid) {
+    return rooms.get(roomid);
+  }
+
+  /**
+   * Creates a room with its creator as the only member.
+   *
+   * @param roomid id number handed out by the registry, which must map to this shard
+   * @param roomName name chosen by the creator
+   * @param creator session of the user creating the room
+   * @return the new room
+   */
+  ServerRoom createRoom(int roomid, String roomName, Session creator) {
+    ServerRoom room = new ServerRoom(roomid, roomName, creator.id);
+    rooms.set(roomid, room);
+    creator.roomJoined(roomid);
+    return room;
+  }
+
+  /**
+   * Gives back a room id handed out by the registry for a room that is not created after all.
+   *
+   * @param roomid id number handed out by the registry, which must map to this shard
+   */
+  void discardRoom(int roomid) {
+    rooms.remove(roomid);
+  }
+
+  /**
+   * Adds a user to a room.
+   *
+   * @param room room to join
+   * @param session session of the joining user
+   * @return false if the user was already a member
+   */
+  boolean joinRoom(ServerRoom room, Session session) {
+    if (!room.addMember(session.id)) return false;
+    session.roomJoined(room.id);
+    return true;
+  }
+
+  /**
+   * Removes a user from a room. The room is dropped as soon as its last member has left.
+   *
+   * @param room room to leave
+   * @param session session of the leaving user
+   * @return false if the user was not a member of the room
+   */
+  boolean leaveRoom(ServerRoom room, Session session) {
+    if (!room.removeMember(session.id)) return false;
+    session.roomLeft(room.id);
+    if (room.isEmpty()) rooms.remove(room.id);
+    return true;
+  }
+
+  private void run() {
+    while (!closed) {
+      try {
+        tasks.take().accept(this);
+      } catch (InterruptedException e) {
+        // closed
+      } catch (Exception e) {
+        e.printStackTrace(); // a bad packet must not take the shard's other rooms down with it
+      }
+    }
+  }
+}
@@ -1,12 +1,13 @@
 package edu.psu.cs.irc;
 
-import javax.swing.*;
-import java.awt.*;
-import java.awt.event.*;
 import java.io.*;
 import java.net.*;
+import java.nio.file.Paths;
+import java.security.SecureRandom;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * The server class enables communication, acting as the central point of contact for all messages
@@ -15,142 +16,344 @@ import java.util.concurrent.*;
  * incoming connection requests from the client. When the client sends a message, the server will
  * receive it first, and will then transmit the message to all connected users, to a particular
  * user, or to a virtual room specified by the client.
+ *
+ * <p>The server itself has no user interface. Everything it shows goes into a {@link ChatLog},
+ * which is displayed either by the {@link ServerGui} window or, when running headless, on the
+ * console.
  */
-public class Server extends JFrame implements ActionListener {
+public class Server {
   /* Server Data Members */
-  private int threadLimit = 20;
-  private ConnectionListener connectionListener;
-  private ServerSocket serverSocket;
+  private ServerConfig config;
+  private List<ServerSocket> serverSockets = new ArrayList<>(); // blocking transport only
+  private NioTransport nioTransport;
   private ExecutorService pool;
-  private boolean serverHosted;
-  private boolean shutdown;
-  private int threadCount;
-  private int roomCount;
-  private Map<Integer, ServerThread> threadMap; // mapping of user id #s to ServerThreads
-  private Map<Integer, ServerRoom> roomMap; // mapping of room id #s to ServerRooms
-
-  /* GUI Data Members */
-  private LoginMenu loginMenu;
+  private final AtomicInteger poolThreads = new AtomicInteger(); // pool threads taken by users
+  private volatile boolean serverHosted;
+  private volatile boolean shutdown;
+  private volatile SessionRegistry registry; // connected users and open rooms
+  private volatile PresenceTracker presence; // user and room lists as shown to the users
+  private volatile ShardDispatcher shards; // threads that handle commands, each owning some rooms
+  private volatile MessageHistory history; // relayed messages kept on disk, null if not kept
+  private static final int RESUME_ATTEMPTS = 20; // tries while waiting on the old connection
+  private static final int RESUME_RETRY_MILLIS = 50;
+  private static final int TIMER_BUCKETS = 512; // ticks in one turn of the timer wheel
+  private volatile TimerWheel timer; // checks quiet connections, expires dropped sessions
+  private final SecureRandom random = new SecureRandom(); // for resume tokens
+  private final FloodControl floodControl; // how fast each user may send commands
+
+  /* Display Data Members */
   private String hostname;
-  private JTextArea chatDisplay;
-  private JTextField textInput;
-  private JTextArea userDisplay;
-  private JTextArea roomDisplay;
+  private final ChatLog chatLog; // recent chat lines, displayed by the view or the console
+  private volatile ServerView view; // null when running headless
 
   /**
-   * Constructor initializes the Graphical User Interface (GUI). Once started, closing this window
-   * will stop the server.
+   * Constructor
+   *
+   * @param config settings the server runs with
    */
-  private Server() {
-    super("IRC Server");
-    System.out.println("Starting up server application...");
-    serverGUISetup();
-    loginMenu = new LoginMenu();
-    loginMenu.setVisible(true);
-    System.out.println("Success! Server application started.");
+  Server(ServerConfig config) {
+    this.config = config;
+    chatLog = new ChatLog(config.chatLogLines);
+    floodControl = new FloodControl(config);
   }
 
-  /**
-   * If a user closes the application window, this method will be called to shut down the server.
-   */
-  private void closeServerApplication() {
-    System.out.println("Closing server application...");
-    if (serverHosted) {
-      stopServer(); // Closes the infinite loop listening for incoming connection requests
-      while (serverHosted) {
-        try {
-          Thread.sleep(1000);
-          System.out.print(".");
-        } catch (Exception e) {
-          e.printStackTrace();
-        }
-      }
-      System.out.println();
-    }
-    System.out.println("See ya next time!");
-    System.exit(0);
+  /** Sets the view that is told when the server starts and stops, and when presence changes. */
+  void setView(ServerView view) {
+    this.view = view;
   }
 
   /**
    * Initializes the server to a clean state with the following attributes: 1) a functioning socket
-   * that can listen for incoming client connections 2) a fresh thread pool. Additionally, the GUI
-   * context will be switched from Login to Running.
+   * that can listen for incoming client connections 2) a fresh thread pool, or a set of selector
+   * event loops when running on the NIO transport. Additionally, the view is told the server is
+   * running.
    */
-  private boolean startServer(int port, String username) {
-    System.out.println("Attempting to host server...");
+  boolean startServer(int port, String username) {
+    Log.info("Attempting to host server...");
     hostname = username;
     shutdown = false;
-    threadCount = 0;
-    roomCount = 0;
-    threadMap = new HashMap<>();
-    roomMap = new HashMap<>();
     try {
-      serverSocket = new ServerSocket(port);
-      serverSocket.setSoTimeout(1000);
+      if (config.historyDir != null) {
+        history =
+            new MessageHistory(
+                Paths.get(config.historyDir),
+                config.historySegmentBytes,
+                config.historySegments,
+                config.historyFlushMillis,
+                config.historySyncMillis);
+      }
+    } catch (IOException e) {
+      e.printStackTrace();
+      history = null;
+      return false;
+    }
+    registry = new SessionRegistry();
+    presence = new PresenceTracker(registry, config.presenceFlushMillis, this::displayPresence);
+    shards = new ShardDispatcher(config.shards, registry.rooms());
+    shards.start();
+    timer = new TimerWheel("irc-timer", config.timerTickMillis, TIMER_BUCKETS);
+    try {
+      if (config.transport == ServerConfig.Transport.NIO) {
+        nioTransport = new NioTransport(port, config, new ServerSessionHandler());
+      } else {
+        pool = config.executor.newExecutor(config.threadLimit); // Fresh thread pool
+        openServerSockets(port);
+      }
     } catch (Exception e) {
       e.printStackTrace();
+      closeServerSockets();
+      if (pool != null) pool.shutdown();
+      pool = null;
+      shards.close();
+      timer.close();
+      timer = null;
+      if (history != null) history.close();
+      history = null;
       return false;
     }
-    pool = Executors.newFixedThreadPool(threadLimit); // Fresh thread pool
-    System.out.println("Success! Server now hosted on port " + port + ".");
+    Log.info("Success! Server now hosted on port " + port + ".");
     serverHosted = true;
-    resetChatGUI(); // Reset number of users and rooms to zero
-    setVisible(true); // Show chat window
-    loginMenu.setVisible(false); // Hide login window
+    startMetrics();
+    chatLog.clear();
+    displayToUser("System: Welcome to the Chat Server!");
+    if (view != null) view.serverStarted();
     return true;
   }
 
   /**
-   * Once the server is started, a connection listener is executed to listen to incoming connection
-   * requests from the client.
+   * Binds the sockets the blocking transport accepts connections on, with room for {@code
+   * irc.acceptBacklog} connections to wait in the kernel. Every acceptor shares a single socket,
+   * unless {@code irc.reusePort} gives each one its own, all bound to the same port with
+   * SO_REUSEPORT so the kernel spreads new connections across them.
+   *
+   * @param port port number to listen on
    */
-  private void runConnectionListener() {
-    connectionListener = new ConnectionListener();
-    pool.execute(connectionListener);
+  private void openServerSockets(int port) throws IOException {
+    int count = config.reusePort ? config.acceptors : 1;
+    for (int i = 0; i < count; ++i) {
+      ServerSocket serverSocket = new ServerSocket();
+      serverSockets.add(serverSocket);
+      if (count > 1) {
+        if (!serverSocket.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT)) {
+          Log.warn("SO_REUSEPORT is not supported, acceptors share one listening socket.");
+          serverSocket.bind(new InetSocketAddress(port), config.acceptBacklog);
+          return;
+        }
+        serverSocket.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+      }
+      serverSocket.bind(new InetSocketAddress(port), config.acceptBacklog);
+    }
+  }
+
+  /** Closes the blocking transport's listening sockets, which also stops its acceptors. */
+  private void closeServerSockets() {
+    for (ServerSocket serverSocket : serverSockets) {
+      try {
+        serverSocket.close();
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    }
+    serverSockets = new ArrayList<>();
   }
 
   /**
-   * Sets shutdown to true, thus exiting the infinite incoming connection loop and stopping the
-   * server.
+   * Once the server is started, {@code irc.acceptors} threads start accepting incoming connection
+   * requests from clients. On the NIO transport the event loops take care of this instead.
    */
-  private void stopServer() {
-    System.out.println("Stopping server...");
+  void runConnectionListener() {
+    if (nioTransport != null) {
+      nioTransport.start();
+      return;
+    }
+    List<ServerSocket> serverSockets = this.serverSockets;
+    for (int i = 0; i < config.acceptors; ++i) {
+      Acceptor acceptor = new Acceptor(serverSockets.get(i % serverSockets.size()));
+      new Thread(acceptor, "irc-accept-" + i).start();
+    }
+  }
+
+  /**
+   * Sets shutdown to true and closes the listening sockets, which stops the acceptors, then cleans
+   * up after the server.
+   */
+  void stopServer() {
+    Log.info("Stopping server...");
     Packet packet = new Packet();
     packet.shutdown();
     sendPacketAll(packet);
     shutdown = true;
+    if (nioTransport != null)
+      nioTransport.close(); // Flushes the shutdown packet before closing every connection
+    serverShutdownCleanup();
   }
 
   /**
-   * Once the server is shut down, all fields are GUI properties are reset to their original state,
-   * or null values.
+   * Once the server is shut down, all fields are reset to their original state, or null values, and
+   * the view is told the server has stopped.
    */
   private void serverShutdownCleanup() {
     try {
-      threadMap = null;
-      roomMap = null;
-      pool.shutdown();
+      Metrics.SERVER.stop();
+      closeServerSockets(); // no more connections are accepted
+      if (timer != null) timer.close();
+      timer = null;
+      if (registry != null) for (Session session : registry.sessions()) session.endResume();
+      registry = null;
+      if (presence != null) presence.close();
+      presence = null;
+      if (shards != null) shards.close();
+      shards = null;
+      if (history != null) history.close(); // writes out whatever the shards relayed last
+      history = null;
+      if (pool != null) pool.shutdown();
       pool = null;
-      connectionListener = null;
-      serverSocket.close();
-      serverSocket = null;
+      nioTransport = null;
     } catch (Exception e) {
       e.printStackTrace();
     }
     serverHosted = false;
-    loginMenu.resetLoginGUI();
-    setVisible(false);
-    loginMenu.setVisible(true);
+    if (view != null) view.serverStopped();
+  }
+
+  /** Points the metrics at this server's sessions and rooms, which they show until shutdown. */
+  private void startMetrics() {
+    SessionRegistry registry = this.registry;
+    Metrics.SERVER.start(
+        registry::sessionCount,
+        registry::roomCount,
+        () -> {
+          long queued = 0;
+          for (Session session : registry.sessions()) queued += session.queueDepth();
+          return queued;
+        },
+        config.metricsDumpSeconds);
+  }
+
+  /** Returns whether the server is hosted, which stays true until shutdown has finished. */
+  boolean isHosted() {
+    return serverHosted;
+  }
+
+  /** Returns the lines shown in the server's chat display. */
+  ChatLog chatLog() {
+    return chatLog;
+  }
+
+  /**
+   * Hands a packet from a specified client to the shard that owns what the packet is about. Room
+   * commands go to the shard owning the room, private messages to the shard of the recipient, and
+   * everything else to the shard of the sender, so commands about the same room or user are handled
+   * in the order they arrived. Every packet first goes through the sender's shard, which hands it
+   * on from there, so a user's commands are also handled in the order the user sent them: a room
+   * joined straight after joining the server is only joined once the user has joined. Commands only
+   * the server sends are counted against the sender's limit like any other, and then dropped.
+   *
+   * @param packet packet containing data from the client
+   * @param sender session of the client that sent the packet
+   */
+  private void packetHandler(Packet packet, Session sender) {
+    Metrics.SERVER.packetReceived(packet);
+    sender.lastReadNanos = packet.receivedNanos;
+    if (!admit(sender, packet)) {
+      if (packet.body != null) packet.body.release();
+      return;
+    }
+    if (packet.command.equals("pong")) {
+      pongReceived(sender, packet);
+      return;
+    }
+    int senderid = sender.id;
+    int key;
+    switch (packet.command) {
+      case "createRoom":
+        packet.targetid = registry.nextRoomId(); // picks the shard that will own the new room
+        key = packet.targetid;
+        break;
+      case "sendMessageRoom":
+      case "joinRoom":
+      case "leaveRoom":
+      case "sendMessageUser":
+        key = packet.targetid;
+        break;
+      case "resumeSession":
+        // handled where the dropped session would expire, so the two can never overlap
+        Session previous = registry.sessionForToken(packet.message);
+        key = previous == null ? senderid : previous.id;
+        break;
+      case "joinServer":
+      case "leaveServer":
+      case "sendMessageAll":
+      case "presenceResync":
+        key = senderid;
+        break;
+      default:
+        Log.warn("User id # " + senderid + " sent " + packet.command + ", ignoring it.");
+        return;
+    }
+    ShardDispatcher shards = this.shards;
+    shards.execute(
+        senderid,
+        shard -> shards.forward(shard, key, owner -> handlePacket(owner, packet, senderid)));
   }
 
   /**
-   * Takes a packet from a specified client and determines what action to take given the packet's
-   * command value.
+   * Counts a packet against its sender's limit before any work is done for it. A packet sent too
+   * fast is held back, dropped or gets its sender disconnected, depending on the flood control
+   * policy. Holding back only happens on the blocking transport, where the sender's own reader
+   * waits and TCP slows the client down; an event loop serves many users and never waits, so there
+   * the packet is dropped instead.
    *
+   * @param sender session of the client that sent the packet
+   * @param packet packet containing data from the client
+   * @return false if the packet is not to be handled
+   */
+  private boolean admit(Session sender, Packet packet) {
+    FloodControl.Buckets buckets = sender.buckets;
+    if (buckets == null) return true;
+    long wait = FloodControl.tryTake(buckets, packet.command, System.nanoTime());
+    if (wait == 0) return true;
+    FloodControl.Policy policy = floodControl.policy();
+    if (policy == FloodControl.Policy.DELAY && nioTransport == null) {
+      do {
+        LockSupport.parkNanos(wait);
+      } while ((wait = FloodControl.tryTake(buckets, packet.command, System.nanoTime())) > 0);
+      return true;
+    }
+    Metrics.SERVER.packetLimited(packet);
+    if (policy == FloodControl.Policy.DISCONNECT) {
+      Log.warn("User id # " + sender.id + " is sending too fast, disconnecting.");
+      sender.endResume(); // they would only flood again once resumed
+      sender.abort();
+    } else if (buckets.warnings.tryTake(System.nanoTime()) == 0) {
+      Packet warning = new Packet();
+      warning.displayToUser(
+          "System: You are sending too fast, some of your commands were dropped.");
+      sender.sendPacket(warning);
+    }
+    return false;
+  }
+
+  /**
+   * Determines what action to take given the packet's command value. Runs on the shard the packet
+   * was routed to. Once handled, the packet's reference to a chat message frame is released; any
+   * session the message was relayed to holds a reference of its own.
+   *
+   * @param shard the shard handling the packet
    * @param packet packet containing data from the client
    * @param senderid id number corresponding to the client that sent the packet
    */
-  private void packetHandler(Packet packet, int senderid) {
+  private void handlePacket(RoomShard shard, Packet packet, int senderid) {
+    if (packet.body != null) packet.body.handledNanos = System.nanoTime(); // for frameWritten
+    try {
+      handleCommand(shard, packet, senderid);
+    } finally {
+      if (packet.body != null) packet.body.release();
+      Metrics.SERVER.packetHandled(packet);
+    }
+  }
+
+  private void handleCommand(RoomShard shard, Packet packet, int senderid) {
     String command = packet.command;
     switch (command) {
       case "joinServer":
@@ -158,75 +361,273 @@ public class Server extends JFrame implements ActionListener {
         break;
       case "leaveServer":
         disconnectClient(senderid);
+        break;
       case "sendMessageAll":
-        sendMessageAll(senderid, packet.message);
+        sendMessageAll(senderid, packet.body);
         break;
       case "sendMessageUser":
-        sendMessageUser(senderid, packet.targetid, packet.message);
+        sendMessageUser(senderid, packet.targetid, packet.body);
         break;
       case "sendMessageRoom":
-        sendMessageRoom(senderid, packet.targetid, packet.message);
+        sendMessageRoom(shard, senderid, packet.targetid, packet.body);
         break;
       case "createRoom":
-        createRoom(senderid, packet.message);
+        createRoom(shard, senderid, packet.targetid, packet.message);
         break;
       case "joinRoom":
-        joinRoom(senderid, packet.targetid);
+        joinRoom(shard, senderid, packet.targetid);
         break;
       case "leaveRoom":
-        leaveRoom(senderid, packet.targetid);
+        leaveRoom(shard, senderid, packet.targetid);
+        break;
+      case "presenceResync":
+        Session session = registry.session(senderid);
+        if (session != null) presence.sendSnapshot(session);
+        break;
+      case "resumeSession":
+        resumeSession(senderid, packet.message, packet.targetid, 0);
         break;
       default:
-        // TODO - error handling
+        // anything else has been dropped by packetHandler
     }
   }
 
   /**
-   * When a client connects to the server, or disconnects from the server, the user list is updated
-   * to reflect this change.
+   * When a client connects to the server or disconnects from it, or a room is created, joined or
+   * left, only what changed is sent to every connected user. Changes are collected for a short
+   * while and sent together, see {@link PresenceTracker}.
+   *
+   * @param events one or more events in the format of {@link PresenceModel}, separated by newlines
+   */
+  private void presenceUpdate(String events) {
+    presence.publish(events);
+  }
+
+  /** Once presence changes have been sent, the server's own user and room lists are updated. */
+  private void displayPresence() {
+    PresenceTracker presence = this.presence;
+    ServerView view = this.view;
+    if (presence == null || view == null) return;
+    view.presenceChanged(presence.userListing(), presence.roomListing());
+  }
+
+  /**
+   * Sends the packet containing data from the client to every connected user. The packet is encoded
+   * once and the same frame is handed to every user.
+   *
+   * @param packet packet containing data from the client
    */
-  private void userUpdate() {
-    StringBuilder sb = new StringBuilder();
-    sb.append(threadMap.size()).append(" USERS\n");
-    for (Map.Entry<Integer, ServerThread> entry : threadMap.entrySet())
-      sb.append("\n# ").append(entry.getKey()).append(" ").append(entry.getValue().username);
-    userDisplay.setText(sb.toString());
-    Packet packet = new Packet();
-    packet.userUpdate(sb.toString());
-    sendPacketAll(packet);
+  private void sendPacketAll(Packet packet) {
+    sendFrameAll(PacketEncoder.encode(packet));
+  }
+
+  private void sendFrameAll(Frame frame) {
+    int recipients = 0;
+    for (Session session : registry.sessions()) {
+      session.sendFrame(frame);
+      ++recipients;
+    }
+    Metrics.SERVER.fanOut(recipients);
+  }
+
+  /**
+   * Once a transport has accepted a new connection, the next user id is assigned to it and the
+   * session is stored so that packets can be sent to it.
+   *
+   * @param session the newly connected session
+   */
+  private void sessionOpened(Session session) {
+    session.buckets = floodControl.newBuckets();
+    registry.register(session);
+    scheduleIdleCheck(session, Math.min(heartbeatNanos(), idleTimeoutNanos()));
+    Log.info("New user connected - id # " + session.id);
+    displayToUser("System: User # " + session.id + " connected to server.");
+  }
+
+  /**
+   * Once a connection has been closed, the user is removed from the server unless they already left
+   * through a leaveServer packet. If the connection dropped instead, the user stays until the
+   * resume grace period is over, so that their client can reconnect without anyone seeing them
+   * leave.
+   *
+   * @param session the session that was closed
+   */
+  private void sessionClosed(Session session) {
+    SessionRegistry registry = this.registry;
+    ShardDispatcher shards = this.shards;
+    TimerWheel timer = this.timer;
+    TimerWheel.Timeout idleCheck = session.idleCheck;
+    if (idleCheck != null) idleCheck.cancel();
+    if (registry == null || shards == null || registry.session(session.id) != session) return;
+    if (!shutdown && timer != null && session.isDetached()) {
+      displayToUser(
+          "System: User # "
+              + session.id
+              + " ("
+              + session.username
+              + ") lost connection, holding their session.");
+      timer.schedule(
+          () -> shards.execute(session.id, shard -> expireSession(session)),
+          config.resumeGraceMillis,
+          TimeUnit.MILLISECONDS);
+      return;
+    }
+    shards.execute(session.id, shard -> disconnectClient(session.id));
+  }
+
+  /**
+   * Removes a user whose connection dropped, once the grace period is over, unless their session
+   * has been resumed in the meantime.
+   *
+   * @param session the session whose connection dropped
+   */
+  private void expireSession(Session session) {
+    SessionRegistry registry = this.registry;
+    if (registry != null && registry.session(session.id) == session) disconnectClient(session.id);
   }
 
   /**
-   * When a room is created, or is removed (this occurs when all users have disconnected from a
-   * particular room), the room list is updated to reflect this change.
+   * Hands a new connection the session of a user whose connection dropped. The new session takes
+   * over the user's id, name and rooms, is sent every packet the client has not read, and the other
+   * users never see the user leave. If the old connection has not been found to have dropped yet,
+   * it is closed and the resume tried again shortly. Runs on the shard of the old session's user
+   * id, like its expiry.
+   *
+   * @param senderid the id the new connection was given when it was accepted
+   * @param token resume token presented by the client
+   * @param lastSeq number of packets the client had read when its connection dropped
+   * @param attempt resumes tried so far while waiting on the old connection
    */
-  private void roomUpdate() {
-    StringBuilder sb = new StringBuilder();
-    sb.append(" ROOMS\n");
-    for (Map.Entry<Integer, ServerRoom> entry : roomMap.entrySet()) {
-      if (entry.getValue().members.isEmpty()) {
-        roomMap.remove(entry.getKey());
-        continue;
+  private void resumeSession(int senderid, String token, int lastSeq, int attempt) {
+    SessionRegistry registry = this.registry;
+    if (registry == null) return;
+    Session session = registry.session(senderid);
+    if (session == null || session.username != null) return; // gone, or joined in the meantime
+    session.continueFrom(lastSeq); // the client counts on from there, resumed or not
+    Session previous = registry.sessionForToken(token);
+    if (previous != null && previous != session && registry.session(previous.id) == previous) {
+      Packet packet = new Packet();
+      packet.resumeSession(
+          "System: Welcome back, " + previous.username + "! Your user id # is " + previous.id + ".",
+          previous.id);
+      if (previous.resumeTo(lastSeq, session, packet) && registry.resume(previous, session)) {
+        issueResumeToken(session);
+        displayToUser("System: User # " + session.id + " (" + session.username + ") reconnected.");
+        return;
       }
-      sb.append("\n# ").append(entry.getKey()).append(" ").append(entry.getValue().roomName);
-      for (Integer i : entry.getValue().members)
-        sb.append("\n   # ").append(i).append(" ").append(threadMap.get(i).username);
+      TimerWheel timer = this.timer;
+      if (attempt < RESUME_ATTEMPTS && timer != null && previous.awaitingDetach()) {
+        previous.abort(); // the client has moved on, so the old connection is as good as dead
+        ShardDispatcher shards = this.shards;
+        timer.schedule(
+            () ->
+                shards.execute(
+                    previous.id, shard -> resumeSession(senderid, token, lastSeq, attempt + 1)),
+            RESUME_RETRY_MILLIS,
+            TimeUnit.MILLISECONDS);
+        return;
+      }
+      // the client joins again, so the old session need not wait for its expiry
+      if (registry.session(previous.id) == previous) disconnectClient(previous.id);
     }
-    roomDisplay.setText(sb.toString());
     Packet packet = new Packet();
-    packet.roomUpdate(roomMap.size() + sb.toString());
-    sendPacketAll(packet);
+    packet.resumeSession("System: Your session has expired, joining again...", -1);
+    session.sendPacket(packet);
   }
 
   /**
-   * Sends the packet containing data from the client to every connected user. The threadMap
-   * contains every user id, which corresponds to the server thread count.
+   * Checks on a session once its connection may have gone quiet for too long, and schedules the
+   * next check. A session not heard from in a heartbeat interval is pinged, which any live client
+   * answers, and one not heard from in the idle timeout is dropped like any other lost connection,
+   * so it can still be resumed. Half open connections, where the client has gone without the
+   * connection ever being closed, are found this way rather than staying around forever. Every
+   * session holds a single timeout on the timer wheel at any time. Runs on the timer's thread, so
+   * the ping is handed to the shard of the session's user id to send: with the block policy,
+   * sending to a backed up client waits, and the wheel must never wait on any one client.
    *
-   * @param packet packet containing data from the client
+   * @param session the session to check
    */
-  private void sendPacketAll(Packet packet) {
-    for (Map.Entry<Integer, ServerThread> entry : threadMap.entrySet())
-      entry.getValue().sendPacket(packet);
+  private void checkIdle(Session session) {
+    SessionRegistry registry = this.registry;
+    if (registry == null || registry.session(session.id) != session || session.isDetached())
+      return; // gone, resumed elsewhere, or already dropped
+    long quiet = System.nanoTime() - session.lastReadNanos;
+    long timeout = idleTimeoutNanos();
+    if (quiet >= timeout) {
+      Log.warn(
+          "User id # "
+              + session.id
+              + " has not been heard from in "
+              + TimeUnit.NANOSECONDS.toMillis(quiet)
+              + " ms, dropping the connection.");
+      session.abort();
+      return;
+    }
+    long heartbeat = heartbeatNanos();
+    if (quiet >= heartbeat) {
+      Packet ping = new Packet();
+      ping.ping(Long.toString(System.nanoTime()));
+      ShardDispatcher shards = this.shards;
+      if (shards != null) shards.execute(session.id, shard -> session.sendPacket(ping));
+      scheduleIdleCheck(session, Math.min(heartbeat, timeout - quiet));
+    } else {
+      scheduleIdleCheck(session, Math.min(heartbeat, timeout) - quiet);
+    }
+  }
+
+  private void scheduleIdleCheck(Session session, long delayNanos) {
+    TimerWheel timer = this.timer;
+    if (timer == null || delayNanos == Long.MAX_VALUE) return; // no heartbeat nor timeout
+    session.idleCheck = timer.schedule(() -> checkIdle(session), delayNanos, TimeUnit.NANOSECONDS);
+  }
+
+  /** Returns how long a connection may be quiet before it is pinged, or forever. */
+  private long heartbeatNanos() {
+    return config.heartbeatMillis == 0
+        ? Long.MAX_VALUE
+        : TimeUnit.MILLISECONDS.toNanos(config.heartbeatMillis);
+  }
+
+  /** Returns how long a connection may be quiet before it is dropped, or forever. */
+  private long idleTimeoutNanos() {
+    return config.idleTimeoutMillis == 0
+        ? Long.MAX_VALUE
+        : TimeUnit.MILLISECONDS.toNanos(config.idleTimeoutMillis);
+  }
+
+  /**
+   * Records how long a ping took to be answered. The pong carries the time the ping was sent, so
+   * nothing needs to be kept per ping. Runs on the thread that read the pong.
+   *
+   * @param session the session that answered
+   * @param packet the pong
+   */
+  private void pongReceived(Session session, Packet packet) {
+    try {
+      long roundTrip = packet.receivedNanos - Long.parseLong(packet.message);
+      if (roundTrip < 0 || roundTrip > idleTimeoutNanos()) return; // not one of our pings
+      session.roundTripNanos = roundTrip;
+      Metrics.SERVER.roundTrip(roundTrip);
+    } catch (NumberFormatException | NullPointerException e) {
+      // not one of our pings
+    }
+  }
+
+  /**
+   * Gives a user a new resume token and sends it to them, unless sessions can not be resumed.
+   *
+   * @param session the session of a user who has joined or resumed
+   */
+  private void issueResumeToken(Session session) {
+    if (config.resumeGraceMillis == 0) return;
+    byte[] bytes = new byte[16];
+    random.nextBytes(bytes);
+    StringBuilder token = new StringBuilder();
+    for (byte b : bytes) token.append(String.format("%02x", b));
+    registry.setToken(session, token.toString());
+    Packet packet = new Packet();
+    packet.sessionToken(token.toString());
+    session.sendPacket(packet);
   }
 
   /**
@@ -240,34 +641,44 @@ public class Server extends JFrame implements ActionListener {
    */
   private void joinServer(int senderid, String username) {
     displayToUser("System: User # " + senderid + " has joined the chat as " + username + ".");
-    ServerThread serverThread = threadMap.get(senderid);
-    serverThread.username = username;
+    Session session = registry.session(senderid);
+    session.username = username;
     Packet packet = new Packet();
     packet.joinServer(
         "System: Welcome to the server, " + username + "! Your user id # is " + senderid + ".");
-    serverThread.sendPacket(packet);
-    userUpdate();
-    roomUpdate();
+    packet.targetid = senderid; // so clients need not read it from the message
+    session.sendPacket(packet);
+    issueResumeToken(session);
+    presenceUpdate(PresenceModel.userJoined(senderid, username));
+    presence.sendSnapshot(session);
+    sendHistory(session, MessageHistory.LOBBY);
   }
 
   /**
    * Once a client disconnects from the server, the user id and username is removed, status messages
    * are displayed to the user, and the user list and room list is updated to account for the
-   * change.
+   * change. The user is taken out of their rooms by the shards that own them.
    *
    * @param senderid the unique identification number corresponding to the client that performed the
    *     action
    */
   private void disconnectClient(int senderid) {
-    ServerThread serverThread = threadMap.get(senderid);
-    threadMap.remove(senderid);
-    displayToUser(
-        "System: User # " + senderid + " (" + serverThread.username + ") has left the chat.");
-    serverThread.shutdownThread = true;
-    for (Map.Entry<Integer, ServerRoom> entry : roomMap.entrySet())
-      entry.getValue().removeUser(senderid);
-    userUpdate();
-    roomUpdate();
+    Session session = registry.unregister(senderid);
+    if (session == null) return; // already disconnected by another thread
+    displayToUser("System: User # " + senderid + " (" + session.username + ") has left the chat.");
+    session.endResume();
+    session.close();
+    presenceUpdate(PresenceModel.userLeft(senderid));
+    session
+        .rooms()
+        .forEach(
+            roomid ->
+                shards.execute(
+                    roomid,
+                    shard -> {
+                      ServerRoom serverRoom = shard.room(roomid);
+                      if (serverRoom != null) removeFromRoom(shard, serverRoom, session);
+                    }));
   }
 
   /**
@@ -276,14 +687,21 @@ public class Server extends JFrame implements ActionListener {
    *
    * @param senderid the unique identification number corresponding to the client that performed the
    *     action
-   * @param message the text the client entered to send to all connected users
+   * @param message the text the client entered to send to all connected users, still encoded
    */
-  private void sendMessageAll(int senderid, String message) {
-    Packet packet = new Packet();
-    String output = threadMap.get(senderid).username + " (# " + senderid + "): " + message;
-    displayToUser(output);
-    packet.displayToUser(output);
-    sendPacketAll(packet);
+  private void sendMessageAll(int senderid, Frame message) {
+    Session sender = registry.session(senderid);
+    if (sender == null) return;
+    Frame frame = PacketEncoder.encodeRelay(sender.chatPrefix(), message);
+    chatLog.add(frame);
+    int recipients = 0;
+    for (Session session : registry.sessions()) {
+      if (session.username == null) continue; // not joined, or yet to resume and be sent it there
+      session.sendFrame(frame);
+      ++recipients;
+    }
+    Metrics.SERVER.fanOut(recipients);
+    if (history != null) history.append(MessageHistory.LOBBY, frame);
   }
 
   /**
@@ -293,20 +711,20 @@ public class Server extends JFrame implements ActionListener {
    *     action
    * @param targetid the unique identification number corresponding to the target client (recipient
    *     of the client's intended action)
-   * @param message the text the client entered to send to a specific user
+   * @param message the text the client entered to send to a specific user, still encoded
    */
-  private void sendMessageUser(int senderid, int targetid, String message) {
-    ServerThread serverThread = threadMap.get(targetid);
-    if (serverThread == null) {
+  private void sendMessageUser(int senderid, int targetid, Frame message) {
+    Session session = registry.session(targetid);
+    if (session == null) {
       sendError(senderid, "System: User id # " + targetid + " not found.");
       return;
     }
-    String output = threadMap.get(senderid).username + " (# " + senderid + "): " + message;
-    displayToUser(output);
-    Packet packet = new Packet();
-    packet.displayToUser(output);
-    serverThread.sendPacket(packet);
-    threadMap.get(senderid).sendPacket(packet);
+    Session sender = registry.session(senderid);
+    if (sender == null) return;
+    Frame frame = PacketEncoder.encodeRelay(sender.chatPrefix(), message);
+    chatLog.add(frame);
+    session.sendFrame(frame);
+    sender.sendFrame(frame);
   }
 
   /**
@@ -316,15 +734,16 @@ public class Server extends JFrame implements ActionListener {
    * @param senderid the unique identification number corresponding to the client that performed the
    *     action
    * @param targetid the unique identification number corresponding to a particular room
-   * @param message the text the client entered to send to users connected to a particular room
+   * @param message the text the client entered to send to users connected to a particular room,
+   *     still encoded
    */
-  private void sendMessageRoom(int senderid, int targetid, String message) {
-    ServerRoom serverRoom = roomMap.get(targetid);
+  private void sendMessageRoom(RoomShard shard, int senderid, int targetid, Frame message) {
+    ServerRoom serverRoom = shard.room(targetid);
     if (serverRoom == null) {
       sendError(senderid, "System: Room id # " + targetid + " not found.");
       return;
     }
-    if (!serverRoom.members.contains(senderid)) {
+    if (!serverRoom.contains(senderid)) {
       StringBuilder sb = new StringBuilder();
       sb.append("System: You are not a member of room '").append(serverRoom.roomName);
       sb.append("' (id # ").append(targetid).append("). ");
@@ -332,34 +751,55 @@ public class Server extends JFrame implements ActionListener {
       sendError(senderid, sb.toString());
       return;
     }
-    String output = threadMap.get(senderid).username + " (# " + senderid + "): : " + message;
-    displayToUser(output);
-    Packet packet = new Packet();
-    packet.displayToUser(output);
-    for (Integer i : serverRoom.members) threadMap.get(i).sendPacket(packet);
+    Session sender = registry.session(senderid);
+    if (sender == null) return;
+    Frame frame = PacketEncoder.encodeRelay(sender.roomPrefix(), message);
+    chatLog.add(frame);
+    Metrics.SERVER.fanOut(serverRoom.members().size());
+    serverRoom
+        .members()
+        .forEach(
+            i -> {
+              Session member = registry.session(i);
+              if (member != null) member.sendFrame(frame); // null if they are disconnecting now
+            });
+    if (history != null) history.append(targetid, frame);
   }
 
   /**
    * Creates a new virtual room, with the room name specified by the client. Once the room is
    * created, the client automatically joins the room. The room list is updated accordingly.
    *
+   * @param shard the shard that owns the new room
    * @param senderid the unique identification number corresponding to the client that performed the
    *     action
+   * @param roomid the id number handed out for the room when the packet was routed
    * @param roomName the room name the client entered
    */
-  private void createRoom(int senderid, String roomName) {
-    ServerRoom serverRoom = new ServerRoom(senderid, roomName);
-    ++roomCount;
-    roomMap.put(roomCount, serverRoom);
-    roomUpdate();
+  private void createRoom(RoomShard shard, int senderid, int roomid, String roomName) {
+    Session session = registry.session(senderid);
+    if (session == null) {
+      shard.discardRoom(roomid);
+      return;
+    }
+    ServerRoom serverRoom = shard.createRoom(roomid, roomName, session);
+    if (registry.session(senderid) != session) {
+      // disconnected in the meantime, too late for the disconnect to see this room
+      removeFromRoom(shard, serverRoom, session);
+      return;
+    }
+    presenceUpdate(
+        PresenceModel.roomCreated(serverRoom.id, roomName)
+            + "\n"
+            + PresenceModel.memberAdded(serverRoom.id, senderid));
     Packet packet = new Packet();
     packet.displayToUser(
         "System: Room '"
             + roomName
             + "' has been created under id # "
-            + roomCount
+            + serverRoom.id
             + " with you in it.");
-    threadMap.get(senderid).sendPacket(packet);
+    session.sendPacket(packet);
   }
 
   /**
@@ -367,17 +807,20 @@ public class Server extends JFrame implements ActionListener {
    * receive messages to/from users connected to that room. The room list is updated to reflect the
    * new user who joined.
    *
+   * @param shard the shard that owns the room
    * @param senderid the unique identification number corresponding to the client that performed the
    *     action
    * @param targetid the unique identification number corresponding to a particular room
    */
-  private void joinRoom(int senderid, int targetid) {
-    ServerRoom serverRoom = roomMap.get(targetid);
+  private void joinRoom(RoomShard shard, int senderid, int targetid) {
+    Session session = registry.session(senderid);
+    if (session == null) return;
+    ServerRoom serverRoom = shard.room(targetid);
     if (serverRoom == null) {
       sendError(senderid, "System: Room id # " + targetid + " not found.");
       return;
     }
-    if (serverRoom.members.contains(senderid)) {
+    if (!shard.joinRoom(serverRoom, session)) {
       sendError(
           senderid,
           "System: You are already a member of room '"
@@ -387,12 +830,35 @@ public class Server extends JFrame implements ActionListener {
               + ").");
       return;
     }
-    serverRoom.members.add(senderid);
-    roomUpdate();
+    if (registry.session(senderid) != session) {
+      // disconnected in the meantime, too late for the disconnect to see this room
+      removeFromRoom(shard, serverRoom, session);
+      return;
+    }
+    presenceUpdate(PresenceModel.memberAdded(targetid, senderid));
     Packet packet = new Packet();
     packet.displayToUser(
-        "System: You have joined room '" + serverRoom.roomName + "' with id # " + roomCount + ".");
-    threadMap.get(senderid).sendPacket(packet);
+        "System: You have joined room '" + serverRoom.roomName + "' with id # " + targetid + ".");
+    session.sendPacket(packet);
+    sendHistory(session, targetid);
+  }
+
+  /**
+   * Sends a user the most recent messages of a room, or of the lobby, oldest first. For a room this
+   * runs on the shard owning it, right after the user has joined, so the user sees every message
+   * relayed to the room exactly once: either from its history or as it is relayed. Messages to
+   * everyone are relayed by every shard, so the lobby's may overlap with the first ones relayed.
+   *
+   * @param session the user who just joined
+   * @param roomid id of the room, or {@link MessageHistory#LOBBY} for messages sent to everyone
+   */
+  private void sendHistory(Session session, int roomid) {
+    MessageHistory history = this.history;
+    if (history == null || config.historyReplay == 0) return;
+    for (Frame frame : history.recent(roomid, config.historyReplay)) {
+      session.sendFrame(frame);
+      frame.release();
+    }
   }
 
   /**
@@ -400,17 +866,20 @@ public class Server extends JFrame implements ActionListener {
    * and receiving messages to/from users connected to that room. The room list is updated to remove
    * the user who left. Once all users have disconnected from a room, the room is destroyed.
    *
+   * @param shard the shard that owns the room
    * @param senderid the unique identification number corresponding to the client that performed the
    *     action
    * @param targetid the unique identification number corresponding to a particular room
    */
-  private void leaveRoom(int senderid, int targetid) {
-    ServerRoom serverRoom = roomMap.get(targetid);
+  private void leaveRoom(RoomShard shard, int senderid, int targetid) {
+    Session session = registry.session(senderid);
+    if (session == null) return;
+    ServerRoom serverRoom = shard.room(targetid);
     if (serverRoom == null) {
       sendError(senderid, "System: Room id # " + targetid + " not found.");
       return;
     }
-    if (!serverRoom.members.contains(senderid)) {
+    if (!removeFromRoom(shard, serverRoom, session)) {
       sendError(
           senderid,
           "System: You are not a member of room '"
@@ -420,13 +889,29 @@ public class Server extends JFrame implements ActionListener {
               + ").");
       return;
     }
-    String roomName = serverRoom.roomName;
-    serverRoom.removeUser(senderid);
-    roomUpdate();
     Packet packet = new Packet();
     packet.displayToUser(
-        "System: You have left room '" + roomName + "' with id # " + targetid + ".");
-    threadMap.get(senderid).sendPacket(packet);
+        "System: You have left room '" + serverRoom.roomName + "' with id # " + targetid + ".");
+    session.sendPacket(packet);
+  }
+
+  /**
+   * Takes a user out of a room, removing the room once it is empty, and updates the room list.
+   *
+   * @param shard the shard that owns the room
+   * @param serverRoom the room to leave
+   * @param session the leaving user
+   * @return false if the user was not a member of the room
+   */
+  private boolean removeFromRoom(RoomShard shard, ServerRoom serverRoom, Session session) {
+    if (!shard.leaveRoom(serverRoom, session)) return false;
+    String events = PresenceModel.memberRemoved(serverRoom.id, session.id);
+    if (serverRoom.isEmpty()) {
+      events += "\n" + PresenceModel.roomRemoved(serverRoom.id);
+      if (history != null) history.roomRemoved(serverRoom.id);
+    }
+    presenceUpdate(events);
+    return true;
   }
 
   /**
@@ -436,110 +921,24 @@ public class Server extends JFrame implements ActionListener {
    * @param message the text to display to the client
    */
   private void sendError(int targetid, String message) {
-    ServerThread serverThread = threadMap.get(targetid);
-    if (serverThread == null) {
-      System.out.println(
-          "Attempted to send error packet to id # "
-              + targetid
-              + ", but was not found in threadMap.");
+    Session session = registry.session(targetid);
+    if (session == null) {
+      Log.warn("Attempted to send error packet to id # " + targetid + ", but was not found.");
       return;
     }
     Packet packet = new Packet();
     packet.displayToUser(message);
-    serverThread.sendPacket(packet);
-  }
-
-  /** Initializes the GUI for the server. */
-  private void serverGUISetup() {
-    setSize(900, 500);
-    setResizable(false);
-    // call stopServer function on close
-    setDefaultCloseOperation(DO_NOTHING_ON_CLOSE);
-    addWindowListener(
-        new WindowAdapter() {
-          @Override
-          public void windowClosing(WindowEvent event) {
-            super.windowClosing(event);
-            stopServer();
-          }
-        });
-
-    // panel holding all individual displays in grid bag layout
-    JPanel panel = new JPanel();
-    panel.setLayout(new GridBagLayout());
-    add(panel);
-
-    GridBagConstraints gbc = new GridBagConstraints();
-    gbc.insets = new Insets(3, 3, 3, 3);
-    gbc.fill = GridBagConstraints.VERTICAL;
-
-    // initialize active user list display
-    userDisplay = new JTextArea(25, 15);
-    userDisplay.setLineWrap(false);
-    userDisplay.setEditable(false);
-    JScrollPane userDisplayScroll = new JScrollPane(userDisplay);
-    gbc.gridx = 0;
-    gbc.gridy = 0;
-    gbc.gridwidth = 1;
-    gbc.gridheight = 3;
-    panel.add(userDisplayScroll, gbc);
-
-    // initializes active room list display
-    roomDisplay = new JTextArea(25, 15);
-    roomDisplay.setLineWrap(false);
-    roomDisplay.setEditable(false);
-    JScrollPane roomDisplayScroll = new JScrollPane(roomDisplay);
-    gbc.gridx = 1;
-    gbc.gridy = 0;
-    gbc.gridwidth = 1;
-    gbc.gridheight = 3;
-    panel.add(roomDisplayScroll, gbc);
-
-    // initialize chat dialogue display
-    chatDisplay = new JTextArea(25, 40);
-    chatDisplay.setLineWrap(true);
-    chatDisplay.setEditable(false);
-    JScrollPane chatDisplayScroll = new JScrollPane(chatDisplay);
-    gbc.gridx = 2;
-    gbc.gridy = 0;
-    gbc.gridwidth = 2;
-    gbc.gridheight = 1;
-    panel.add(chatDisplayScroll, gbc);
-
-    // initialize text input field
-    textInput = new JTextField(33);
-    textInput.addActionListener(this);
-    gbc.gridx = 2;
-    gbc.gridy = 1;
-    gbc.gridwidth = 1;
-    gbc.gridheight = 1;
-    panel.add(textInput, gbc);
-
-    // initialize send button
-    JButton sendButton = new JButton("Send");
-    sendButton.addActionListener(this);
-    gbc.gridx = 3;
-    gbc.gridy = 1;
-    gbc.gridwidth = 1;
-    gbc.gridheight = 1;
-    panel.add(sendButton, gbc);
-  }
-
-  /**
-   * Displays message to user in GUI.
+    session.sendPacket(packet);
+  }
+
+  /**
+   * Displays message to user. The message is only added to the chat log, which the view or console
+   * shows on its own schedule, so relaying chat never waits on the display.
    *
    * @param message the text to display
    */
   private void displayToUser(String message) {
-    chatDisplay.append('\n' + message);
-    chatDisplay.setCaretPosition(chatDisplay.getDocument().getLength());
-  }
-
-  /** Resets all values that appear in the GUI. */
-  private void resetChatGUI() {
-    chatDisplay.setText("System: Welcome to the Chat Server!");
-    userDisplay.setText("0 USERS");
-    roomDisplay.setText("0 ROOMS");
+    chatLog.add(message);
   }
 
   /**
@@ -547,10 +946,12 @@ public class Server extends JFrame implements ActionListener {
    *
    * @param userInput textual input from the user
    */
-  private void parseInput(String userInput) {
+  void parseInput(String userInput) {
     Packet packet = new Packet();
     if (userInput.startsWith("@")) {
       // TODO - implement special cases
+      if (userInput.equals("@queues")) displayQueueDepths();
+      else displayToUser("System: Unrecognized request '" + userInput + "'. Try @queues.");
     } else {
       String message = hostname + ": " + userInput;
       packet.displayToUser(message);
@@ -559,261 +960,314 @@ public class Server extends JFrame implements ActionListener {
     }
   }
 
-  /** Returns if user input is blank; else, parses the user's textual input. */
-  public void actionPerformed(ActionEvent event) {
-    String userInput = textInput.getText();
-    if (userInput.equals("")) return;
-    textInput.setText("");
-    parseInput(userInput);
+  /**
+   * Displays how many packets are waiting to be written to each user, which shows at a glance which
+   * clients are not keeping up.
+   */
+  private void displayQueueDepths() {
+    StringBuilder sb = new StringBuilder("System: Outbound queue depth per user:");
+    for (Session session : registry.sessions()) {
+      sb.append("\n   # ").append(session.id).append(" ").append(session.username);
+      sb.append(": ").append(session.queueDepth()).append(" queued");
+    }
+    displayToUser(sb.toString());
   }
 
   /**
-   * Initializes thread pool and runs infinite loop to listen for incoming connection requests.
-   * Exits the loop upon call of stopServer, which sets shutdown to true, thus exiting the loop and
-   * cleaning up.
+   * Runs an infinite loop accepting incoming connection requests. The acceptor does nothing but
+   * accept: each new connection is handed straight to the thread pool chosen by the configured
+   * executor strategy, which sets it up and then reads from it, so a slow client never holds up the
+   * connections behind it. The accept call blocks until a connection arrives, and the loop exits
+   * once stopServer closes the listening socket.
+   *
+   * <p>Every connection takes two of the pool's threads for as long as it lasts, a reader and a
+   * writer. A pooled strategy only has irc.threadLimit of them, and a connection handed to it once
+   * they are all taken would wait for a thread without any word to the client, or have its reader
+   * run without a writer. Such a connection is refused instead.
    */
-  private class ConnectionListener implements Runnable {
+  private class Acceptor implements Runnable {
+    private final ServerSocket serverSocket;
+
+    /* Constructor */
+    Acceptor(ServerSocket serverSocket) {
+      this.serverSocket = serverSocket;
+    }
+
     /** Runs an infinite loop to listen for incoming connection requests from the client. */
     @Override
     public void run() {
-      ExecutorService pool = Executors.newFixedThreadPool(threadLimit);
+      ExecutorService pool = Server.this.pool;
       // loop for accepting client connection requests
       while (!shutdown) {
+        Socket clientSocket;
         try {
-          Socket clientSocket = serverSocket.accept();
-          ++threadCount;
-          System.out.println("New user connected - id # " + threadCount);
-          displayToUser("System: User # " + threadCount + " connected to server.");
-          ServerThread serverThread = new ServerThread(clientSocket, threadCount);
-          pool.execute(serverThread);
-          threadMap.put(threadCount, serverThread);
+          clientSocket = serverSocket.accept();
         } catch (Exception e) {
-          if (e instanceof SocketTimeoutException) continue;
+          if (shutdown || serverSocket.isClosed()) break;
           e.printStackTrace();
-          if (!(e instanceof SocketException)) {
-            System.exit(1);
-          }
+          if (!(e instanceof SocketException)) System.exit(1);
+          continue;
+        }
+        if (poolThreads.addAndGet(2) > config.threadLimit && config.executor.isPooled()) {
+          poolThreads.addAndGet(-2);
+          Log.warn(
+              "Refusing connection from "
+                  + clientSocket.getRemoteSocketAddress()
+                  + ", all "
+                  + config.threadLimit
+                  + " connection threads are taken.");
+          closeQuietly(clientSocket);
+          continue;
+        }
+        try {
+          pool.execute(() -> serveConnection(clientSocket));
+        } catch (RejectedExecutionException e) {
+          poolThreads.addAndGet(-2);
+          closeQuietly(clientSocket); // shutting down
         }
       }
-      // shutdown sequence once loop breaks
-      serverShutdownCleanup();
     }
   }
 
   /**
-   * Invoked by the ConnectionListener class, the Server Thread class runs an infinite loop to
+   * Sets up a connection handed over by an acceptor, starts its writer and then runs its listening
+   * loop on the calling pool thread.
+   *
+   * @param clientSocket the newly accepted connection
+   */
+  private void serveConnection(Socket clientSocket) {
+    ServerThread serverThread;
+    try {
+      if (shutdown) throw new SocketException("Server is shutting down.");
+      serverThread = new ServerThread(clientSocket);
+      sessionOpened(serverThread);
+      pool.execute(
+          () -> {
+            try {
+              serverThread.writePackets();
+            } finally {
+              poolThreads.decrementAndGet();
+            }
+          });
+    } catch (Exception e) {
+      if (!shutdown) e.printStackTrace();
+      closeQuietly(clientSocket);
+      poolThreads.addAndGet(-2);
+      return;
+    }
+    try {
+      serverThread.run();
+    } finally {
+      poolThreads.decrementAndGet();
+    }
+  }
+
+  private static void closeQuietly(Socket socket) {
+    try {
+      socket.close();
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Set up by serveConnection for every accepted connection, the Server Thread class runs a loop to
    * listen for incoming packets. Server threads store unique identification numbers corresponding
-   * to connected users and rooms.
+   * to connected users and rooms. Outgoing packets are written by a second task, writePackets,
+   * which drains the session's outbound queue so that a slow client only ever blocks its own
+   * writer.
    */
-  private class ServerThread implements Runnable {
+  private class ServerThread extends Session implements Runnable {
     Socket clientSocket;
-    int id;
-    String username;
-    ObjectOutputStream out;
-    ObjectInputStream in;
-    boolean shutdownThread;
+    OutputStream out;
+    DataInputStream in;
+    PacketDecoder decoder = new PacketDecoder(PacketDecoder.SERVER_MAX_FRAME_LENGTH);
+    volatile boolean shutdownThread;
 
     /* Constructor */
-    ServerThread(Socket clientSocket, int id) {
-      System.out.println("Initializing user id # " + id + "...");
+    ServerThread(Socket clientSocket) {
+      super(
+          new OutboundQueue(config.outboundCapacity, config.slowConsumerPolicy),
+          config.newResumeBuffer());
+      if (Log.INFO)
+        Log.info("Initializing connection from " + clientSocket.getRemoteSocketAddress());
       shutdownThread = false;
       this.clientSocket = clientSocket;
-      this.id = id;
       try {
-        out = new ObjectOutputStream(this.clientSocket.getOutputStream());
-        in = new ObjectInputStream(this.clientSocket.getInputStream());
+        out =
+            new BufferedOutputStream(
+                this.clientSocket.getOutputStream(), OutboundQueue.MAX_BATCH_BYTES);
+        in = new DataInputStream(new BufferedInputStream(this.clientSocket.getInputStream()));
       } catch (Exception e) {
-        System.out.println(e.getMessage());
         e.printStackTrace();
       }
-      System.out.println("Done.");
+      Log.info("Done.");
     }
 
     /** Runs an infinite loop to listen for incoming packets. */
     @Override
     public void run() {
+      boolean lost = false; // the connection dropped rather than being closed by the server
       // listening loop
       while (!shutdownThread) {
         try {
-          Packet packet = (Packet) in.readObject();
-          System.out.println(packet.command + " packet received from user id # " + id + ".");
-          packetHandler(packet, id);
+          Packet packet = decoder.read(in);
+          Metrics.SERVER.bytesRead(decoder.frameLength());
+          Log.packetReceived(packet.command, id);
+          packetHandler(packet, this);
         } catch (Exception e) {
-          if (e instanceof EOFException) shutdownThread = true;
-          else e.printStackTrace();
+          // once the server has closed the socket itself, the failed read is expected
+          if (!shutdownThread && !(e instanceof EOFException)) e.printStackTrace();
+          if (e instanceof IOException) {
+            lost = !shutdownThread;
+            shutdownThread = true;
+          }
         }
       }
       // thread shutdown sequence
-      System.out.println("Closing connection to user id # " + id + "...");
-      try {
-        out.close();
-        in.close();
-        clientSocket.close();
-      } catch (Exception e) {
-        e.printStackTrace();
-      }
-      System.out.println("Done.");
+      Log.info("Closing connection to user id # " + id + "...");
+      if (lost) connectionLost(); // frames sent from now on are held for a resume, if any
+      else outbound.close(); // writePackets closes the socket once the queue has been drained
+      sessionClosed(this);
+      Log.info("Done.");
     }
 
     /**
-     * Writes data contained in packet to an output stream.
-     *
-     * @param packet packet containing data from the client
+     * Runs an infinite loop writing queued packets to the output stream. Every packet that is
+     * waiting when the writer wakes up is written out with a single flush, so a burst of packets
+     * costs one system call instead of one per packet. Once the outbound queue has been closed and
+     * drained, or the client can no longer be written to, the socket is closed.
      */
-    private void sendPacket(Packet packet) {
+    void writePackets() {
+      Frame[] batch = new Frame[OutboundQueue.MAX_BATCH_FRAMES];
+      try {
+        int count;
+        while ((count = outbound.takeBatch(batch, OutboundQueue.MAX_BATCH_BYTES)) > 0) {
+          for (int i = 0; i < count; ++i) {
+            batch[i].writeTo(out); // copied out of the frame by the time this returns
+            frameWritten(batch[i]);
+            Metrics.SERVER.frameWritten(batch[i]);
+            Metrics.SERVER.bytesWritten(batch[i].length());
+            Log.packetSent(batch[i].command, id);
+            batch[i].release();
+            batch[i] = null;
+          }
+          out.flush();
+        }
+      } catch (Exception e) {
+        if (!(e instanceof SocketException)) e.printStackTrace();
+        connectionLost();
+      }
+      // writer shutdown sequence
+      writerStopped(batch); // frames left over by a failed write are held for a resume, if any
+      outbound.discard();
       try {
-        out.writeObject(packet);
-        out.flush();
+        clientSocket.close(); // also unblocks the listening loop if it is still reading
       } catch (Exception e) {
         e.printStackTrace();
       }
-      System.out.println(packet.command + " packet sent to user id # " + id + ".");
     }
-  }
 
-  /** Object holding user identification numbers for users that are members of a given room. */
-  private static class ServerRoom {
-    String roomName;
-    Vector<Integer> members;
+    /** The writer is already waiting on the outbound queue, so there is nothing to wake up. */
+    @Override
+    void framesQueued() {}
 
-    /* Constructor */
-    ServerRoom(int initialMember, String roomName) {
-      this.roomName = roomName;
-      members = new Vector<>();
-      members.add(initialMember);
+    /**
+     * Stops the listening loop once the packet currently being handled is done, and lets the writer
+     * finish what is queued before closing the socket.
+     */
+    @Override
+    void close() {
+      shutdownThread = true;
+      outbound.close();
     }
 
     /**
-     * Removes the client corresponding to the given id number from a room.
-     *
-     * @param targetid
+     * Closing the socket fails any write in progress and unblocks both the reader and writer. The
+     * connection is treated as lost, so a session that can be resumed is held for its client.
      */
-    void removeUser(int targetid) {
-      members.removeIf(i -> i == targetid);
+    @Override
+    void abort() {
+      shutdownThread = true;
+      connectionLost();
+      try {
+        clientSocket.close();
+      } catch (Exception e) {
+        e.printStackTrace();
+      }
     }
   }
 
-  /** Graphical User Interface (GUI) */
-  private class LoginMenu extends JFrame implements ActionListener {
-    // Data Members
-    JTextArea feedback;
-    JTextField portField;
-    JTextField usernameField;
-    JButton startButton;
-    JButton clearButton;
-
-    /* Constructor */
-    LoginMenu() {
-      super("IRC Server");
-      loginGUISetup();
-    }
-
-    /** Initializes the GUI for the login menu */
-    private void loginGUISetup() {
-      setSize(550, 250);
-      setResizable(false);
-      setDefaultCloseOperation(DO_NOTHING_ON_CLOSE);
-      addWindowListener(
-          new WindowAdapter() {
-            @Override
-            public void windowClosing(WindowEvent event) {
-              super.windowClosing(event);
-              closeServerApplication();
-            }
-          });
-
-      JPanel panel = new JPanel();
-      add(panel);
-
-      // initialize feedback display
-      feedback = new JTextArea(5, 40);
-      feedback.setLineWrap(true);
-      feedback.setEditable(false);
-      panel.add(new JScrollPane(feedback));
-
-      // initialize port number field
-      panel.add(new JLabel("Port Number"));
-      portField = new JTextField();
-      portField.setColumns(33);
-      portField.setText("8080");
-      panel.add(portField);
-
-      // initialize username field
-      panel.add(new JLabel("Username"));
-      usernameField = new JTextField();
-      usernameField.setColumns(33);
-      usernameField.setText("HOST");
-      panel.add(usernameField);
-
-      // initialize connect button
-      startButton = new JButton("Start Server");
-      startButton.addActionListener(this);
-      panel.add(startButton);
-
-      // initialize clear button
-      clearButton = new JButton("Clear");
-      clearButton.addActionListener(this);
-      panel.add(clearButton);
-      resetLoginGUI();
+  /**
+   * Hands sessions and packets from the NIO transport over to the server, mirroring what the
+   * Acceptors and ServerThreads do on the blocking transport.
+   */
+  private class ServerSessionHandler implements SessionHandler {
+    @Override
+    public void sessionOpened(Session session) {
+      Server.this.sessionOpened(session);
     }
 
-    void resetLoginGUI() {
-      feedback.setText("Welcome to the IRC Server!");
+    @Override
+    public void packetReceived(Session session, Packet packet) {
+      Log.packetReceived(packet.command, session.id);
+      packetHandler(packet, session);
     }
 
-    /**
-     * Appends feedback to the feedback display in the login menu.
-     *
-     * @param message String of feedback to be appended to display
-     */
-    private void displayFeedback(String message) {
-      feedback.append("\n" + message);
-      feedback.setCaretPosition(feedback.getDocument().getLength());
+    @Override
+    public void sessionClosed(Session session) {
+      Server.this.sessionClosed(session);
     }
+  }
 
-    /**
-     * On an action event occurring in the login menu, this function is called.
-     *
-     * @param event ActionEvent object representing an event that has occurred in the login menu
-     */
-    public void actionPerformed(ActionEvent event) {
-      // start server button pressed
-      if (event.getSource() == startButton) {
-        String portString = portField.getText();
-        String username = usernameField.getText();
-        if (portString.equals("") || username.equals("")) {
-          displayFeedback("Please fill out the necessary fields to connect.");
-          return;
-        }
-        int port;
-        try {
-          port = Integer.parseInt(portString);
-        } catch (Exception e) {
-          displayFeedback(portString + " is not a valid port number.");
-          return;
-        }
-        displayFeedback("Attempting to host server on port " + portString + "...");
-        if (!startServer(port, username)) {
-          displayFeedback("Unable to host server.");
-          return;
+  /**
+   * Hosts the server straight away without any window. Lines typed on the console are handled like
+   * those typed into the server window, after which the chat lines logged since the last one are
+   * printed. There are two additions: {@code @log} prints the whole chat log and {@code @quit}
+   * stops the server. The server keeps running if the console is closed.
+   */
+  private void runHeadless() throws IOException {
+    if (!startServer(config.port, config.hostname)) System.exit(1);
+    runConnectionListener();
+    long shown = 0; // chat log lines already printed
+    BufferedReader console = new BufferedReader(new InputStreamReader(System.in));
+    String line;
+    while ((line = console.readLine()) != null) {
+      if (line.isEmpty()) continue;
+      if (line.equals("@quit")) {
+        stopServer();
+        while (serverHosted) {
+          try {
+            Thread.sleep(100);
+          } catch (InterruptedException e) {
+            e.printStackTrace();
+          }
         }
-        displayFeedback("Success! Server hosted on port " + portString + ".");
-        runConnectionListener();
-      }
-      // clear button pressed
-      if (event.getSource() == clearButton) {
-        portField.setText("");
-        usernameField.setText("");
+        System.exit(0);
       }
+      if (line.equals("@log")) shown = 0;
+      else parseInput(line);
+      long count =
+          chatLog.count(); // read first: a line added meanwhile may repeat, never go missing
+      System.out.println(chatLog.linesSince(shown));
+      shown = count;
     }
   }
 
   /**
-   * Main entry point to the program. Starts the application.
+   * Main entry point to the program. Opens the server window, or with {@code --headless} hosts the
+   * server without one, see {@link ServerConfig#fromArgs(String[])} for the arguments.
    *
-   * @param args
+   * @param args command line arguments
    */
-  public static void main(String[] args) {
-    Server server = new Server();
+  public static void main(String[] args) throws IOException {
+    Log.info("Starting up server application...");
+    Server server = new Server(ServerConfig.fromArgs(args));
+    if (server.config.headless) {
+      server.runHeadless();
+      return;
+    }
+    new ServerGui(server);
+    Log.info("Success! Server application started.");
   }
 }
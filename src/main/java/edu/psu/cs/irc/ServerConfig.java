@@ -0,0 +1,199 @@
+package edu.psu.cs.irc;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Settings that control how the server runs. Values are read from {@code irc.*} properties so they
+ * can be changed without touching the login menu, e.g. {@code -Dirc.transport=nio}. The same
+ * properties can also be put in a file, and the common ones given as command line arguments, see
+ * {@link #fromArgs(String[])}.
+ */
+final class ServerConfig {
+  /** The ways the server can accept and service client connections. */
+  enum Transport {
+    BLOCKING, // one ServerThread per connected user
+    NIO // a small, fixed set of selector event loops shared by every user
+  }
+
+  Transport transport = Transport.BLOCKING;
+  int eventLoops = Runtime.getRuntime().availableProcessors(); // NIO transport only
+  ExecutorStrategy executor = ExecutorStrategy.CACHED; // blocking transport only
+  int threadLimit = 40; // platform threads for the pooled executor strategies, two per user
+  int outboundCapacity = 1024; // frames queued per session before the slow consumer policy applies
+  OutboundQueue.Policy slowConsumerPolicy = OutboundQueue.Policy.DROP_OLDEST;
+  int presenceFlushMillis = 100; // how long presence changes are collected before being sent
+  int shards = Runtime.getRuntime().availableProcessors(); // threads handling commands
+  int acceptBacklog = 1024; // connections the kernel holds until they are accepted
+  int acceptors = 1; // threads accepting connections, or listening channels with reusePort
+  boolean reusePort; // a listening socket of its own per acceptor, bound with SO_REUSEPORT
+  boolean headless; // run without any window, hosting straight away
+  int port = 8080; // port hosted on when headless
+  String hostname = "HOST"; // name shown on messages typed into the server
+  int chatLogLines = 500; // chat lines kept for the server's display
+  int metricsDumpSeconds = 60; // seconds between metrics written to the log, 0 for none
+  String historyDir; // where room history is kept, null to keep none
+  int historyReplay = 20; // messages shown to a user joining a room or the server
+  int historySegmentBytes = 8 * 1024 * 1024; // size a history file grows to before the next
+  int historySegments = 8; // history files kept per room
+  int historyFlushMillis = 10; // how often relayed messages are written to the history
+  int historySyncMillis = 1000; // how often the history is forced to the disk
+  int resumeGraceMillis = 30_000; // how long a dropped session can be resumed, 0 for never
+  int resumeBuffer = 256; // frames kept per session for a resume
+  int heartbeatMillis = 15_000; // quiet time before a user is pinged, 0 for never
+  int idleTimeoutMillis = 45_000; // quiet time before a user's connection is dropped, 0 for never
+  int timerTickMillis = 50; // precision of heartbeats, resume expiry and other deadlines
+  FloodControl.Policy ratePolicy = FloodControl.Policy.DROP; // for commands sent too fast
+  double rateChat = 20; // chat messages per second and user, 0 for no limit
+  int rateChatBurst = 40; // chat messages a user can send at once
+  double rateRooms = 2; // rooms created, joined or left per second and user, 0 for no limit
+  int rateRoomsBurst = 10;
+  double ratePresence = 1; // joins, resumes and resyncs per second and user, 0 for no limit
+  int ratePresenceBurst = 5;
+  double rateOther = 5; // any other command per second and user, 0 for no limit
+  int rateOtherBurst = 10;
+
+  /**
+   * Builds a configuration from command line arguments. Properties are taken from the file named by
+   * {@code --config}, then from system properties, then from the remaining arguments, each
+   * overriding the ones before it.
+   *
+   * <pre>
+   *   --headless       run without a window, same as irc.headless=true
+   *   --port N         port to host on, same as irc.port=N
+   *   --name NAME      name shown on messages typed into the server, same as irc.hostname=NAME
+   *   --config FILE    properties file holding any of the irc.* settings
+   * </pre>
+   *
+   * @param args command line arguments passed to the server
+   * @return the server configuration
+   * @throws IllegalArgumentException if an argument is not recognized or is missing its value
+   * @throws IOException if the config file can not be read
+   */
+  static ServerConfig fromArgs(String[] args) throws IOException {
+    Properties properties = new Properties();
+    for (int i = 0; i < args.length; ++i)
+      if (args[i].equals("--config")) {
+        try (Reader in = new FileReader(value(args, ++i))) {
+          properties.load(in);
+        }
+      }
+    properties.putAll(System.getProperties());
+    for (int i = 0; i < args.length; ++i) {
+      switch (args[i]) {
+        case "--config":
+          ++i;
+          break;
+        case "--headless":
+          properties.setProperty("irc.headless", "true");
+          break;
+        case "--port":
+          properties.setProperty("irc.port", value(args, ++i));
+          break;
+        case "--name":
+          properties.setProperty("irc.hostname", value(args, ++i));
+          break;
+        default:
+          throw new IllegalArgumentException("Unrecognized argument " + args[i] + ".");
+      }
+    }
+    return fromProperties(properties);
+  }
+
+  private static String value(String[] args, int i) {
+    if (i >= args.length)
+      throw new IllegalArgumentException(args[i - 1] + " needs to be followed by a value.");
+    return args[i];
+  }
+
+  private static int getInt(Properties properties, String key, int fallback) {
+    String value = properties.getProperty(key);
+    return value == null ? fallback : Integer.parseInt(value.trim());
+  }
+
+  private static double getDouble(Properties properties, String key, double fallback) {
+    String value = properties.getProperty(key);
+    return value == null ? fallback : Double.parseDouble(value.trim());
+  }
+
+  private static ServerConfig fromProperties(Properties properties) {
+    ServerConfig config = new ServerConfig();
+    String transport = properties.getProperty("irc.transport");
+    if (transport != null) config.transport = Transport.valueOf(transport.toUpperCase());
+    config.eventLoops = Math.max(1, getInt(properties, "irc.eventLoops", config.eventLoops));
+    String executor = properties.getProperty("irc.executor");
+    if (executor != null)
+      config.executor = ExecutorStrategy.valueOf(executor.toUpperCase().replace('-', '_'));
+    config.threadLimit = getInt(properties, "irc.threadLimit", config.threadLimit);
+    if (config.executor.isPooled() && config.threadLimit < 2)
+      throw new IllegalArgumentException(
+          "irc.threadLimit is "
+              + config.threadLimit
+              + ", the "
+              + config.executor.name().toLowerCase().replace('_', '-')
+              + " executor needs at least 2 threads per user.");
+    config.outboundCapacity =
+        Math.max(1, getInt(properties, "irc.outbound.capacity", config.outboundCapacity));
+    String policy = properties.getProperty("irc.outbound.policy");
+    if (policy != null)
+      config.slowConsumerPolicy =
+          OutboundQueue.Policy.valueOf(policy.toUpperCase().replace('-', '_'));
+    config.presenceFlushMillis =
+        Math.max(0, getInt(properties, "irc.presence.flushMillis", config.presenceFlushMillis));
+    config.shards = Math.max(1, getInt(properties, "irc.shards", config.shards));
+    config.acceptBacklog =
+        Math.max(1, getInt(properties, "irc.acceptBacklog", config.acceptBacklog));
+    config.acceptors = Math.max(1, getInt(properties, "irc.acceptors", config.acceptors));
+    config.reusePort = Boolean.parseBoolean(properties.getProperty("irc.reusePort", "false"));
+    config.headless = Boolean.parseBoolean(properties.getProperty("irc.headless", "false"));
+    config.port = getInt(properties, "irc.port", config.port);
+    config.hostname = properties.getProperty("irc.hostname", config.hostname);
+    config.chatLogLines = Math.max(1, getInt(properties, "irc.chatLog.lines", config.chatLogLines));
+    config.metricsDumpSeconds =
+        Math.max(0, getInt(properties, "irc.metrics.dumpSeconds", config.metricsDumpSeconds));
+    String historyDir = properties.getProperty("irc.history.dir");
+    if (historyDir != null)
+      config.historyDir = historyDir.trim().isEmpty() ? null : historyDir.trim();
+    config.historyReplay =
+        Math.max(0, getInt(properties, "irc.history.replay", config.historyReplay));
+    config.historySegmentBytes =
+        Math.max(4096, getInt(properties, "irc.history.segmentBytes", config.historySegmentBytes));
+    config.historySegments =
+        Math.max(1, getInt(properties, "irc.history.segments", config.historySegments));
+    config.historyFlushMillis =
+        Math.max(1, getInt(properties, "irc.history.flushMillis", config.historyFlushMillis));
+    config.historySyncMillis =
+        Math.max(0, getInt(properties, "irc.history.syncMillis", config.historySyncMillis));
+    config.resumeGraceMillis =
+        Math.max(0, getInt(properties, "irc.resume.graceMillis", config.resumeGraceMillis));
+    config.resumeBuffer = Math.max(1, getInt(properties, "irc.resume.buffer", config.resumeBuffer));
+    config.heartbeatMillis =
+        Math.max(0, getInt(properties, "irc.heartbeat.intervalMillis", config.heartbeatMillis));
+    config.idleTimeoutMillis =
+        Math.max(0, getInt(properties, "irc.heartbeat.timeoutMillis", config.idleTimeoutMillis));
+    config.timerTickMillis =
+        Math.max(1, getInt(properties, "irc.timer.tickMillis", config.timerTickMillis));
+    String ratePolicy = properties.getProperty("irc.rate.policy");
+    if (ratePolicy != null)
+      config.ratePolicy = FloodControl.Policy.valueOf(ratePolicy.toUpperCase());
+    config.rateChat = Math.max(0, getDouble(properties, "irc.rate.chat", config.rateChat));
+    config.rateChatBurst =
+        Math.max(1, getInt(properties, "irc.rate.chat.burst", config.rateChatBurst));
+    config.rateRooms = Math.max(0, getDouble(properties, "irc.rate.rooms", config.rateRooms));
+    config.rateRoomsBurst =
+        Math.max(1, getInt(properties, "irc.rate.rooms.burst", config.rateRoomsBurst));
+    config.ratePresence =
+        Math.max(0, getDouble(properties, "irc.rate.presence", config.ratePresence));
+    config.ratePresenceBurst =
+        Math.max(1, getInt(properties, "irc.rate.presence.burst", config.ratePresenceBurst));
+    config.rateOther = Math.max(0, getDouble(properties, "irc.rate.other", config.rateOther));
+    config.rateOtherBurst =
+        Math.max(1, getInt(properties, "irc.rate.other.burst", config.rateOtherBurst));
+    return config;
+  }
+
+  /** Returns a buffer for resuming a new session, or null if sessions can not be resumed. */
+  ResumeBuffer newResumeBuffer() {
+    return resumeGraceMillis > 0 ? new ResumeBuffer(resumeBuffer) : null;
+  }
+}
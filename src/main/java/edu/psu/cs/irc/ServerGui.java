@@ -0,0 +1,297 @@
+package edu.psu.cs.irc;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.*;
+
+/**
+ * The server's window: the login menu used to host the server, and the chat window showing the
+ * users, rooms and chat while it runs. The chat display is not written to by the threads relaying
+ * messages. They only add lines to the server's {@link ChatLog}, and a Swing timer copies whatever
+ * is new into the display a few times a second, so a busy server costs the window a handful of
+ * updates per second instead of one per message.
+ */
+class ServerGui extends JFrame implements ActionListener, ServerView {
+  private static final int REFRESH_MILLIS = 100; // how often new chat lines are shown
+
+  private final Server server;
+  private final LoginMenu loginMenu;
+  private final Timer refreshTimer;
+  private ChatDisplay chatDisplay;
+  private JTextField textInput;
+  private JTextArea userDisplay;
+  private JTextArea roomDisplay;
+
+  /**
+   * Constructor initializes the Graphical User Interface (GUI). Once started, closing this window
+   * will stop the server.
+   *
+   * @param server the server this window controls
+   */
+  ServerGui(Server server) {
+    super("IRC Server");
+    this.server = server;
+    server.setView(this);
+    serverGUISetup();
+    refreshTimer = new Timer(REFRESH_MILLIS, event -> chatDisplay.refresh());
+    loginMenu = new LoginMenu();
+    loginMenu.setVisible(true);
+  }
+
+  /**
+   * If a user closes the application window, this method will be called to shut down the server.
+   */
+  private void closeServerApplication() {
+    Log.info("Closing server application...");
+    if (server.isHosted()) {
+      server.stopServer(); // Closes the infinite loop listening for incoming connection requests
+      while (server.isHosted()) {
+        try {
+          Thread.sleep(1000);
+          System.out.print(".");
+        } catch (Exception e) {
+          e.printStackTrace();
+        }
+      }
+      System.out.println();
+    }
+    Log.info("See ya next time!");
+    Log.flush();
+    System.exit(0);
+  }
+
+  @Override
+  public void serverStarted() {
+    SwingUtilities.invokeLater(
+        () -> {
+          resetChatGUI(); // Reset number of users and rooms to zero
+          refreshTimer.start();
+          setVisible(true); // Show chat window
+          loginMenu.setVisible(false); // Hide login window
+        });
+  }
+
+  @Override
+  public void serverStopped() {
+    SwingUtilities.invokeLater(
+        () -> {
+          refreshTimer.stop();
+          loginMenu.resetLoginGUI();
+          setVisible(false);
+          loginMenu.setVisible(true);
+        });
+  }
+
+  @Override
+  public void presenceChanged(String userListing, String roomListing) {
+    SwingUtilities.invokeLater(
+        () -> {
+          userDisplay.setText(userListing);
+          roomDisplay.setText(roomListing);
+        });
+  }
+
+  /** Initializes the GUI for the server. */
+  private void serverGUISetup() {
+    setSize(900, 500);
+    setResizable(false);
+    // call stopServer function on close
+    setDefaultCloseOperation(DO_NOTHING_ON_CLOSE);
+    addWindowListener(
+        new WindowAdapter() {
+          @Override
+          public void windowClosing(WindowEvent event) {
+            super.windowClosing(event);
+            server.stopServer();
+          }
+        });
+
+    // panel holding all individual displays in grid bag layout
+    JPanel panel = new JPanel();
+    panel.setLayout(new GridBagLayout());
+    add(panel);
+
+    GridBagConstraints gbc = new GridBagConstraints();
+    gbc.insets = new Insets(3, 3, 3, 3);
+    gbc.fill = GridBagConstraints.VERTICAL;
+
+    // initialize active user list display
+    userDisplay = new JTextArea(25, 15);
+    userDisplay.setLineWrap(false);
+    userDisplay.setEditable(false);
+    JScrollPane userDisplayScroll = new JScrollPane(userDisplay);
+    gbc.gridx = 0;
+    gbc.gridy = 0;
+    gbc.gridwidth = 1;
+    gbc.gridheight = 3;
+    panel.add(userDisplayScroll, gbc);
+
+    // initializes active room list display
+    roomDisplay = new JTextArea(25, 15);
+    roomDisplay.setLineWrap(false);
+    roomDisplay.setEditable(false);
+    JScrollPane roomDisplayScroll = new JScrollPane(roomDisplay);
+    gbc.gridx = 1;
+    gbc.gridy = 0;
+    gbc.gridwidth = 1;
+    gbc.gridheight = 3;
+    panel.add(roomDisplayScroll, gbc);
+
+    // initialize chat dialogue display
+    chatDisplay = new ChatDisplay(server.chatLog(), 25, 40);
+    JScrollPane chatDisplayScroll = new JScrollPane(chatDisplay.area());
+    gbc.gridx = 2;
+    gbc.gridy = 0;
+    gbc.gridwidth = 2;
+    gbc.gridheight = 1;
+    panel.add(chatDisplayScroll, gbc);
+
+    // initialize text input field
+    textInput = new JTextField(33);
+    textInput.addActionListener(this);
+    gbc.gridx = 2;
+    gbc.gridy = 1;
+    gbc.gridwidth = 1;
+    gbc.gridheight = 1;
+    panel.add(textInput, gbc);
+
+    // initialize send button
+    JButton sendButton = new JButton("Send");
+    sendButton.addActionListener(this);
+    gbc.gridx = 3;
+    gbc.gridy = 1;
+    gbc.gridwidth = 1;
+    gbc.gridheight = 1;
+    panel.add(sendButton, gbc);
+  }
+
+  /** Resets all values that appear in the GUI. */
+  private void resetChatGUI() {
+    chatDisplay.reset(); // the next refresh shows whatever the server has logged since starting
+    userDisplay.setText("0 USERS");
+    roomDisplay.setText("0 ROOMS");
+  }
+
+  /** Returns if user input is blank; else, parses the user's textual input. */
+  public void actionPerformed(ActionEvent event) {
+    String userInput = textInput.getText();
+    if (userInput.equals("")) return;
+    textInput.setText("");
+    server.parseInput(userInput);
+  }
+
+  /** Graphical User Interface (GUI) */
+  private class LoginMenu extends JFrame implements ActionListener {
+    // Data Members
+    JTextArea feedback;
+    JTextField portField;
+    JTextField usernameField;
+    JButton startButton;
+    JButton clearButton;
+
+    /* Constructor */
+    LoginMenu() {
+      super("IRC Server");
+      loginGUISetup();
+    }
+
+    /** Initializes the GUI for the login menu */
+    private void loginGUISetup() {
+      setSize(550, 250);
+      setResizable(false);
+      setDefaultCloseOperation(DO_NOTHING_ON_CLOSE);
+      addWindowListener(
+          new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent event) {
+              super.windowClosing(event);
+              closeServerApplication();
+            }
+          });
+
+      JPanel panel = new JPanel();
+      add(panel);
+
+      // initialize feedback display
+      feedback = new JTextArea(5, 40);
+      feedback.setLineWrap(true);
+      feedback.setEditable(false);
+      panel.add(new JScrollPane(feedback));
+
+      // initialize port number field
+      panel.add(new JLabel("Port Number"));
+      portField = new JTextField();
+      portField.setColumns(33);
+      portField.setText("8080");
+      panel.add(portField);
+
+      // initialize username field
+      panel.add(new JLabel("Username"));
+      usernameField = new JTextField();
+      usernameField.setColumns(33);
+      usernameField.setText("HOST");
+      panel.add(usernameField);
+
+      // initialize connect button
+      startButton = new JButton("Start Server");
+      startButton.addActionListener(this);
+      panel.add(startButton);
+
+      // initialize clear button
+      clearButton = new JButton("Clear");
+      clearButton.addActionListener(this);
+      panel.add(clearButton);
+      resetLoginGUI();
+    }
+
+    void resetLoginGUI() {
+      feedback.setText("Welcome to the IRC Server!");
+    }
+
+    /**
+     * Appends feedback to the feedback display in the login menu.
+     *
+     * @param message String of feedback to be appended to display
+     */
+    private void displayFeedback(String message) {
+      feedback.append("\n" + message);
+      feedback.setCaretPosition(feedback.getDocument().getLength());
+    }
+
+    /**
+     * On an action event occurring in the login menu, this function is called.
+     *
+     * @param event ActionEvent object representing an event that has occurred in the login menu
+     */
+    public void actionPerformed(ActionEvent event) {
+      // start server button pressed
+      if (event.getSource() == startButton) {
+        String portString = portField.getText();
+        String username = usernameField.getText();
+        if (portString.equals("") || username.equals("")) {
+          displayFeedback("Please fill out the necessary fields to connect.");
+          return;
+        }
+        int port;
+        try {
+          port = Integer.parseInt(portString);
+        } catch (Exception e) {
+          displayFeedback(portString + " is not a valid port number.");
+          return;
+        }
+        displayFeedback("Attempting to host server on port " + portString + "...");
+        if (!server.startServer(port, username)) {
+          displayFeedback("Unable to host server.");
+          return;
+        }
+        displayFeedback("Success! Server hosted on port " + portString + ".");
+        server.runConnectionListener();
+      }
+      // clear button pressed
+      if (event.getSource() == clearButton) {
+        portField.setText("");
+        usernameField.setText("");
+      }
+    }
+  }
+}
@@ -0,0 +1,60 @@
+package edu.psu.cs.irc;
+
+/**
+ * A virtual room and the ids of the users that are members of it. Every room belongs to exactly one
+ * {@link RoomShard} and is only ever touched by that shard's thread, so nothing here needs to be
+ * synchronized.
+ */
+final class ServerRoom {
+  final int id; // Unique identification number assigned by the registry
+  final String roomName;
+  private final MutableIntSet members = new MutableIntSet();
+
+  /**
+   * Constructor
+   *
+   * @param id room id number
+   * @param roomName name chosen by the user that created the room
+   * @param initialMember id number of the user that created the room
+   */
+  ServerRoom(int id, String roomName, int initialMember) {
+    this.id = id;
+    this.roomName = roomName;
+    members.add(initialMember);
+  }
+
+  /**
+   * Adds a user to the room.
+   *
+   * @param userid id number of the joining user
+   * @return false if the user was already a member
+   */
+  boolean addMember(int userid) {
+    return members.add(userid);
+  }
+
+  /**
+   * Removes a user from the room.
+   *
+   * @param userid id number of the leaving user
+   * @return false if the user was not a member
+   */
+  boolean removeMember(int userid) {
+    return members.remove(userid);
+  }
+
+  /** Returns if the last member has left the room. */
+  boolean isEmpty() {
+    return members.isEmpty();
+  }
+
+  /** Returns if the given user is a member of the room. */
+  boolean contains(int userid) {
+    return members.contains(userid);
+  }
+
+  /** Returns the members, which change as users join and leave. Shard only, like the room. */
+  MutableIntSet members() {
+    return members;
+  }
+}
@@ -0,0 +1,22 @@
+package edu.psu.cs.irc;
+
+/**
+ * What the server lets its window know about. A headless server runs without one. Calls can come
+ * from any thread. Chat lines are not pushed through here; the window reads them from the server's
+ * {@link ChatLog} instead.
+ */
+interface ServerView {
+  /** Called once the server has been hosted on its port. */
+  void serverStarted();
+
+  /** Called once the server has shut down and released its port. */
+  void serverStopped();
+
+  /**
+   * Called after changes to the user and room lists have been sent to the users.
+   *
+   * @param userListing the user list, as displayed next to the chat
+   * @param roomListing the room list, as displayed next to the chat
+   */
+  void presenceChanged(String userListing, String roomListing);
+}
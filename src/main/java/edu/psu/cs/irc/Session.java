@@ -0,0 +1,229 @@
+package edu.psu.cs.irc;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Server side handle for a single connected user. The server only ever talks to a user through this
+ * class, so it does not need to know which transport the underlying connection is running on.
+ */
+abstract class Session {
+  volatile int id; // Assigned by the server once the connection is accepted, or taken over
+  volatile String username; // Username sent by the client in its joinServer packet
+  volatile String resumeToken; // Handed to the client once joined, null until then
+  volatile FloodControl.Buckets buckets; // set by the server once the connection is accepted
+  volatile long lastReadNanos = System.nanoTime(); // when a packet was last received
+  volatile long roundTripNanos = -1; // of the last ping answered, -1 until one has been
+  volatile TimerWheel.Timeout idleCheck; // next check for a quiet connection, or null
+  final OutboundQueue outbound; // Frames waiting for the session's writer
+  private final ResumeBuffer resume; // null if sessions can not be resumed
+  private volatile IntSet rooms = IntSet.EMPTY; // ids of the rooms the user is a member of
+  private volatile Prefixes prefixes; // built for the current username on first use
+
+  /**
+   * Constructor
+   *
+   * @param outbound queue the session's writer drains
+   */
+  Session(OutboundQueue outbound) {
+    this(outbound, null);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param outbound queue the session's writer drains
+   * @param resume keeps what is needed to resume the session after its connection drops, or null
+   */
+  Session(OutboundQueue outbound, ResumeBuffer resume) {
+    this.outbound = outbound;
+    this.resume = resume;
+  }
+
+  /**
+   * Writes data contained in packet to the client. When the same packet goes to several clients,
+   * encode it once and use {@link #sendFrame(Frame)} instead.
+   *
+   * @param packet packet containing data for the client
+   */
+  void sendPacket(Packet packet) {
+    sendFrame(PacketEncoder.encode(packet));
+  }
+
+  /**
+   * Queues an already encoded packet to be written to the client by the session's own writer, so
+   * the calling thread never waits on this client's socket. If the client is not keeping up and the
+   * slow consumer policy says so, the session is disconnected instead. The frame may be shared with
+   * other sessions and must not be modified. The session takes its own reference to the frame, so
+   * the caller keeps theirs.
+   *
+   * @param frame frame containing data for the client
+   */
+  void sendFrame(Frame frame) {
+    frame.retain();
+    if (!outbound.offer(frame)) {
+      frame.release();
+      Log.warn("User id # " + id + " is not keeping up, disconnecting.");
+      if (resume != null) resume.end(); // it would only fall behind again
+      outbound.discard();
+      abort();
+      return;
+    }
+    Metrics.SERVER.queueDepth(outbound.size());
+    framesQueued();
+  }
+
+  /** Returns the UTF-8 text put in front of the user's messages to everyone or to a single user. */
+  byte[] chatPrefix() {
+    return prefixes().chat;
+  }
+
+  /** Returns the UTF-8 text put in front of the user's messages to a room. */
+  byte[] roomPrefix() {
+    return prefixes().room;
+  }
+
+  private Prefixes prefixes() {
+    String username = this.username;
+    Prefixes prefixes = this.prefixes;
+    if (prefixes == null || prefixes.username != username)
+      this.prefixes = prefixes = new Prefixes(username, id);
+    return prefixes;
+  }
+
+  /** Returns the ids of the rooms the user is a member of, as a snapshot. */
+  IntSet rooms() {
+    return rooms;
+  }
+
+  /** Records that the user has joined a room. */
+  synchronized void roomJoined(int roomid) {
+    rooms = rooms.with(roomid);
+  }
+
+  /** Records that the user has left a room. */
+  synchronized void roomLeft(int roomid) {
+    rooms = rooms.without(roomid);
+  }
+
+  /**
+   * Called by the session's writer for every frame handed to the connection, in order, while it
+   * still holds a reference to the frame. The writer records the frame in {@link Metrics} itself,
+   * once the write is done.
+   */
+  void frameWritten(Frame frame) {
+    if (resume != null) resume.frameWritten(frame);
+  }
+
+  /**
+   * Called by the transport once the connection has dropped, in place of discarding the outbound
+   * queue. If the user has joined, the frames that were never written are held along with every
+   * frame sent from now on, so that a new connection can resume the session. Otherwise they are
+   * thrown away. Safe to call more than once.
+   */
+  void connectionLost() {
+    if (resume != null && resumeToken != null && resume.detach()) outbound.divert(resume::hold);
+    else outbound.discard();
+  }
+
+  /**
+   * Called by the session's writer once it has stopped for good, whatever the reason.
+   *
+   * @param unwritten frames the writer took off the queue but did not write, oldest first, each
+   *     along with a reference to it; null entries are skipped
+   */
+  void writerStopped(Frame[] unwritten) {
+    List<Frame> frames = new ArrayList<>();
+    if (unwritten != null) for (Frame frame : unwritten) if (frame != null) frames.add(frame);
+    if (resume != null) resume.writerStopped(frames);
+    else for (Frame frame : frames) frame.release();
+  }
+
+  /** Returns whether the connection has dropped and a new one may still resume the session. */
+  boolean isDetached() {
+    return resume != null && resume.isDetached();
+  }
+
+  /**
+   * Returns whether the connection may still be in use, or its writer has yet to stop, in which
+   * case the session can not be resumed just yet.
+   */
+  boolean awaitingDetach() {
+    return resume != null && resume.awaitingDetach();
+  }
+
+  /**
+   * Lets another session take over from this one, whose connection has dropped: the new session is
+   * sent the reply to its resume, then every frame its client has missed, then every frame sent to
+   * this session from now on.
+   *
+   * @param lastSeq number of the last frame the client read on its old connection
+   * @param successor the session of the client's new connection
+   * @param reply packet telling the client the session has been resumed
+   * @return false if the frames the client missed are no longer all kept
+   */
+  boolean resumeTo(int lastSeq, Session successor, Packet reply) {
+    if (resume == null) return false;
+    Frame frame = PacketEncoder.encode(reply);
+    try {
+      return resume.resume(lastSeq, successor, frame);
+    } finally {
+      frame.release();
+    }
+  }
+
+  /**
+   * Numbers the frames of this connection on from where the connection it resumed left off.
+   *
+   * @param lastSeq number of the last frame the client read on its old connection
+   */
+  void continueFrom(int lastSeq) {
+    if (resume != null) resume.continueFrom(lastSeq);
+  }
+
+  /** Gives up what was kept for a resume, once the user has left for good. */
+  void endResume() {
+    if (resume != null) resume.end();
+  }
+
+  /**
+   * Takes over the user's name and room memberships from the session being resumed.
+   *
+   * @param previous the session whose connection dropped
+   */
+  synchronized void takeOver(Session previous) {
+    username = previous.username;
+    rooms = previous.rooms;
+  }
+
+  /** Returns the number of frames queued for the client that have not been written yet. */
+  int queueDepth() {
+    return outbound.size();
+  }
+
+  /** Lets the session's writer know that a frame has been added to the outbound queue. */
+  abstract void framesQueued();
+
+  /** Closes the connection to the client once any packets already sent have been written. */
+  abstract void close();
+
+  /**
+   * Closes the connection to the client straight away, even if the socket is in the middle of a
+   * write. Used for clients that have stopped reading, which would otherwise never let a graceful
+   * close finish.
+   */
+  abstract void abort();
+
+  /** Sender prefixes are encoded once per username instead of once per message. */
+  private static final class Prefixes {
+    final String username;
+    final byte[] chat;
+    final byte[] room;
+
+    Prefixes(String username, int id) {
+      this.username = username;
+      chat = (username + " (# " + id + "): ").getBytes(StandardCharsets.UTF_8);
+      room = (username + " (# " + id + "): : ").getBytes(StandardCharsets.UTF_8);
+    }
+  }
+}
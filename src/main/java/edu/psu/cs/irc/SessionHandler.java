@@ -0,0 +1,26 @@
+package edu.psu.cs.irc;
+
+/** Callbacks a transport uses to hand connections and incoming packets over to the server. */
+interface SessionHandler {
+  /**
+   * Called once a client connection has been accepted, before any packets are read from it.
+   *
+   * @param session the newly connected session
+   */
+  void sessionOpened(Session session);
+
+  /**
+   * Called for every packet read from a client, in the order the packets were sent.
+   *
+   * @param session the session the packet was read from
+   * @param packet packet containing data from the client
+   */
+  void packetReceived(Session session, Packet packet);
+
+  /**
+   * Called once the connection to a client has been closed, whether by the client or the server.
+   *
+   * @param session the session that was closed
+   */
+  void sessionClosed(Session session);
+}
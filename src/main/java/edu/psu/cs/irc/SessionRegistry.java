@@ -0,0 +1,119 @@
+package edu.psu.cs.irc;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * The connected sessions and open rooms, shared by every thread that handles packets. Both are kept
+ * in {@link SlotTable}s, so a lookup is a single array read that never waits on a user joining or
+ * leaving, and an id kept by a client after its user left or its room closed is never mistaken for
+ * whoever got the slot next. Rooms themselves are owned by the {@link RoomShard}s, which are the
+ * only ones to add, change or remove them.
+ *
+ * <p>A session whose connection has dropped stays registered, under its resume token as well as its
+ * user id, until it is resumed by a new connection or expires.
+ */
+final class SessionRegistry {
+  private final SlotTable<Session> sessions = new SlotTable<>(session -> session.id);
+  private final ConcurrentHashMap<String, Session> tokens = new ConcurrentHashMap<>();
+  private final SlotTable<ServerRoom> rooms = new SlotTable<>(room -> room.id);
+
+  /**
+   * Assigns a new user id to a newly connected session and stores it.
+   *
+   * @param session the newly connected session
+   * @return the id assigned to the session
+   */
+  int register(Session session) {
+    session.id = sessions.reserve();
+    sessions.set(session.id, session);
+    return session.id;
+  }
+
+  /** Returns the session with the given user id, or null if there is none. */
+  Session session(int userid) {
+    return sessions.get(userid);
+  }
+
+  /**
+   * Removes the session with the given user id. Only one caller can remove a given session, so the
+   * result tells whether this caller is the one that has to clean up after it.
+   *
+   * @param userid id number of the user to remove
+   * @return the removed session, or null if it had already been removed
+   */
+  Session unregister(int userid) {
+    Session session = sessions.remove(userid);
+    String token = session == null ? null : session.resumeToken;
+    if (token != null) tokens.remove(token, session);
+    return session;
+  }
+
+  /**
+   * Gives a session a new resume token, replacing the one it had.
+   *
+   * @param session a registered session
+   * @param token the new token, never handed out before
+   */
+  void setToken(Session session, String token) {
+    String previous = session.resumeToken;
+    if (previous != null) tokens.remove(previous, session);
+    session.resumeToken = token;
+    tokens.put(token, session);
+  }
+
+  /** Returns the session holding the given resume token, or null if there is none. */
+  Session sessionForToken(String token) {
+    return token == null ? null : tokens.get(token);
+  }
+
+  /**
+   * Puts a session that has resumed an earlier one in its place. The successor gives up the id it
+   * was registered under and takes over the user's id, name and rooms, so other users never see the
+   * user leave.
+   *
+   * @param previous the session whose connection dropped, still registered
+   * @param successor the session of the new connection
+   * @return false if the earlier session was no longer registered
+   */
+  boolean resume(Session previous, Session successor) {
+    if (sessions.get(previous.id) != previous) return false;
+    if (sessions.get(successor.id) == successor) sessions.remove(successor.id);
+    successor.takeOver(previous);
+    successor.id = previous.id;
+    sessions.replace(previous.id, previous, successor);
+    String token = previous.resumeToken;
+    if (token != null) tokens.remove(token, previous);
+    return true;
+  }
+
+  /** Returns a live view of the connected sessions, safe to iterate while users come and go. */
+  Collection<Session> sessions() {
+    return sessions.values();
+  }
+
+  /** Returns the number of connected sessions. */
+  int sessionCount() {
+    return sessions.size();
+  }
+
+  /**
+   * Hands out a new room id. The room itself is created by the {@link RoomShard} that owns the id,
+   * which stores it in {@link #rooms()}, or frees the id if it does not create the room after all.
+   *
+   * @return a room id that has never been used before
+   */
+  int nextRoomId() {
+    return rooms.reserve();
+  }
+
+  /** Returns the open rooms, only ever changed by the shards owning them. */
+  SlotTable<ServerRoom> rooms() {
+    return rooms;
+  }
+
+  /** Returns the number of open rooms. */
+  int roomCount() {
+    return rooms.size();
+  }
+}
@@ -0,0 +1,59 @@
+package edu.psu.cs.irc;
+
+import java.util.function.Consumer;
+
+/**
+ * Spreads command handling over a fixed set of {@link RoomShard}s, one per core by default. A
+ * command is routed by a key, usually a room or user id, and every command with the same key is
+ * handled by the same shard in the order it was dispatched. Rooms are routed by their id, so each
+ * room's state is owned by a single thread and rooms on different shards never contend.
+ */
+final class ShardDispatcher {
+  private final RoomShard[] shards;
+
+  /**
+   * Constructor
+   *
+   * @param count number of shards
+   * @param rooms the open rooms, shared by the shards
+   */
+  ShardDispatcher(int count, SlotTable<ServerRoom> rooms) {
+    shards = new RoomShard[count];
+    for (int i = 0; i < count; ++i) shards[i] = new RoomShard(i, rooms);
+  }
+
+  /** Starts every shard's thread. */
+  void start() {
+    for (RoomShard shard : shards) shard.start();
+  }
+
+  /**
+   * Queues a command on the shard that owns the given key.
+   *
+   * @param key room or user id number the command is about
+   * @param task command to run on the shard's thread
+   */
+  void execute(int key, Consumer<RoomShard> task) {
+    shards[Math.floorMod(key, shards.length)].execute(task);
+  }
+
+  /**
+   * Hands a command on from a shard to the shard that owns the given key, or runs it straight away
+   * if that is the same shard. Commands handed on by one shard are handled in the order they were
+   * handed on.
+   *
+   * @param from the shard the calling thread belongs to
+   * @param key room or user id number the command is about
+   * @param task command to run on the owning shard's thread
+   */
+  void forward(RoomShard from, int key, Consumer<RoomShard> task) {
+    RoomShard to = shards[Math.floorMod(key, shards.length)];
+    if (to == from) task.accept(from);
+    else to.execute(task);
+  }
+
+  /** Stops every shard. */
+  void close() {
+    for (RoomShard shard : shards) shard.close();
+  }
+}
@@ -0,0 +1,196 @@
+package edu.psu.cs.irc;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.ToIntFunction;
+
+/**
+ * Dense storage for values known by an int id, such as sessions and rooms. Every value sits in a
+ * slot of an array, and its id is the slot's index with the slot's generation packed above it:
+ *
+ * <pre>
+ *   bits 30..20   generation, how many times the slot has been used before
+ *   bits 19..0    slot index, starting at 1 so that no id is 0
+ * </pre>
+ *
+ * Freed slots are reused, so the array only grows with the number of values held at once, however
+ * many there have been. A slot moves on to its next generation every time it is freed, so an id
+ * kept after its value was removed finds nothing rather than whatever took the slot over. A slot
+ * that has been through every generation is retired, so no id is ever handed out twice.
+ *
+ * <p>Looking a value up is a single array read and may be done from any thread without locking. Ids
+ * are handed out, and values added and removed, holding the table's lock.
+ */
+final class SlotTable<T> {
+  static final int SLOT_BITS = 20;
+  private static final int SLOT_MASK = (1 << SLOT_BITS) - 1;
+  private static final int MAX_GENERATION = Integer.MAX_VALUE >>> SLOT_BITS;
+
+  private final ToIntFunction<T> idOf;
+  private volatile AtomicReferenceArray<T> values = new AtomicReferenceArray<>(16);
+  private int[] generations = new int[16]; // generation of the slot's id, or of its next one
+  private boolean[] taken = new boolean[16]; // the slot's id is handed out and not freed yet
+  private int[] free = new int[16]; // slots to reuse
+  private int freeCount;
+  private volatile int used = 1; // slots handed out at some point, slot 0 is never used
+  private volatile int size; // values held
+  private final Collection<T> view = new Values();
+
+  /**
+   * Constructor
+   *
+   * @param idOf returns the id a value is held under, which lookups check the id against
+   */
+  SlotTable(ToIntFunction<T> idOf) {
+    this.idOf = idOf;
+  }
+
+  /**
+   * Hands out a new id, reusing a freed slot if there is one. The id has no value until one is
+   * {@link #set}.
+   *
+   * @return the new id, always positive
+   * @throws IllegalStateException if every id has been used
+   */
+  synchronized int reserve() {
+    int slot;
+    if (freeCount > 0) {
+      slot = free[--freeCount];
+    } else {
+      if (used > SLOT_MASK) throw new IllegalStateException("Every id has been used.");
+      slot = used;
+      if (slot == generations.length) grow();
+      used = slot + 1;
+    }
+    taken[slot] = true;
+    return generations[slot] << SLOT_BITS | slot;
+  }
+
+  /**
+   * Stores the value of an id handed out by {@link #reserve()}, replacing any value it had.
+   *
+   * @param id the value's id, which idOf has to return for the value from now on
+   * @param value the value
+   * @return false if the id has been freed
+   */
+  synchronized boolean set(int id, T value) {
+    if (!isCurrent(id)) return false;
+    int slot = id & SLOT_MASK;
+    if (values.get(slot) == null) ++size;
+    values.set(slot, value);
+    return true;
+  }
+
+  /**
+   * Replaces the value of an id, unless the id has been freed or holds another value by now.
+   *
+   * @param id the value's id
+   * @param expected the value the id is expected to hold
+   * @param value the new value, which idOf has to return the id for
+   * @return false if nothing was replaced
+   */
+  synchronized boolean replace(int id, T expected, T value) {
+    if (!isCurrent(id) || values.get(id & SLOT_MASK) != expected) return false;
+    values.set(id & SLOT_MASK, value);
+    return true;
+  }
+
+  /** Returns the value of the given id, or null if it has none, or has been freed since. */
+  T get(int id) {
+    int slot = id & SLOT_MASK;
+    AtomicReferenceArray<T> values = this.values;
+    if (slot >= values.length()) return null;
+    T value = values.get(slot);
+    return value != null && idOf.applyAsInt(value) == id ? value : null;
+  }
+
+  /**
+   * Frees an id along with its value, if it has one. The slot is handed out again under a new id.
+   * Only one caller can free a given id, so the result tells whether this caller is the one that
+   * has to clean up after its value.
+   *
+   * @param id the id to free
+   * @return the value removed, or null if the id had no value or had already been freed
+   */
+  synchronized T remove(int id) {
+    if (!isCurrent(id)) return null;
+    int slot = id & SLOT_MASK;
+    T value = values.get(slot);
+    values.set(slot, null);
+    if (value != null) --size;
+    taken[slot] = false;
+    if (++generations[slot] <= MAX_GENERATION) free[freeCount++] = slot; // otherwise retired
+    return value;
+  }
+
+  /** Returns the number of values held. */
+  int size() {
+    return size;
+  }
+
+  /**
+   * Returns a live view of the values, safe to iterate while values come and go. Iterating reads
+   * the slots one by one, so it sees every value held throughout, and may or may not see one added
+   * or removed meanwhile.
+   */
+  Collection<T> values() {
+    return view;
+  }
+
+  private boolean isCurrent(int id) {
+    int slot = id & SLOT_MASK;
+    return id > 0
+        && slot > 0
+        && slot < used
+        && taken[slot]
+        && generations[slot] == id >>> SLOT_BITS;
+  }
+
+  private void grow() {
+    int capacity = Math.min(generations.length * 2, SLOT_MASK + 1);
+    AtomicReferenceArray<T> grown = new AtomicReferenceArray<>(capacity);
+    for (int i = 0; i < used; ++i) grown.set(i, values.get(i));
+    generations = Arrays.copyOf(generations, capacity);
+    taken = Arrays.copyOf(taken, capacity);
+    free = Arrays.copyOf(free, capacity);
+    values = grown;
+  }
+
+  private final class Values extends AbstractCollection<T> {
+    @Override
+    public int size() {
+      return size;
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+      AtomicReferenceArray<T> values = SlotTable.this.values;
+      int end = Math.min(used, values.length());
+      return new Iterator<T>() {
+        private int slot;
+        private T next = advance();
+
+        private T advance() {
+          while (++slot < end) {
+            T value = values.get(slot);
+            if (value != null) return value;
+          }
+          return null;
+        }
+
+        @Override
+        public boolean hasNext() {
+          return next != null;
+        }
+
+        @Override
+        public T next() {
+          if (next == null) throw new NoSuchElementException();
+          T value = next;
+          next = advance();
+          return value;
+        }
+      };
+    }
+  }
+}
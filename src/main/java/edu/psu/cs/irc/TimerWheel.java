@@ -0,0 +1,173 @@
+package edu.psu.cs.irc;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A hashed timer wheel: one thread that runs tasks once their deadline has passed, to within a
+ * tick. The wheel is a ring of buckets, one per tick, each a linked list of the timeouts falling
+ * due when the wheel next comes round to it, along with how many more turns they have to wait.
+ * Adding and cancelling a timeout take constant time however many are pending, and each tick only
+ * looks at a single bucket, so every connection can hold a deadline of its own at next to no cost.
+ *
+ * <p>Timeouts are added and cancelled by other threads through queues, which the wheel's thread
+ * drains at every tick, so buckets are never locked. Tasks run on the wheel's thread, in no
+ * particular order within a tick, and must be short: anything more than a check is handed on to
+ * another thread.
+ */
+final class TimerWheel {
+  private final long tickNanos;
+  private final Timeout[] buckets; // head of each bucket's list, wheel thread only
+  private final int mask;
+  private final Queue<Timeout> added = new ConcurrentLinkedQueue<>();
+  private final Queue<Timeout> cancelled = new ConcurrentLinkedQueue<>();
+  private final long start = System.nanoTime();
+  private final Thread thread;
+  private long tick; // ticks done, wheel thread only
+  private volatile boolean closed;
+
+  /** A task waiting for its deadline. */
+  static final class Timeout {
+    private static final int PENDING = 0;
+    private static final int CANCELLED = 1;
+    private static final int EXPIRED = 2;
+    private static final AtomicIntegerFieldUpdater<Timeout> STATE =
+        AtomicIntegerFieldUpdater.newUpdater(Timeout.class, "state");
+
+    private final TimerWheel wheel;
+    private final Runnable task;
+    private final long deadline; // nanoseconds after the wheel started
+    private volatile int state = PENDING;
+    private long rounds; // turns of the wheel left, wheel thread only
+    private int bucket = -1; // bucket the timeout is in, -1 if none, wheel thread only
+    private Timeout prev; // neighbours in the bucket, wheel thread only
+    private Timeout next;
+
+    private Timeout(TimerWheel wheel, Runnable task, long deadline) {
+      this.wheel = wheel;
+      this.task = task;
+      this.deadline = deadline;
+    }
+
+    /**
+     * Keeps the task from running, unless it already has.
+     *
+     * @return false if the task has already run or been cancelled
+     */
+    boolean cancel() {
+      if (!STATE.compareAndSet(this, PENDING, CANCELLED)) return false;
+      wheel.cancelled.add(this);
+      return true;
+    }
+  }
+
+  /**
+   * Constructor. Starts the wheel's thread.
+   *
+   * @param name name of the wheel's thread
+   * @param tickMillis how often the wheel moves on a bucket, the precision of every deadline
+   * @param buckets buckets in the ring, rounded up to a power of two; deadlines further away than a
+   *     full turn wait for as many turns as they need
+   */
+  TimerWheel(String name, long tickMillis, int buckets) {
+    tickNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, tickMillis));
+    int size = Integer.highestOneBit(Math.max(1, buckets - 1)) << 1;
+    this.buckets = new Timeout[size];
+    mask = size - 1;
+    thread = new Thread(this::run, name);
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Schedules a task to run on the wheel's thread once a delay has passed. Tasks scheduled once the
+   * wheel has been closed never run.
+   *
+   * @param task task to run
+   * @param delay how long to wait before running it
+   * @param unit unit of the delay
+   * @return the timeout, which can be cancelled
+   */
+  Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+    Timeout timeout =
+        new Timeout(this, task, System.nanoTime() - start + Math.max(0, unit.toNanos(delay)));
+    added.add(timeout);
+    return timeout;
+  }
+
+  /** Stops the wheel's thread. Pending tasks never run. */
+  void close() {
+    closed = true;
+    LockSupport.unpark(thread);
+  }
+
+  private void run() {
+    while (!closed) {
+      long tickEnd = (tick + 1) * tickNanos;
+      long sleep = tickEnd - (System.nanoTime() - start);
+      if (sleep > 0) {
+        LockSupport.parkNanos(this, sleep);
+        continue;
+      }
+      addPending();
+      removeCancelled();
+      expire((int) (tick & mask));
+      ++tick;
+    }
+    added.clear();
+    cancelled.clear();
+  }
+
+  /** Puts the timeouts added since the last tick in the buckets of their deadlines. */
+  private void addPending() {
+    Timeout timeout;
+    while ((timeout = added.poll()) != null) {
+      if (timeout.state != Timeout.PENDING) continue;
+      long due = Math.max(timeout.deadline / tickNanos, tick); // the tick it expires on
+      timeout.rounds = (due - tick) / buckets.length;
+      int bucket = (int) (due & mask);
+      timeout.bucket = bucket;
+      timeout.next = buckets[bucket];
+      if (buckets[bucket] != null) buckets[bucket].prev = timeout;
+      buckets[bucket] = timeout;
+    }
+  }
+
+  private void removeCancelled() {
+    Timeout timeout;
+    while ((timeout = cancelled.poll()) != null) if (timeout.bucket >= 0) remove(timeout);
+  }
+
+  /** Runs the tasks in a bucket that are due this turn, and counts down the turns of the others. */
+  private void expire(int bucket) {
+    Timeout timeout = buckets[bucket];
+    while (timeout != null) {
+      Timeout next = timeout.next;
+      if (timeout.rounds > 0) {
+        --timeout.rounds;
+      } else {
+        remove(timeout);
+        if (Timeout.STATE.compareAndSet(timeout, Timeout.PENDING, Timeout.EXPIRED)) {
+          try {
+            timeout.task.run();
+          } catch (Exception e) {
+            e.printStackTrace();
+          }
+        }
+      }
+      timeout = next;
+    }
+  }
+
+  private void remove(Timeout timeout) {
+    if (timeout.prev != null) timeout.prev.next = timeout.next;
+    else buckets[timeout.bucket] = timeout.next;
+    if (timeout.next != null) timeout.next.prev = timeout.prev;
+    timeout.prev = null;
+    timeout.next = null;
+    timeout.bucket = -1;
+  }
+}
@@ -0,0 +1,47 @@
+package edu.psu.cs.irc;
+
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * A token bucket that refills at a steady rate and holds up to a set burst of tokens. It is kept as
+ * a single number, the time at which the bucket would be full again if nothing more were taken, so
+ * taking a token is one compare and set with no lock and no allocation, and an idle bucket costs
+ * nothing to keep.
+ */
+final class TokenBucket {
+  private static final AtomicLongFieldUpdater<TokenBucket> FULL_AT =
+      AtomicLongFieldUpdater.newUpdater(TokenBucket.class, "fullAt");
+
+  private final long interval; // nanoseconds it takes to refill one token
+  private final long capacity; // nanoseconds it takes to refill the whole burst
+  private volatile long fullAt; // System.nanoTime() at which the bucket is full again
+
+  /**
+   * Constructor. The bucket starts out full.
+   *
+   * @param perSecond tokens refilled per second
+   * @param burst most tokens that can be taken at once
+   */
+  TokenBucket(double perSecond, int burst) {
+    interval = Math.max(1, (long) (1_000_000_000L / perSecond));
+    capacity = interval * burst;
+    fullAt = System.nanoTime();
+  }
+
+  /**
+   * Takes a token if there is one.
+   *
+   * @param now the current System.nanoTime()
+   * @return zero if a token was taken, otherwise how many nanoseconds it will take for one to be
+   *     refilled, in which case nothing was taken
+   */
+  long tryTake(long now) {
+    while (true) {
+      long fullAt = this.fullAt;
+      long from = fullAt - now < 0 ? now : fullAt; // a full bucket holds no more than the burst
+      long wait = from + interval - now - capacity;
+      if (wait > 0) return wait;
+      if (FULL_AT.compareAndSet(this, fullAt, from + interval)) return 0;
+    }
+  }
+}
@@ -0,0 +1,70 @@
+package edu.psu.cs.irc;
+
+import static org.junit.Assert.*;
+
+import java.nio.charset.StandardCharsets;
+import org.junit.Test;
+
+public class ChatLogTest {
+  private final FramePool pool = new FramePool("displayToUser", 64, 4);
+
+  /** Relays a message the way the server does, in a frame taken from the pool. */
+  private Frame relayed(String sender, String text) {
+    Frame message = pool.acquire();
+    byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+    message.setBody(bytes, 0, bytes.length);
+    return PacketEncoder.encodeRelay((sender + ": ").getBytes(StandardCharsets.UTF_8), message);
+  }
+
+  @Test
+  public void keepsTheMostRecentLinesOldestFirst() {
+    ChatLog log = new ChatLog(3);
+    for (int i = 1; i <= 5; ++i) log.add("line " + i);
+    assertEquals(5, log.count());
+    assertEquals("line 3\nline 4\nline 5", log.linesSince(0));
+  }
+
+  @Test
+  public void linesSinceOnlyReturnsNewLines() {
+    ChatLog log = new ChatLog(8);
+    log.add("one");
+    log.add("two");
+    long seen = log.count();
+    assertEquals("", log.linesSince(seen));
+    log.add("three");
+    assertEquals("three", log.linesSince(seen));
+  }
+
+  @Test
+  public void relayedMessageIsDecodedWhenRead() {
+    ChatLog log = new ChatLog(4);
+    log.add("welcome");
+    Frame frame = relayed("alice (# 1)", "hello");
+    log.add(frame);
+    frame.release(); // the caller's reference, the log keeps its own
+    assertEquals("welcome\nalice (# 1): hello", log.linesSince(0));
+  }
+
+  @Test
+  public void relayedMessageGoesBackToItsPoolOnceDropped() {
+    ChatLog log = new ChatLog(1);
+    Frame frame = relayed("alice (# 1)", "hello");
+    log.add(frame);
+    frame.release();
+    assertNotSame(frame, pool.acquire());
+    log.add("next");
+    assertSame(frame, pool.acquire());
+  }
+
+  @Test
+  public void clearDropsEveryLineAndItsFrames() {
+    ChatLog log = new ChatLog(4);
+    Frame frame = relayed("alice (# 1)", "hello");
+    log.add(frame);
+    frame.release();
+    log.clear();
+    assertEquals(0, log.count());
+    assertEquals("", log.linesSince(0));
+    assertSame(frame, pool.acquire());
+  }
+}
@@ -0,0 +1,84 @@
+package edu.psu.cs.irc;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.*;
+import org.junit.Test;
+
+public class HistogramTest {
+  private static void assertWithinAnEighth(long expected, long actual) {
+    assertTrue(actual + " is below " + expected, actual >= expected);
+    assertTrue(actual + " is too far above " + expected, actual <= expected + expected / 8);
+  }
+
+  @Test
+  public void emptyHistogramReportsZeros() {
+    Histogram.Snapshot snapshot = new Histogram().snapshot();
+    assertEquals(0, snapshot.getCount());
+    assertEquals(0, snapshot.getP99());
+    assertEquals(0, snapshot.getMax());
+  }
+
+  @Test
+  public void smallValuesAreExact() {
+    Histogram histogram = new Histogram();
+    for (int i = 0; i < 8; ++i) histogram.record(i);
+    Histogram.Snapshot snapshot = histogram.snapshot();
+    assertEquals(8, snapshot.getCount());
+    assertEquals(3, snapshot.getMean());
+    assertEquals(3, snapshot.getP50());
+    assertEquals(7, snapshot.getP99());
+    assertEquals(7, snapshot.getMax());
+  }
+
+  @Test
+  public void percentilesAreNeverOffByMoreThanAnEighth() {
+    Histogram histogram = new Histogram();
+    for (int i = 1; i <= 100_000; ++i) histogram.record(i * 1000L);
+    Histogram.Snapshot snapshot = histogram.snapshot();
+    assertEquals(100_000, snapshot.getCount());
+    assertEquals(50_000_500, snapshot.getMean());
+    assertWithinAnEighth(50_000_000, snapshot.getP50());
+    assertWithinAnEighth(99_000_000, snapshot.getP99());
+    assertWithinAnEighth(99_900_000, snapshot.getP999());
+    assertEquals(100_000_000, snapshot.getMax());
+  }
+
+  @Test
+  public void percentilesNeverExceedTheMaximum() {
+    Histogram histogram = new Histogram();
+    histogram.record(1_000_001);
+    Histogram.Snapshot snapshot = histogram.snapshot();
+    assertEquals(1_000_001, snapshot.getP50());
+    assertEquals(1_000_001, snapshot.getP999());
+  }
+
+  @Test
+  public void extremeValuesAreCounted() {
+    Histogram histogram = new Histogram();
+    histogram.record(-5);
+    histogram.record(Long.MAX_VALUE);
+    Histogram.Snapshot snapshot = histogram.snapshot();
+    assertEquals(2, snapshot.getCount());
+    assertEquals(0, snapshot.getP50());
+    assertEquals(Long.MAX_VALUE, snapshot.getMax());
+  }
+
+  @Test
+  public void concurrentRecordsAreAllCounted() throws Exception {
+    Histogram histogram = new Histogram();
+    ExecutorService threads = Executors.newFixedThreadPool(4);
+    try {
+      for (int t = 0; t < 4; ++t)
+        threads.submit(
+            () -> {
+              for (int i = 0; i < 10_000; ++i) histogram.record(i);
+            });
+      threads.shutdown();
+      assertTrue(threads.awaitTermination(10, TimeUnit.SECONDS));
+    } finally {
+      threads.shutdownNow();
+    }
+    assertEquals(40_000, histogram.snapshot().getCount());
+  }
+}
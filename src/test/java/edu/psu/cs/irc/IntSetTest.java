@@ -0,0 +1,101 @@
+package edu.psu.cs.irc;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+import org.junit.Test;
+
+public class IntSetTest {
+  private static Set<Integer> values(IntSet set) {
+    Set<Integer> values = new HashSet<>();
+    set.forEach(values::add);
+    return values;
+  }
+
+  private static Set<Integer> values(MutableIntSet set) {
+    Set<Integer> values = new HashSet<>();
+    set.forEach(values::add);
+    return values;
+  }
+
+  @Test
+  public void withAndWithoutLeaveTheOriginalUntouched() {
+    IntSet one = IntSet.EMPTY.with(1);
+    IntSet two = one.with(2);
+    assertTrue(one.contains(1));
+    assertFalse(one.contains(2));
+    assertEquals(2, two.size());
+    IntSet back = two.without(1);
+    assertTrue(two.contains(1));
+    assertEquals(Collections.singleton(2), values(back));
+    assertSame(IntSet.EMPTY, back.without(2));
+    assertTrue(IntSet.EMPTY.isEmpty());
+  }
+
+  @Test
+  public void unchangedSetIsReturnedAsIs() {
+    IntSet set = IntSet.EMPTY.with(5);
+    assertSame(set, set.with(5));
+    assertSame(set, set.without(6));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsValuesThatAreNotPositive() {
+    IntSet.EMPTY.with(0);
+  }
+
+  @Test
+  public void holdsManyConsecutiveIds() {
+    IntSet set = IntSet.EMPTY;
+    for (int i = 1; i <= 1000; ++i) set = set.with(i);
+    for (int i = 1; i <= 1000; i += 2) set = set.without(i);
+    assertEquals(500, set.size());
+    for (int i = 1; i <= 1000; ++i) assertEquals(i % 2 == 0, set.contains(i));
+  }
+
+  @Test
+  public void mutableSetAddsAndRemovesInPlace() {
+    MutableIntSet set = new MutableIntSet();
+    assertTrue(set.add(3));
+    assertFalse(set.add(3));
+    assertTrue(set.add(4));
+    assertTrue(set.remove(3));
+    assertFalse(set.remove(3));
+    assertEquals(Collections.singleton(4), values(set));
+    assertTrue(set.remove(4));
+    assertTrue(set.isEmpty());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void mutableSetRejectsValuesThatAreNotPositive() {
+    new MutableIntSet().add(-1);
+  }
+
+  @Test
+  public void mutableSetMatchesAHashSetThroughRandomChanges() {
+    Random random = new Random(42);
+    MutableIntSet set = new MutableIntSet();
+    Set<Integer> expected = new HashSet<>();
+    for (int n = 0; n < 100_000; ++n) {
+      int value = 1 + random.nextInt(500);
+      if (random.nextBoolean()) assertEquals(expected.add(value), set.add(value));
+      else assertEquals(expected.remove(value), set.remove(value));
+      assertEquals(expected.size(), set.size());
+    }
+    for (int i = 1; i <= 500; ++i) assertEquals(expected.contains(i), set.contains(i));
+    assertEquals(expected, values(set));
+  }
+
+  @Test
+  public void roomMembersFollowJoinsAndLeaves() {
+    ServerRoom room = new ServerRoom(1, "lobby", 7);
+    assertTrue(room.contains(7));
+    assertTrue(room.addMember(8));
+    assertFalse(room.addMember(8));
+    assertTrue(room.removeMember(7));
+    assertFalse(room.removeMember(7));
+    assertEquals(1, room.members().size());
+    assertTrue(room.removeMember(8));
+    assertTrue(room.isEmpty());
+  }
+}
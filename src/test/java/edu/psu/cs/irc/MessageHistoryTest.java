@@ -0,0 +1,163 @@
+package edu.psu.cs.irc;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.stream.*;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MessageHistoryTest {
+  @Rule public final TemporaryFolder folder = new TemporaryFolder();
+
+  private static final long NEVER = 3_600_000; // flush interval for tests that read pending records
+
+  private static Frame message(String text) {
+    Packet packet = new Packet();
+    packet.displayToUser(text);
+    return PacketEncoder.encode(packet);
+  }
+
+  /** Returns the texts of the frames read, giving up the references to them. */
+  private static List<String> texts(List<Frame> frames) {
+    List<String> texts = new ArrayList<>();
+    for (Frame frame : frames) {
+      texts.add(frame.relayedText());
+      frame.release();
+    }
+    return texts;
+  }
+
+  private MessageHistory open(long segmentBytes, int maxSegments, long flushMillis)
+      throws IOException {
+    return new MessageHistory(folder.getRoot().toPath(), segmentBytes, maxSegments, flushMillis, 0);
+  }
+
+  private long segmentFiles(int roomid) throws IOException {
+    try (Stream<Path> files = Files.list(folder.getRoot().toPath().resolve("room-" + roomid))) {
+      return files.filter(file -> file.toString().endsWith(".log")).count();
+    }
+  }
+
+  @Test
+  public void readsIncludeMessagesNotWrittenYet() throws IOException {
+    MessageHistory history = open(1 << 20, 4, NEVER);
+    try {
+      for (int i = 0; i < 5; ++i) history.append(3, message("message " + i));
+      assertEquals(Arrays.asList("message 3", "message 4"), texts(history.recent(3, 2)));
+      assertEquals(Arrays.asList("message 1", "message 2"), texts(history.since(3, 1, 2)));
+      assertTrue(history.recent(4, 10).isEmpty());
+    } finally {
+      history.close();
+    }
+  }
+
+  @Test
+  public void broadcastHistorySurvivesARestart() throws IOException {
+    MessageHistory history = open(1 << 20, 4, NEVER);
+    for (int i = 0; i < 100; ++i) history.append(MessageHistory.LOBBY, message("message " + i));
+    history.close();
+
+    history = open(1 << 20, 4, NEVER);
+    try {
+      assertEquals(Arrays.asList("message 98", "message 99"), texts(history.recent(0, 2)));
+      assertEquals(Arrays.asList("message 70", "message 71"), texts(history.since(0, 70, 2)));
+      history.append(MessageHistory.LOBBY, message("after the restart"));
+      assertEquals(
+          Arrays.asList("message 99", "after the restart"), texts(history.since(0, 99, 10)));
+    } finally {
+      history.close();
+    }
+  }
+
+  @Test
+  public void readsWhileWritingSeeEveryMessageOnce() throws Exception {
+    MessageHistory history = open(512, 1000, 1); // forced after every write, chunks of 512 bytes
+    try {
+      int count = 3000;
+      for (int i = 0; i < count; ++i) {
+        history.append(1, message("message " + i));
+        if (i % 100 == 99) {
+          List<String> read = texts(history.since(1, 0, count));
+          assertEquals(i + 1, read.size());
+          for (int j = 0; j < read.size(); ++j) assertEquals("message " + j, read.get(j));
+        }
+        if (i % 10 == 9) Thread.sleep(1); // let the writer catch up with part of what is pending
+      }
+    } finally {
+      history.close();
+    }
+  }
+
+  @Test
+  public void oldestSegmentsAreDeleted() throws IOException {
+    MessageHistory history = open(256, 2, NEVER);
+    for (int i = 0; i < 60; ++i) history.append(MessageHistory.LOBBY, message("message " + i));
+    history.close(); // writes every message out, starting a segment every 256 bytes
+    history = open(256, 2, NEVER);
+    try {
+      assertTrue(segmentFiles(MessageHistory.LOBBY) <= 2);
+      List<String> kept = texts(history.since(MessageHistory.LOBBY, 0, 100));
+      assertFalse(kept.contains("message 0"));
+      assertEquals("message 59", kept.get(kept.size() - 1));
+    } finally {
+      history.close();
+    }
+  }
+
+  @Test
+  public void removedRoomLeavesNothingBehind() throws Exception {
+    MessageHistory history = open(1 << 20, 4, 1);
+    try {
+      history.append(2, message("hello"));
+      Path dir = folder.getRoot().toPath().resolve("room-2");
+      for (int i = 0; i < 500 && !Files.isDirectory(dir); ++i) Thread.sleep(10);
+      assertTrue(Files.isDirectory(dir));
+      history.roomRemoved(2);
+      for (int i = 0; i < 500 && Files.exists(dir); ++i) Thread.sleep(10);
+      assertFalse(Files.exists(dir));
+    } finally {
+      history.close();
+    }
+  }
+
+  @Test
+  public void roomsLeftOpenAreDeletedOnRestart() throws IOException {
+    MessageHistory history = open(1 << 20, 4, NEVER);
+    history.append(5, message("in room 5"));
+    history.append(1 << SlotTable.SLOT_BITS | 2, message("in a later generation of room 2"));
+    history.close();
+
+    history = open(1 << 20, 4, NEVER);
+    try {
+      try (Stream<Path> dirs = Files.list(folder.getRoot().toPath())) {
+        assertEquals(0, dirs.count());
+      }
+      assertTrue(history.recent(5, 10).isEmpty());
+      history.append(5, message("in the new room 5"));
+      assertEquals(Collections.singletonList("in the new room 5"), texts(history.recent(5, 10)));
+    } finally {
+      history.close();
+    }
+  }
+
+  @Test
+  public void strayFilesAreIgnored() throws IOException {
+    Path lobby = Files.createDirectories(folder.getRoot().toPath().resolve("room-0"));
+    Files.createFile(lobby.resolve("notes.log"));
+    Path backup = Files.createDirectories(folder.getRoot().toPath().resolve("room-backup"));
+    MessageHistory history = open(1 << 20, 4, NEVER);
+    try {
+      assertTrue(Files.isDirectory(backup));
+      assertTrue(history.recent(MessageHistory.LOBBY, 10).isEmpty());
+      history.append(MessageHistory.LOBBY, message("hello"));
+      assertEquals(
+          Collections.singletonList("hello"), texts(history.recent(MessageHistory.LOBBY, 10)));
+    } finally {
+      history.close();
+    }
+  }
+}
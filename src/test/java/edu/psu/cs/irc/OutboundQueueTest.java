@@ -0,0 +1,128 @@
+package edu.psu.cs.irc;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import org.junit.Test;
+
+public class OutboundQueueTest {
+  private final FramePool pool = new FramePool("displayToUser", 64, 16);
+
+  private static Frame chat(String text) {
+    Packet packet = new Packet();
+    packet.displayToUser(text);
+    return PacketEncoder.encode(packet);
+  }
+
+  private static Frame control(int version) {
+    Packet packet = new Packet();
+    packet.presenceDelta(version, "+u 1 alice");
+    return PacketEncoder.encode(packet);
+  }
+
+  private static List<String> drain(OutboundQueue queue) {
+    Frame[] batch = new Frame[OutboundQueue.MAX_BATCH_FRAMES];
+    List<String> drained = new ArrayList<>();
+    int count = queue.drainTo(batch, OutboundQueue.MAX_BATCH_BYTES);
+    for (int i = 0; i < count; ++i) {
+      drained.add(batch[i].command.equals("displayToUser") ? batch[i].relayedText() : "control");
+      batch[i].release();
+    }
+    return drained;
+  }
+
+  @Test
+  public void dropOldestMakesRoomByDroppingTheOldestChatMessage() {
+    OutboundQueue queue = new OutboundQueue(3, OutboundQueue.Policy.DROP_OLDEST);
+    assertTrue(queue.offer(chat("one")));
+    assertTrue(queue.offer(control(1)));
+    assertTrue(queue.offer(chat("two")));
+    assertTrue(queue.offer(chat("three")));
+    assertEquals(3, queue.size());
+    assertEquals(Arrays.asList("control", "two", "three"), drain(queue));
+    assertEquals(0, queue.size());
+  }
+
+  @Test
+  public void dropOldestDropsNewChatMessageWhenNothingElseCanGo() {
+    OutboundQueue queue = new OutboundQueue(2, OutboundQueue.Policy.DROP_OLDEST);
+    assertTrue(queue.offer(control(1)));
+    assertTrue(queue.offer(control(2)));
+    Frame pooled = pool.acquire();
+    pooled.setBody(new byte[] {0, 0, 0, 2, 0, 1}, 0, 6);
+    assertTrue(queue.offer(pooled)); // accepted, and dropped straight away
+    assertSame(pooled, pool.acquire()); // released back to its pool
+    assertEquals(2, queue.size());
+  }
+
+  @Test
+  public void dropOldestDisconnectsWhenOnlyControlFramesAreQueued() {
+    OutboundQueue queue = new OutboundQueue(2, OutboundQueue.Policy.DROP_OLDEST);
+    assertTrue(queue.offer(control(1)));
+    assertTrue(queue.offer(control(2)));
+    assertFalse(queue.offer(control(3)));
+    assertEquals(2, queue.size());
+  }
+
+  @Test
+  public void disconnectRefusesFramesOnceFull() {
+    OutboundQueue queue = new OutboundQueue(2, OutboundQueue.Policy.DISCONNECT);
+    assertTrue(queue.offer(chat("one")));
+    assertTrue(queue.offer(chat("two")));
+    assertFalse(queue.offer(chat("three")));
+    assertEquals(Arrays.asList("one", "two"), drain(queue));
+    assertTrue(queue.offer(chat("four")));
+  }
+
+  @Test
+  public void blockWaitsForTheWriterToMakeRoom() throws Exception {
+    OutboundQueue queue = new OutboundQueue(1, OutboundQueue.Policy.BLOCK);
+    assertTrue(queue.offer(chat("one")));
+    ExecutorService sender = Executors.newSingleThreadExecutor();
+    try {
+      Future<Boolean> offered = sender.submit(() -> queue.offer(chat("two")));
+      Thread.sleep(50);
+      assertFalse(offered.isDone());
+      assertEquals(Collections.singletonList("one"), drain(queue));
+      assertTrue(offered.get(5, TimeUnit.SECONDS));
+      assertEquals(Collections.singletonList("two"), drain(queue));
+    } finally {
+      sender.shutdownNow();
+    }
+  }
+
+  @Test
+  public void batchStopsAtTheByteLimitButAlwaysTakesOneFrame() {
+    OutboundQueue queue = new OutboundQueue(8, OutboundQueue.Policy.DISCONNECT);
+    for (int i = 0; i < 3; ++i) queue.offer(chat("message " + i));
+    Frame[] batch = new Frame[8];
+    assertEquals(1, queue.drainTo(batch, 1));
+    assertEquals(2, queue.drainTo(batch, 2 * batch[0].length()));
+    assertEquals(0, queue.drainTo(batch, OutboundQueue.MAX_BATCH_BYTES));
+  }
+
+  @Test
+  public void closedQueueHandsOutWhatIsLeftThenStops() throws InterruptedException {
+    OutboundQueue queue = new OutboundQueue(4, OutboundQueue.Policy.DISCONNECT);
+    queue.offer(chat("one"));
+    queue.close();
+    assertTrue(queue.offer(chat("late"))); // silently discarded
+    Frame[] batch = new Frame[4];
+    assertEquals(1, queue.takeBatch(batch, OutboundQueue.MAX_BATCH_BYTES));
+    assertEquals("one", batch[0].relayedText());
+    assertEquals(0, queue.takeBatch(batch, OutboundQueue.MAX_BATCH_BYTES));
+  }
+
+  @Test
+  public void divertHandsOverQueuedAndLaterFramesInOrder() {
+    OutboundQueue queue = new OutboundQueue(4, OutboundQueue.Policy.DISCONNECT);
+    queue.offer(chat("one"));
+    queue.offer(chat("two"));
+    List<String> diverted = new ArrayList<>();
+    queue.divert(frame -> diverted.add(frame.relayedText()));
+    queue.offer(chat("three"));
+    assertEquals(Arrays.asList("one", "two", "three"), diverted);
+    assertEquals(0, queue.size());
+  }
+}
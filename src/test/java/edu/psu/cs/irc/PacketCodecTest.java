@@ -0,0 +1,116 @@
+package edu.psu.cs.irc;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import org.junit.Test;
+
+public class PacketCodecTest {
+  private final PacketDecoder decoder = new PacketDecoder(PacketDecoder.SERVER_MAX_FRAME_LENGTH);
+
+  @Test
+  public void roundTripsCommandTargetAndMessage() throws IOException {
+    Packet packet = new Packet();
+    packet.resumeSession("Welcome back, h\u00e9l\u00e8ne!", 300);
+    Packet decoded = decoder.decode(PacketEncoder.encode(packet).view());
+    assertEquals("resumeSession", decoded.command);
+    assertEquals(300, decoded.targetid);
+    assertEquals("Welcome back, h\u00e9l\u00e8ne!", decoded.message);
+  }
+
+  @Test
+  public void unsetTargetTakesOneByte() throws IOException {
+    Packet packet = new Packet();
+    packet.leaveServer();
+    Frame frame = PacketEncoder.encode(packet);
+    assertEquals(4 + 2, frame.length());
+    assertEquals(-1, decoder.decode(frame.view()).targetid);
+  }
+
+  @Test
+  public void partialFrameIsLeftInTheBuffer() throws IOException {
+    Packet packet = new Packet();
+    packet.joinServer("alice");
+    ByteBuffer whole = PacketEncoder.encode(packet).view();
+    ByteBuffer partial = ByteBuffer.wrap(whole.array(), whole.position(), whole.remaining() - 1);
+    assertNull(decoder.decode(partial));
+    assertEquals(whole.position(), partial.position());
+    assertNull(decoder.decode(ByteBuffer.wrap(new byte[3])));
+  }
+
+  @Test
+  public void decodesBackToBackFrames() throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(256);
+    for (int i = 1; i <= 3; ++i) {
+      Packet packet = new Packet();
+      packet.joinRoom(i);
+      PacketEncoder.encode(packet).copyTo(buffer);
+    }
+    buffer.flip();
+    for (int i = 1; i <= 3; ++i) assertEquals(i, decoder.decode(buffer).targetid);
+    assertFalse(buffer.hasRemaining());
+  }
+
+  @Test(expected = StreamCorruptedException.class)
+  public void rejectsFrameLongerThanTheMaximum() throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(8);
+    buffer.putInt(PacketDecoder.SERVER_MAX_FRAME_LENGTH + 1).flip();
+    decoder.decode(buffer); // rejected from the length alone, before the frame has arrived
+  }
+
+  @Test(expected = StreamCorruptedException.class)
+  public void rejectsFrameTooShortForAnOpcodeAndTarget() throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(8);
+    buffer.putInt(1).put((byte) 0).flip();
+    decoder.decode(buffer);
+  }
+
+  @Test(expected = StreamCorruptedException.class)
+  public void streamReadRejectsFrameLongerThanTheMaximum() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    new DataOutputStream(bytes).writeInt(Integer.MAX_VALUE);
+    decoder.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+  }
+
+  @Test(expected = StreamCorruptedException.class)
+  public void rejectsTargetLongerThanFiveBytes() throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(16);
+    buffer.putInt(7).put((byte) PacketEncoder.opcode("joinRoom"));
+    for (int i = 0; i < 6; ++i) buffer.put((byte) 0xff);
+    buffer.flip();
+    decoder.decode(buffer);
+  }
+
+  @Test(expected = StreamCorruptedException.class)
+  public void rejectsTargetRunningPastTheFrame() throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(16);
+    buffer.putInt(2).put((byte) PacketEncoder.opcode("joinRoom")).put((byte) 0x80).flip();
+    decoder.decode(buffer);
+  }
+
+  @Test(expected = StreamCorruptedException.class)
+  public void rejectsUnknownOpcode() throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(8);
+    buffer.putInt(2).put((byte) Packet.COMMANDS.length).put((byte) 1).flip();
+    decoder.decode(buffer);
+  }
+
+  @Test
+  public void relaysChatMessageWithSenderPrefix() throws IOException {
+    Packet packet = new Packet();
+    packet.sendMessageRoom(7, "hello room");
+    Packet received = decoder.decode(PacketEncoder.encode(packet).view());
+    assertEquals(7, received.targetid);
+    assertNull(received.message); // kept encoded, only relayed
+    byte[] prefix = "alice (# 1) in room 7: ".getBytes(StandardCharsets.UTF_8);
+    Frame relayed = PacketEncoder.encodeRelay(prefix, received.body);
+    Packet shown = new PacketDecoder(PacketDecoder.CLIENT_MAX_FRAME_LENGTH).decode(relayed.view());
+    assertEquals("displayToUser", shown.command);
+    assertEquals(-1, shown.targetid);
+    assertEquals("alice (# 1) in room 7: hello room", shown.message);
+    assertEquals(shown.message, relayed.relayedText());
+    relayed.release();
+  }
+}
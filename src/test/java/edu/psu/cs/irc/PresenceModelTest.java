@@ -0,0 +1,76 @@
+package edu.psu.cs.irc;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class PresenceModelTest {
+  private static String events(String... events) {
+    return String.join("\n", events);
+  }
+
+  @Test
+  public void listsUsersAndRoomMembers() {
+    PresenceModel model = new PresenceModel();
+    model.apply(
+        events(
+            PresenceModel.userJoined(1, "alice"),
+            PresenceModel.userJoined(2, "bob"),
+            PresenceModel.roomCreated(7, "lobby"),
+            PresenceModel.memberAdded(7, 2)));
+    assertEquals("2 USERS\n\n# 1 alice\n# 2 bob", model.userListing());
+    assertEquals("1 ROOMS\n\n# 7 lobby\n   # 2 bob", model.roomListing());
+  }
+
+  @Test
+  public void userLeavingTheServerLeavesEveryRoom() {
+    PresenceModel model = new PresenceModel();
+    model.apply(events("+u 1 alice", "+r 7 lobby", "+r 8 den", "+m 7 1", "+m 8 1"));
+    model.apply(PresenceModel.userLeft(1));
+    assertEquals("0 USERS\n", model.userListing());
+    assertEquals("2 ROOMS\n\n# 7 lobby\n# 8 den", model.roomListing());
+  }
+
+  @Test
+  public void applyingEventsTwiceChangesNothing() {
+    String events = events("+u 1 alice", "+r 7 lobby", "+m 7 1", "-m 7 1", "+m 7 1", "-r 9");
+    PresenceModel once = new PresenceModel();
+    once.apply(events);
+    PresenceModel twice = new PresenceModel();
+    twice.apply(events);
+    twice.apply(events);
+    assertEquals(once.snapshot(), twice.snapshot());
+  }
+
+  @Test
+  public void snapshotRebuildsTheSameLists() {
+    PresenceModel model = new PresenceModel();
+    model.apply(events("+u 2 bob", "+u 1 alice", "+r 7 lobby", "+m 7 1", "+m 7 2", "-u 2"));
+    PresenceModel rebuilt = new PresenceModel();
+    rebuilt.apply(model.snapshot());
+    assertEquals(model.userListing(), rebuilt.userListing());
+    assertEquals(model.roomListing(), rebuilt.roomListing());
+    rebuilt.clear();
+    assertEquals("", rebuilt.snapshot());
+  }
+
+  @Test
+  public void namesCannotStartAnotherEvent() {
+    PresenceModel model = new PresenceModel();
+    model.apply(PresenceModel.userJoined(1, "alice\n-u 1"));
+    assertEquals("1 USERS\n\n# 1 alice -u 1", model.userListing());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsUnknownEvents() {
+    new PresenceModel().apply("*u 1 alice");
+  }
+
+  @Test
+  public void eventsAboutTheSameEntityShareAKey() {
+    assertEquals(PresenceModel.entityOf("+u 1 alice"), PresenceModel.entityOf("-u 1"));
+    assertEquals(PresenceModel.entityOf("+m 7 1"), PresenceModel.entityOf("-m 7 1"));
+    assertNotEquals(PresenceModel.entityOf("+u 1 alice"), PresenceModel.entityOf("+r 1 lobby"));
+    assertNotEquals(PresenceModel.entityOf("+m 7 1"), PresenceModel.entityOf("+m 7 2"));
+  }
+}
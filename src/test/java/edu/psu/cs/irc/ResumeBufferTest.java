@@ -0,0 +1,136 @@
+package edu.psu.cs.irc;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+import org.junit.Test;
+
+public class ResumeBufferTest {
+  /** A session that only remembers the text of every frame sent to it. */
+  private static final class Recorder extends Session {
+    final List<String> received = new ArrayList<>();
+
+    Recorder() {
+      super(new OutboundQueue(16, OutboundQueue.Policy.DISCONNECT));
+    }
+
+    @Override
+    void sendFrame(Frame frame) {
+      received.add(frame.relayedText());
+    }
+
+    @Override
+    void framesQueued() {}
+
+    @Override
+    void close() {}
+
+    @Override
+    void abort() {}
+  }
+
+  private static Frame frame(String text) {
+    Packet packet = new Packet();
+    packet.displayToUser(text);
+    return PacketEncoder.encode(packet);
+  }
+
+  private static void write(ResumeBuffer buffer, String... texts) {
+    for (String text : texts) buffer.frameWritten(frame(text));
+  }
+
+  private static void drop(ResumeBuffer buffer, String... unwritten) {
+    assertTrue(buffer.detach());
+    List<Frame> frames = new ArrayList<>();
+    for (String text : unwritten) frames.add(frame(text));
+    buffer.writerStopped(frames);
+  }
+
+  @Test
+  public void replaysWhatTheClientMissedThenWhatWasHeld() {
+    ResumeBuffer buffer = new ResumeBuffer(8);
+    write(buffer, "one", "two", "three");
+    drop(buffer, "four");
+    buffer.hold(frame("five"));
+    Recorder successor = new Recorder();
+    assertTrue(buffer.resume(1, successor, frame("welcome back")));
+    assertEquals(Arrays.asList("welcome back", "two", "three", "four", "five"), successor.received);
+  }
+
+  @Test
+  public void passesOnFramesSentAfterTheResume() {
+    ResumeBuffer buffer = new ResumeBuffer(8);
+    write(buffer, "one");
+    drop(buffer);
+    Recorder successor = new Recorder();
+    assertTrue(buffer.resume(1, successor, frame("welcome back")));
+    buffer.hold(frame("late"));
+    assertEquals(Arrays.asList("welcome back", "late"), successor.received);
+    assertFalse(buffer.isDetached());
+  }
+
+  @Test
+  public void waitsForTheWriterToStop() {
+    ResumeBuffer buffer = new ResumeBuffer(8);
+    write(buffer, "one");
+    assertTrue(buffer.awaitingDetach());
+    assertTrue(buffer.detach());
+    assertTrue(buffer.awaitingDetach());
+    assertFalse(buffer.resume(0, new Recorder(), frame("welcome back")));
+    buffer.writerStopped(Collections.emptyList());
+    assertFalse(buffer.awaitingDetach());
+    assertTrue(buffer.resume(0, new Recorder(), frame("welcome back")));
+  }
+
+  @Test
+  public void refusesWhenMissedFramesHaveLeftTheRing() {
+    ResumeBuffer buffer = new ResumeBuffer(2);
+    write(buffer, "one", "two", "three", "four");
+    drop(buffer);
+    Recorder successor = new Recorder();
+    assertFalse(buffer.resume(1, successor, frame("welcome back")));
+    assertTrue(successor.received.isEmpty());
+    assertTrue(buffer.resume(2, successor, frame("welcome back")));
+    assertEquals(Arrays.asList("welcome back", "three", "four"), successor.received);
+  }
+
+  @Test
+  public void refusesAClientClaimingToHaveReadMoreThanWasWritten() {
+    ResumeBuffer buffer = new ResumeBuffer(4);
+    write(buffer, "one");
+    drop(buffer);
+    assertFalse(buffer.resume(2, new Recorder(), frame("welcome back")));
+  }
+
+  @Test
+  public void tooManyHeldFramesEndTheChanceOfAResume() {
+    ResumeBuffer buffer = new ResumeBuffer(2);
+    drop(buffer);
+    for (int i = 0; i < 3; ++i) buffer.hold(frame("held " + i));
+    assertFalse(buffer.isDetached());
+    assertFalse(buffer.resume(0, new Recorder(), frame("welcome back")));
+  }
+
+  @Test
+  public void numbersFramesOnFromTheResumedConnection() {
+    ResumeBuffer buffer = new ResumeBuffer(4);
+    buffer.continueFrom(10);
+    write(buffer, "eleven", "twelve");
+    drop(buffer);
+    Recorder successor = new Recorder();
+    assertTrue(buffer.resume(11, successor, frame("welcome back")));
+    assertEquals(Arrays.asList("welcome back", "twelve"), successor.received);
+  }
+
+  @Test
+  public void givesUpItsReferencesOnceEnded() {
+    FramePool pool = new FramePool("displayToUser", 64, 4);
+    Frame pooled = pool.acquire();
+    ResumeBuffer buffer = new ResumeBuffer(4);
+    buffer.frameWritten(pooled);
+    pooled.release(); // the writer's reference
+    assertNotSame(pooled, pool.acquire());
+    buffer.end();
+    assertSame(pooled, pool.acquire());
+  }
+}
@@ -0,0 +1,86 @@
+package edu.psu.cs.irc;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.concurrent.*;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ServerConfigTest {
+  @Rule public final TemporaryFolder folder = new TemporaryFolder();
+
+  private ServerConfig load(String properties, String... args) throws IOException {
+    File file = folder.newFile();
+    try (Writer out = new FileWriter(file)) {
+      out.write(properties);
+    }
+    String[] all = new String[args.length + 2];
+    all[0] = "--config";
+    all[1] = file.getPath();
+    System.arraycopy(args, 0, all, 2, args.length);
+    return ServerConfig.fromArgs(all);
+  }
+
+  @Test
+  public void defaultExecutorIsNotCapped() throws IOException {
+    ServerConfig config = load("");
+    assertEquals(ExecutorStrategy.CACHED, config.executor);
+    assertFalse(config.executor.isPooled());
+    assertNull(config.historyDir);
+  }
+
+  @Test
+  public void readsExecutorNamesWrittenWithDashes() throws IOException {
+    ServerConfig config = load("irc.executor=work-stealing\nirc.threadLimit=8\n");
+    assertEquals(ExecutorStrategy.WORK_STEALING, config.executor);
+    assertTrue(config.executor.isPooled());
+    assertEquals(8, config.threadLimit);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void pooledExecutorNeedsTwoThreadsForAUser() throws IOException {
+    load("irc.executor=fixed\nirc.threadLimit=1\n");
+  }
+
+  @Test
+  public void threadLimitIsIgnoredWhenNotPooled() throws IOException {
+    assertEquals(1, load("irc.executor=cached\nirc.threadLimit=1\n").threadLimit);
+  }
+
+  @Test
+  public void argumentsOverrideTheConfigFile() throws IOException {
+    assertEquals(9001, load("irc.port=9000\n", "--port", "9001").port);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsUnknownArguments() throws IOException {
+    ServerConfig.fromArgs(new String[] {"--verbose"});
+  }
+
+  @Test
+  public void fixedExecutorRunsNoMoreThanItsLimitAtOnce() throws Exception {
+    ExecutorService executor = ExecutorStrategy.FIXED.newExecutor(2);
+    try {
+      CountDownLatch started = new CountDownLatch(3);
+      CountDownLatch release = new CountDownLatch(1);
+      for (int i = 0; i < 3; ++i)
+        executor.execute(
+            () -> {
+              started.countDown();
+              try {
+                release.await();
+              } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+              }
+            });
+      assertFalse(started.await(100, TimeUnit.MILLISECONDS));
+      assertEquals(1, started.getCount());
+      release.countDown();
+      assertTrue(started.await(5, TimeUnit.SECONDS));
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+}
@@ -0,0 +1,95 @@
+package edu.psu.cs.irc;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+import org.junit.Test;
+
+public class SessionRegistryTest {
+  private final SessionRegistry registry = new SessionRegistry();
+
+  private static Session session() {
+    return new Session(new OutboundQueue(16, OutboundQueue.Policy.DISCONNECT)) {
+      @Override
+      void framesQueued() {}
+
+      @Override
+      void close() {}
+
+      @Override
+      void abort() {}
+    };
+  }
+
+  @Test
+  public void registeredSessionsAreFoundByTheirId() {
+    Session alice = session();
+    Session bob = session();
+    int aliceId = registry.register(alice);
+    int bobId = registry.register(bob);
+    assertNotEquals(aliceId, bobId);
+    assertSame(alice, registry.session(aliceId));
+    assertSame(bob, registry.session(bobId));
+    assertEquals(2, registry.sessionCount());
+    assertEquals(new HashSet<>(Arrays.asList(alice, bob)), new HashSet<>(registry.sessions()));
+  }
+
+  @Test
+  public void onlyTheFirstUnregisterGetsTheSession() {
+    Session alice = session();
+    int id = registry.register(alice);
+    assertSame(alice, registry.unregister(id));
+    assertNull(registry.unregister(id));
+    assertNull(registry.session(id));
+    assertEquals(0, registry.sessionCount());
+  }
+
+  @Test
+  public void idOfALeftUserIsNotHandedToTheNext() {
+    int left = registry.register(session());
+    registry.unregister(left);
+    Session next = session();
+    assertNotEquals(left, registry.register(next));
+    assertNull(registry.session(left));
+  }
+
+  @Test
+  public void newTokenReplacesTheOldOne() {
+    Session alice = session();
+    registry.register(alice);
+    registry.setToken(alice, "first");
+    registry.setToken(alice, "second");
+    assertNull(registry.sessionForToken("first"));
+    assertSame(alice, registry.sessionForToken("second"));
+    assertNull(registry.sessionForToken(null));
+    registry.unregister(alice.id);
+    assertNull(registry.sessionForToken("second"));
+  }
+
+  @Test
+  public void successorTakesOverTheUsersIdNameAndRooms() {
+    Session dropped = session();
+    int id = registry.register(dropped);
+    dropped.username = "alice";
+    dropped.roomJoined(5);
+    registry.setToken(dropped, "token");
+    Session successor = session();
+    int successorId = registry.register(successor);
+    assertTrue(registry.resume(dropped, successor));
+    assertEquals(id, successor.id);
+    assertEquals("alice", successor.username);
+    assertTrue(successor.rooms().contains(5));
+    assertSame(successor, registry.session(id));
+    assertNull(registry.session(successorId));
+    assertNull(registry.sessionForToken("token"));
+    assertEquals(1, registry.sessionCount());
+    assertFalse(registry.resume(dropped, session()));
+  }
+
+  @Test
+  public void roomIdsStartAtOneOnEveryStart() {
+    assertEquals(1, registry.nextRoomId());
+    assertEquals(1, new SessionRegistry().nextRoomId());
+    assertEquals(0, registry.roomCount());
+  }
+}
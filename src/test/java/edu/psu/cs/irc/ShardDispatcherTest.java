@@ -0,0 +1,121 @@
+package edu.psu.cs.irc;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import org.junit.After;
+import org.junit.Test;
+
+public class ShardDispatcherTest {
+  private final SlotTable<ServerRoom> rooms = new SlotTable<>(room -> room.id);
+  private final ShardDispatcher shards = new ShardDispatcher(2, rooms);
+
+  @After
+  public void close() {
+    shards.close();
+  }
+
+  private static Session session(int id) {
+    Session session =
+        new Session(new OutboundQueue(16, OutboundQueue.Policy.DISCONNECT)) {
+          @Override
+          void framesQueued() {}
+
+          @Override
+          void close() {}
+
+          @Override
+          void abort() {}
+        };
+    session.id = id;
+    return session;
+  }
+
+  @Test
+  public void commandsWithTheSameKeyRunInOrderOnOneThread() throws InterruptedException {
+    shards.start();
+    List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+    Set<Thread> threads = ConcurrentHashMap.newKeySet();
+    CountDownLatch done = new CountDownLatch(1000);
+    for (int i = 0; i < 1000; ++i) {
+      int n = i;
+      shards.execute(
+          3,
+          shard -> {
+            order.add(n);
+            threads.add(Thread.currentThread());
+            done.countDown();
+          });
+    }
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    for (int i = 0; i < 1000; ++i) assertEquals(i, (int) order.get(i));
+    assertEquals(1, threads.size());
+  }
+
+  @Test
+  public void forwardingToTheSameShardRunsStraightAway() throws Exception {
+    shards.start();
+    CompletableFuture<Boolean> ranInline = new CompletableFuture<>();
+    shards.execute(
+        4,
+        shard -> {
+          boolean[] ran = new boolean[1];
+          shards.forward(shard, 6, owner -> ran[0] = owner == shard);
+          ranInline.complete(ran[0]);
+        });
+    assertTrue(ranInline.get(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void senderCommandsForwardedToAnotherShardKeepTheirOrder() throws InterruptedException {
+    shards.start();
+    List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+    CountDownLatch done = new CountDownLatch(500);
+    for (int i = 0; i < 500; ++i) {
+      int n = i;
+      // handled like a user's packet: on the sender's shard first, then on the room's
+      shards.execute(
+          2,
+          shard ->
+              shards.forward(
+                  shard,
+                  1,
+                  owner -> {
+                    order.add(n);
+                    done.countDown();
+                  }));
+    }
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    for (int i = 0; i < 500; ++i) assertEquals(i, (int) order.get(i));
+  }
+
+  @Test
+  public void roomIsDroppedOnceItsLastMemberLeaves() {
+    RoomShard shard = new RoomShard(0, rooms);
+    Session alice = session(1);
+    Session bob = session(2);
+    int roomid = rooms.reserve();
+    ServerRoom room = shard.createRoom(roomid, "lobby", alice);
+    assertSame(room, shard.room(roomid));
+    assertTrue(alice.rooms().contains(roomid));
+    assertTrue(shard.joinRoom(room, bob));
+    assertFalse(shard.joinRoom(room, bob));
+    assertTrue(shard.leaveRoom(room, alice));
+    assertFalse(alice.rooms().contains(roomid));
+    assertSame(room, shard.room(roomid));
+    assertTrue(shard.leaveRoom(room, bob));
+    assertNull(shard.room(roomid));
+    assertFalse(shard.leaveRoom(room, bob));
+  }
+
+  @Test
+  public void closedShardDropsNewCommands() throws InterruptedException {
+    RoomShard shard = new RoomShard(0, rooms);
+    shard.start();
+    shard.close();
+    CountDownLatch ran = new CountDownLatch(1);
+    shard.execute(s -> ran.countDown());
+    assertFalse(ran.await(100, TimeUnit.MILLISECONDS));
+  }
+}
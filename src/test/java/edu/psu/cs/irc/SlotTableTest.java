@@ -0,0 +1,107 @@
+package edu.psu.cs.irc;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+import org.junit.Test;
+
+public class SlotTableTest {
+  /** A value that knows its own id, as sessions and rooms do. */
+  private static final class Entry {
+    final int id;
+
+    Entry(int id) {
+      this.id = id;
+    }
+  }
+
+  private final SlotTable<Entry> table = new SlotTable<>(entry -> entry.id);
+
+  private Entry add() {
+    Entry entry = new Entry(table.reserve());
+    assertTrue(table.set(entry.id, entry));
+    return entry;
+  }
+
+  @Test
+  public void idsStartAtOneAndLookUpTheirValues() {
+    Entry first = add();
+    Entry second = add();
+    assertEquals(1, first.id); // first slot, first generation
+    assertEquals(2, second.id);
+    assertSame(first, table.get(first.id));
+    assertSame(second, table.get(second.id));
+    assertNull(table.get(0));
+    assertNull(table.get(3));
+    assertEquals(2, table.size());
+  }
+
+  @Test
+  public void freedSlotIsReusedUnderTheNextGeneration() {
+    Entry old = add();
+    assertSame(old, table.remove(old.id));
+    Entry reused = add();
+    assertEquals(old.id, reused.id & ((1 << SlotTable.SLOT_BITS) - 1)); // same slot
+    assertEquals(1, reused.id >>> SlotTable.SLOT_BITS);
+    assertNull(table.get(old.id)); // a stale id finds nothing, not the slot's new value
+    assertSame(reused, table.get(reused.id));
+  }
+
+  @Test
+  public void onlyOneCallerFreesAnId() {
+    Entry entry = add();
+    assertSame(entry, table.remove(entry.id));
+    assertNull(table.remove(entry.id));
+    assertFalse(table.set(entry.id, entry));
+    assertEquals(0, table.size());
+  }
+
+  @Test
+  public void reservedIdHasNoValueUntilSet() {
+    int id = table.reserve();
+    assertNull(table.get(id));
+    assertEquals(0, table.size());
+    assertNull(table.remove(id));
+    assertFalse(table.set(id, new Entry(id)));
+  }
+
+  @Test
+  public void replaceOnlySwapsTheExpectedValue() {
+    Entry entry = add();
+    Entry successor = new Entry(entry.id);
+    assertFalse(table.replace(entry.id, new Entry(entry.id), successor));
+    assertTrue(table.replace(entry.id, entry, successor));
+    assertSame(successor, table.get(entry.id));
+    assertEquals(1, table.size());
+  }
+
+  @Test
+  public void slotIsRetiredOnceEveryGenerationHasBeenUsed() {
+    Set<Integer> ids = new HashSet<>();
+    int id = table.reserve();
+    while ((id & ((1 << SlotTable.SLOT_BITS) - 1)) == 1) {
+      assertTrue(id > 0);
+      assertTrue(ids.add(id));
+      table.remove(id);
+      id = table.reserve();
+    }
+    assertEquals((Integer.MAX_VALUE >>> SlotTable.SLOT_BITS) + 1, ids.size()); // every generation
+    assertEquals(2, id); // slot 1 is never handed out again
+  }
+
+  @Test
+  public void growsAndListsEveryValueHeld() {
+    Set<Entry> expected = new HashSet<>();
+    for (int i = 0; i < 100; ++i) expected.add(add());
+    for (Iterator<Entry> it = expected.iterator(); it.hasNext(); ) {
+      Entry entry = it.next();
+      if (entry.id % 3 == 0) {
+        table.remove(entry.id);
+        it.remove();
+      }
+    }
+    assertEquals(expected.size(), table.size());
+    assertEquals(expected, new HashSet<>(table.values()));
+    for (Entry entry : expected) assertSame(entry, table.get(entry.id));
+  }
+}
@@ -0,0 +1,88 @@
+package edu.psu.cs.irc;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Test;
+
+public class TimerWheelTest {
+  private final TimerWheel wheel = new TimerWheel("test-wheel", 1, 8); // a turn takes 8 ms
+
+  @After
+  public void close() {
+    wheel.close();
+  }
+
+  @Test
+  public void runsTaskOnceItsDelayHasPassed() throws InterruptedException {
+    CountDownLatch ran = new CountDownLatch(1);
+    long start = System.nanoTime();
+    wheel.schedule(ran::countDown, 30, TimeUnit.MILLISECONDS);
+    assertTrue(ran.await(5, TimeUnit.SECONDS));
+    assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(29)); // within a tick
+  }
+
+  @Test
+  public void cancelledTaskNeverRuns() throws InterruptedException {
+    AtomicInteger runs = new AtomicInteger();
+    TimerWheel.Timeout timeout = wheel.schedule(runs::incrementAndGet, 20, TimeUnit.MILLISECONDS);
+    assertTrue(timeout.cancel());
+    assertFalse(timeout.cancel());
+    Thread.sleep(60);
+    assertEquals(0, runs.get());
+  }
+
+  @Test
+  public void taskThatHasRunCannotBeCancelled() throws InterruptedException {
+    CountDownLatch ran = new CountDownLatch(1);
+    TimerWheel.Timeout timeout = wheel.schedule(ran::countDown, 0, TimeUnit.MILLISECONDS);
+    assertTrue(ran.await(5, TimeUnit.SECONDS));
+    assertFalse(timeout.cancel());
+  }
+
+  @Test
+  public void taskCanScheduleItselfAgain() throws InterruptedException {
+    CountDownLatch ran = new CountDownLatch(5);
+    Runnable[] task = new Runnable[1];
+    task[0] =
+        () -> {
+          ran.countDown();
+          if (ran.getCount() > 0) wheel.schedule(task[0], 3, TimeUnit.MILLISECONDS);
+        };
+    wheel.schedule(task[0], 3, TimeUnit.MILLISECONDS);
+    assertTrue(ran.await(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void deadlinesSeveralTurnsAwayWaitForTheirTurn() throws InterruptedException {
+    int count = 20;
+    CountDownLatch ran = new CountDownLatch(count);
+    ConcurrentLinkedQueue<Long> early = new ConcurrentLinkedQueue<>();
+    long start = System.nanoTime();
+    for (int i = 0; i < count; ++i) {
+      long delay = TimeUnit.MILLISECONDS.toNanos(3 * i + 1); // up to seven turns of the wheel
+      wheel.schedule(
+          () -> {
+            long late = System.nanoTime() - start - delay;
+            if (late < -TimeUnit.MILLISECONDS.toNanos(1)) early.add(late);
+            ran.countDown();
+          },
+          delay,
+          TimeUnit.NANOSECONDS);
+    }
+    assertTrue(ran.await(5, TimeUnit.SECONDS));
+    assertTrue("ran early by " + early, early.isEmpty());
+  }
+
+  @Test
+  public void closedWheelRunsNothing() throws InterruptedException {
+    AtomicInteger runs = new AtomicInteger();
+    wheel.schedule(runs::incrementAndGet, 20, TimeUnit.MILLISECONDS);
+    wheel.close();
+    wheel.schedule(runs::incrementAndGet, 0, TimeUnit.MILLISECONDS);
+    Thread.sleep(60);
+    assertEquals(0, runs.get());
+  }
+}
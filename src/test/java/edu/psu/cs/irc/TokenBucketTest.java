@@ -0,0 +1,72 @@
+package edu.psu.cs.irc;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class TokenBucketTest {
+  private static final long INTERVAL = 100_000_000L; // ten tokens a second
+
+  @Test
+  public void startsFullThenMakesTheSenderWait() {
+    TokenBucket bucket = new TokenBucket(10, 3);
+    long now = System.nanoTime();
+    for (int i = 0; i < 3; ++i) assertEquals(0, bucket.tryTake(now));
+    assertEquals(INTERVAL, bucket.tryTake(now));
+    assertEquals(INTERVAL / 2, bucket.tryTake(now + INTERVAL / 2));
+  }
+
+  @Test
+  public void refillsOneTokenPerInterval() {
+    TokenBucket bucket = new TokenBucket(10, 3);
+    long now = System.nanoTime();
+    for (int i = 0; i < 3; ++i) bucket.tryTake(now);
+    assertEquals(0, bucket.tryTake(now + INTERVAL));
+    assertTrue(bucket.tryTake(now + INTERVAL) > 0);
+    assertEquals(0, bucket.tryTake(now + 3 * INTERVAL));
+    assertEquals(0, bucket.tryTake(now + 3 * INTERVAL));
+    assertTrue(bucket.tryTake(now + 3 * INTERVAL) > 0);
+  }
+
+  @Test
+  public void idleBucketHoldsNoMoreThanTheBurst() {
+    TokenBucket bucket = new TokenBucket(10, 3);
+    long later = System.nanoTime() + 60_000_000_000L;
+    for (int i = 0; i < 3; ++i) assertEquals(0, bucket.tryTake(later));
+    assertEquals(INTERVAL, bucket.tryTake(later));
+  }
+
+  @Test
+  public void everyCommandHasAClass() {
+    assertEquals(FloodControl.CommandClass.CHAT, FloodControl.classOf("sendMessageRoom"));
+    assertEquals(FloodControl.CommandClass.ROOMS, FloodControl.classOf("joinRoom"));
+    assertEquals(FloodControl.CommandClass.PRESENCE, FloodControl.classOf("presenceResync"));
+    assertEquals(FloodControl.CommandClass.OTHER, FloodControl.classOf("pong"));
+    assertEquals(FloodControl.CommandClass.OTHER, FloodControl.classOf("displayToUser"));
+  }
+
+  @Test
+  public void commandsAreCountedAgainstTheirOwnClass() {
+    ServerConfig config = new ServerConfig();
+    config.rateChat = 10;
+    config.rateChatBurst = 1;
+    config.rateOther = 10;
+    config.rateOtherBurst = 2;
+    FloodControl.Buckets buckets = new FloodControl(config).newBuckets();
+    long now = System.nanoTime();
+    assertEquals(0, FloodControl.tryTake(buckets, "sendMessageAll", now));
+    assertTrue(FloodControl.tryTake(buckets, "sendMessageUser", now) > 0);
+    assertEquals(0, FloodControl.tryTake(buckets, "pong", now));
+    assertEquals(0, FloodControl.tryTake(buckets, "leaveServer", now));
+    assertTrue(FloodControl.tryTake(buckets, "displayToUser", now) > 0);
+  }
+
+  @Test
+  public void classWithoutARateIsNotLimited() {
+    ServerConfig config = new ServerConfig();
+    config.rateOther = 0;
+    FloodControl.Buckets buckets = new FloodControl(config).newBuckets();
+    long now = System.nanoTime();
+    for (int i = 0; i < 100; ++i) assertEquals(0, FloodControl.tryTake(buckets, "pong", now));
+  }
+}